@@ -0,0 +1,293 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import annotations.NonNull;
+
+import com.worthwhilegames.cardgames.shared.Card;
+import com.worthwhilegames.cardgames.shared.Constants;
+
+/**
+ * Chooses the moves of computer players, based on their difficulty.
+ *
+ * Nothing here depends on Android, so computer players can be run away from the gameboard as
+ * well. A C8ComputerPlayer keeps the searches of the hard and expert computer players from one
+ * move to the next, and only chooses one move at a time.
+ */
+public class C8ComputerPlayer {
+
+	/**
+	 * The rules used to check which cards can be played
+	 */
+	private CrazyEightGameRules gameRules = new CrazyEightGameRules();
+
+	/**
+	 * Searches the moves of hard computer players
+	 */
+	private C8SearchEngine searchEngine = new C8SearchEngine();
+
+	/**
+	 * Searches the moves of expert computer players
+	 */
+	private C8MonteCarloSearch monteCarloSearch;
+
+	/**
+	 * How long the hard and expert computer players search for, in milliseconds
+	 */
+	private long hardSearchTime = C8Constants.HARD_SEARCH_TIME;
+	private long expertSearchTime = C8Constants.EXPERT_SEARCH_TIME;
+
+	/**
+	 * Create a C8ComputerPlayer whose expert search runs on every processor
+	 */
+	public C8ComputerPlayer() {
+		monteCarloSearch = new C8MonteCarloSearch();
+	}
+
+	/**
+	 * Create a C8ComputerPlayer
+	 *
+	 * @param searchThreads the number of threads the expert search runs on
+	 * @param seed seeds the random numbers of the expert search
+	 */
+	public C8ComputerPlayer(int searchThreads, long seed) {
+		monteCarloSearch = new C8MonteCarloSearch(searchThreads, seed);
+	}
+
+	/**
+	 * A move chosen for a computer player
+	 */
+	public static class Move {
+
+		private Card card;
+
+		private int suitChosen;
+
+		private Move(Card card, int suitChosen) {
+			this.card = card;
+			this.suitChosen = suitChosen;
+		}
+
+		/**
+		 * @return the card to play, null if the player should draw a card
+		 */
+		public Card getCard() {
+			return card;
+		}
+
+		/**
+		 * @return the suit chosen when the card played is an eight
+		 */
+		public int getSuitChosen() {
+			return suitChosen;
+		}
+	}
+
+	/**
+	 * This will choose the move of a computer player based on the difficulty level, either a card to play
+	 * or drawing a card.
+	 * Easy 	should just loop through the cards to find one that it is allowed to play
+	 * 			very basic, play the first card it is able to or draw if not able
+	 * Medium 	chooses first the cards of the same suit, then cards of the same index of a different suit,
+	 * 			then a special card as a last resort.
+	 * Hard 	searches the moves ahead with a C8SearchEngine
+	 * Expert 	searches the moves ahead with a C8MonteCarloSearch, only going by what the player can know
+	 *
+	 * @param difficulty the difficulty of the computer player
+	 * @param hands the cards in the hand of each player
+	 * @param player the computer player whose turn it is
+	 * @param discardTop the card on top of the discard pile
+	 * @param onDiscard the card to follow, which has the suit chosen if the card on top of the discard pile is an 8
+	 * @param drawPile the cards left to draw
+	 * @return the move chosen
+	 */
+	public Move chooseMove(@NonNull String difficulty, @NonNull List<List<Card>> hands, int player,
+			@NonNull Card discardTop, @NonNull Card onDiscard, @NonNull List<Card> drawPile) {
+		List<Card> cards = hands.get(player);
+		Card cardSelected = null;
+		int suitChosen = -1;
+
+		//computer with difficulty Easy
+		if (difficulty.equals(Constants.EASY)) {
+			for (Card c : cards) {
+				if (gameRules.checkCard(c, onDiscard)) {
+					cardSelected = c;
+					break;
+				}
+			}
+
+
+			if (cardSelected != null && cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+				int[] suits = new int[5];
+				int maxSuitIndex = 0;
+				for (Card c : cards) {
+					if (!c.equals(cardSelected)) {
+						suits[c.getSuit()]++;
+						if (suits[c.getSuit()] > suits[maxSuitIndex]) {
+							maxSuitIndex = c.getSuit();
+						}
+					}
+				}
+				suitChosen = maxSuitIndex;
+			}
+
+			//computer difficulty Medium
+		} else if (difficulty.equals(Constants.MEDIUM) ) {
+
+			List<Card> sameSuit = new ArrayList<Card>();
+			List<Card> sameNum = new ArrayList<Card>();
+			List<Card> special = new ArrayList<Card>();
+
+			int suits[] = new int[5];
+			int maxSuitIndex = 0;
+
+			for (Card c : cards) {
+				//checks for 8s and jokers
+				if( (c.getValue() == C8Constants.EIGHT_CARD_NUMBER || c.getSuit() == Constants.SUIT_JOKER) && gameRules.checkCard(c, onDiscard) ){
+					special.add(c);
+					continue;
+				}
+
+				//this gets the number of cards of each suit
+				suits[c.getSuit()]++;
+				if (suits[c.getSuit()] > suits[maxSuitIndex]) {
+					maxSuitIndex = c.getSuit();
+				}
+
+				//checks for cards of the same suit then cards of the same index
+				if (c.getSuit() == onDiscard.getSuit() && gameRules.checkCard(c, onDiscard) ) {
+					sameSuit.add(c);
+				} else if (c.getValue() == onDiscard.getValue() && gameRules.checkCard(c, onDiscard) ) {
+					sameNum.add(c);
+				}
+			}
+
+
+
+			//see if there is more of another suit that the computer can change it to.
+			boolean moreOfOtherSuit = false;
+			for (Card c : sameNum) {
+				if (suits[c.getSuit()] > suits[onDiscard.getSuit()]){
+					moreOfOtherSuit = true;
+				}
+			}
+
+
+			if (onDiscard.getSuit() == Constants.SUIT_JOKER){ //for a joker
+				for (Card c : cards){
+					if (c.getSuit() == maxSuitIndex){
+						cardSelected = c;
+					}
+				}
+			} else if (moreOfOtherSuit && sameNum.size() > 0 ) { //choose a card of the same number that we can change the suit with
+				cardSelected = sameNum.get(0);
+				for (Card c : sameNum) {
+					if (suits[c.getSuit()] > suits[cardSelected.getSuit()]){
+						cardSelected = c;
+					}
+				}
+			} else if (sameSuit.size() > 0) { //choose a card of the same suit
+				cardSelected = sameSuit.get(0);
+				boolean hasAnotherCardWithIndex = false;
+				for (Card c : sameSuit) {
+					for (Card c1 : cards) {
+						if (c.getValue() == c1.getValue() && suits[c.getSuit()] <= suits[c1.getSuit()] ){
+							cardSelected = c;
+							hasAnotherCardWithIndex = true;
+							break;
+						}
+					}
+					if (hasAnotherCardWithIndex) {
+						break;
+					}
+				}
+			} else if (special.size() > 0){ //play a special card as last resort
+				cardSelected = special.get(0);
+				if (cardSelected != null && cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+					suitChosen = maxSuitIndex;
+				}
+			} // else { no card selected }
+
+			//computer difficulty Hard or Expert
+		} else if (difficulty.equals(Constants.HARD) || difficulty.equals(Constants.EXPERT)) {
+
+			//copy the game state into a search state and search it
+			C8SearchState state = C8SearchState.create(hands, discardTop, onDiscard.getSuit(), drawPile, player);
+			int bestMove;
+			if (difficulty.equals(Constants.HARD)) {
+				bestMove = searchEngine.findBestMove(state, hardSearchTime);
+			} else {
+				// only looks at what the player could know of the state
+				bestMove = monteCarloSearch.findBestMove(state, expertSearchTime);
+			}
+
+			if (bestMove >= 0) {
+				for (Card c : cards) {
+					if (c.getIdNum() == bestMove) {
+						cardSelected = c;
+						break;
+					}
+				}
+
+				if(!gameRules.checkCard(cardSelected, onDiscard)){
+					//should never get here, this would be an error.
+					cardSelected = null;
+				} else if(cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER){
+					suitChosen = state.getMaxSuit(player);
+				}
+			} // else { no card to play, so draw }
+
+		}
+
+		return new Move(cardSelected, suitChosen);
+	}
+
+	/**
+	 * Sets how far the hard computer players search
+	 *
+	 * @param timeMillis how long a search takes at most, in milliseconds
+	 * @param depthLimit the deepest a search goes, in turns
+	 */
+	public void setHardSearch(long timeMillis, int depthLimit) {
+		hardSearchTime = timeMillis;
+		searchEngine.setDepthLimit(depthLimit);
+	}
+
+	/**
+	 * Sets how far the expert computer players search
+	 *
+	 * @param timeMillis how long a search takes at most, in milliseconds
+	 * @param playoutLimit the most playouts a search runs, 0 for as many as there is time for
+	 */
+	public void setExpertSearch(long timeMillis, int playoutLimit) {
+		expertSearchTime = timeMillis;
+		monteCarloSearch.setPlayoutLimit(playoutLimit);
+	}
+
+	/**
+	 * Gets ready for a new game: forgets the positions searched in earlier games and reseeds the
+	 * expert search, so the moves chosen in a game don't depend on the games played before it
+	 *
+	 * @param seed seeds the random numbers of the expert search
+	 */
+	public void newGame(long seed) {
+		searchEngine.clear();
+		monteCarloSearch.setSeed(seed);
+	}
+
+	/**
+	 * @return the search of the hard computer players, which tells how far its last search got
+	 */
+	public C8SearchEngine getSearchEngine() {
+		return searchEngine;
+	}
+
+	/**
+	 * @return the search of the expert computer players, which tells how many playouts its last
+	 * search ran
+	 */
+	public C8MonteCarloSearch getMonteCarloSearch() {
+		return monteCarloSearch;
+	}
+}
@@ -35,4 +35,14 @@ public class C8Constants {
 	 */
 	public static final int EIGHT_CARD_NUMBER = 7;
 
+	/**
+	 * How long a hard computer player searches for its move, in milliseconds
+	 */
+	public static final long HARD_SEARCH_TIME = 500;
+
+	/**
+	 * How long an expert computer player searches for its move, in milliseconds
+	 */
+	public static final long EXPERT_SEARCH_TIME = 1000;
+
 }
@@ -0,0 +1,204 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import static com.worthwhilegames.cardgames.crazyeights.C8Constants.NUMBER_OF_CARDS_PER_HAND;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import annotations.NonNull;
+
+import com.worthwhilegames.cardgames.shared.Card;
+import com.worthwhilegames.cardgames.shared.CardGame;
+import com.worthwhilegames.cardgames.shared.Constants;
+import com.worthwhilegames.cardgames.shared.Deck;
+import com.worthwhilegames.cardgames.shared.Rules;
+
+/**
+ * A game of Crazy Eights between computer players only, played away from the gameboard.
+ *
+ * The game goes the way CrazyEightsTabletGame and CrazyEightsGameController play it: the cards
+ * of a new Deck are shuffled, dealt out NUMBER_OF_CARDS_PER_HAND to each player, and the next
+ * card starts the discard pile. Each turn the player either plays a card, choosing the suit if
+ * it is an 8, or draws one card, and the discard pile is shuffled back into the draw pile once
+ * the draw pile runs out. The first player with no cards left wins.
+ *
+ * Every random number comes from the seed of the game, so a game played by computer players
+ * whose searches stop on their limits rather than their time plays out the same every time.
+ */
+public class C8HeadlessGame {
+
+	/**
+	 * The most turns a game goes on for before it is called off without a winner
+	 */
+	public static final int MAX_TURNS = 1000;
+
+	/**
+	 * The rules every card played is checked against
+	 */
+	private Rules rules = new CrazyEightGameRules();
+
+	/**
+	 * Chooses the moves of the players
+	 */
+	private C8ComputerPlayer computerPlayer;
+
+	/**
+	 * The difficulty of each player
+	 */
+	private String[] difficulties;
+
+	private Random random;
+
+	private List<List<Card>> hands = new ArrayList<List<Card>>();
+	private List<Card> drawPile;
+	private List<Card> discardPile = new ArrayList<Card>();
+
+	private int whoseTurn = 0;
+	private int suitChosen = -1;
+	private int turns = 0;
+
+	/**
+	 * The playouts run and the time spent searching by the expert computer players
+	 */
+	private long expertPlayouts = 0;
+	private double expertSeconds = 0;
+
+	/**
+	 * Create a game
+	 *
+	 * @param difficulties the difficulty of each player, in the order they take their turns
+	 * @param computerPlayer chooses the moves of the players
+	 * @param seed the seed of the game
+	 */
+	public C8HeadlessGame(@NonNull String[] difficulties, @NonNull C8ComputerPlayer computerPlayer, long seed) {
+		this.difficulties = difficulties;
+		this.computerPlayer = computerPlayer;
+		random = new Random(seed);
+		computerPlayer.newGame(seed);
+	}
+
+	/**
+	 * Plays the game out
+	 *
+	 * @return the player who won, -1 if the game was called off after MAX_TURNS turns
+	 */
+	public int play() {
+		setup();
+
+		while (turns < MAX_TURNS) {
+			turns++;
+			if (playTurn()) {
+				return whoseTurn;
+			}
+			whoseTurn = (whoseTurn + 1) % difficulties.length;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return the number of turns played
+	 */
+	public int getTurns() {
+		return turns;
+	}
+
+	/**
+	 * @return the number of playouts run by the expert computer players
+	 */
+	public long getExpertPlayouts() {
+		return expertPlayouts;
+	}
+
+	/**
+	 * @return the time spent searching by the expert computer players, in seconds
+	 */
+	public double getExpertSeconds() {
+		return expertSeconds;
+	}
+
+	/**
+	 * Shuffles the deck, deals the hands and starts the discard pile
+	 */
+	private void setup() {
+		drawPile = new Deck(CardGame.CRAZY_EIGHTS).getCardIDs();
+		Collections.shuffle(drawPile, random);
+
+		for (int i = 0; i < difficulties.length; i++) {
+			hands.add(new ArrayList<Card>());
+		}
+		for (int i = 0; i < NUMBER_OF_CARDS_PER_HAND; i++) {
+			for (List<Card> hand : hands) {
+				hand.add(drawPile.remove(0));
+			}
+		}
+
+		discardPile.add(drawPile.remove(0));
+		if (discardPile.get(0).getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+			// The first 8 keeps its own suit
+			suitChosen = discardPile.get(0).getSuit();
+		}
+	}
+
+	/**
+	 * Plays the turn of the player whose turn it is
+	 *
+	 * @return true if the player won
+	 */
+	private boolean playTurn() {
+		Card discardTop = discardPile.get(discardPile.size() - 1);
+		Card onDiscard = discardTop;
+		if (discardTop.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+			onDiscard = new Card(suitChosen, discardTop.getValue(), discardTop.getResourceId(), discardTop.getIdNum());
+		}
+
+		String difficulty = difficulties[whoseTurn];
+		C8ComputerPlayer.Move move = computerPlayer.chooseMove(difficulty, hands, whoseTurn, discardTop, onDiscard, drawPile);
+		if (difficulty.equals(Constants.EXPERT)) {
+			C8MonteCarloSearch search = computerPlayer.getMonteCarloSearch();
+			if (search.getPlayoutsPerSecond() > 0) {
+				expertPlayouts += search.getPlayouts();
+				expertSeconds += search.getPlayouts() / search.getPlayoutsPerSecond();
+			}
+		}
+
+		List<Card> hand = hands.get(whoseTurn);
+		Card card = move.getCard();
+		if (card != null) {
+			if (!rules.checkCard(card, onDiscard) || !hand.remove(card)) {
+				throw new IllegalStateException(difficulty + " computer played " + card + " on " + onDiscard);
+			}
+			discardPile.add(card);
+			if (card.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+				// An 8 played without choosing a suit keeps its own, as on the gameboard
+				suitChosen = (move.getSuitChosen() >= 0) ? move.getSuitChosen() : card.getSuit();
+			}
+			return hand.isEmpty();
+		}
+
+		// Draw a card, if there is one left anywhere
+		if (drawPile.isEmpty()) {
+			shuffleDiscardPile();
+		}
+		if (!drawPile.isEmpty()) {
+			hand.add(drawPile.remove(0));
+			if (drawPile.isEmpty()) {
+				shuffleDiscardPile();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Shuffles every card of the discard pile but the top one back into the draw pile
+	 */
+	private void shuffleDiscardPile() {
+		Card top = discardPile.remove(discardPile.size() - 1);
+		drawPile.addAll(discardPile);
+		discardPile.clear();
+		discardPile.add(top);
+		Collections.shuffle(drawPile, random);
+	}
+}
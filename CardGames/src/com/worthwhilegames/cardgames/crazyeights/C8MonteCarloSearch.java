@@ -0,0 +1,510 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import annotations.NonNull;
+
+/**
+ * Finds the move of a computer player with Information Set Monte Carlo Tree Search.
+ *
+ * Unlike C8SearchEngine, this search only goes by what the player can know: their own hand,
+ * the card on the discard pile, how many cards each other player holds and how many are
+ * left to draw. The cards the player hasn't seen could be anywhere among the other hands and
+ * the draw pile, so every playout starts by dealing them out at random, in a way that fits
+ * what the player knows (a determinization), and then plays the game out from there. All the
+ * playouts share one tree of moves, whose statistics are kept for each move rather than for
+ * each determinization, and each player picks their moves in the tree to win themselves.
+ *
+ * The search runs a tree on each of a number of threads, each with its own determinizations,
+ * until its time runs out, and then plays the move tried most often over all the trees.
+ */
+public class C8MonteCarloSearch {
+
+	/**
+	 * Moves other than playing a card, numbered after the card ids
+	 */
+	private static final int DRAW = C8SearchState.NUMBER_OF_CARDS;
+	private static final int PASS = DRAW + 1;
+	private static final int NUMBER_OF_MOVES = PASS + 1;
+
+	/**
+	 * How much the tree favours moves tried less often over moves that won more often
+	 */
+	private static final double EXPLORATION = 0.7;
+
+	/**
+	 * The most turns a playout goes on for. A playout nobody has won by then goes to the
+	 * player with the fewest cards.
+	 */
+	private static final int MAX_PLAYOUT_TURNS = 200;
+
+	/**
+	 * The threads running the trees of all searches, created the first time they are needed
+	 */
+	private static ExecutorService pool;
+
+	/**
+	 * The number of trees to run at once
+	 */
+	private int threads;
+
+	/**
+	 * Seeds the random numbers of the next search
+	 */
+	private long seed;
+
+	/**
+	 * The most playouts a search runs, 0 for as many as there is time for
+	 */
+	private int playoutLimit;
+
+	/**
+	 * What the last search got through
+	 */
+	private long playouts;
+	private long elapsedNanos;
+
+	/**
+	 * Create a search running a tree on each processor
+	 */
+	public C8MonteCarloSearch() {
+		this(Runtime.getRuntime().availableProcessors(), System.nanoTime());
+	}
+
+	/**
+	 * Create a search
+	 *
+	 * @param threads the number of trees to run at once
+	 * @param seed seeds the random numbers of the searches, so a search limited by playouts
+	 * on a single thread picks the same moves every time
+	 */
+	public C8MonteCarloSearch(int threads, long seed) {
+		this.threads = Math.max(1, threads);
+		this.seed = seed;
+	}
+
+	/**
+	 * @param seed seeds the random numbers of the next search
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param limit the most playouts a search runs over all its trees, 0 for as many as there
+	 * is time for
+	 */
+	public void setPlayoutLimit(int limit) {
+		playoutLimit = limit;
+	}
+
+	/**
+	 * Finds the best move for the player whose turn it is. Only what the player can know is
+	 * read from the state: the cards in the other hands and in the draw pile are all just
+	 * cards the player hasn't seen. The search stops early, with the best move found so far, if
+	 * its thread is interrupted.
+	 *
+	 * @param state the state of the game, left as it was found
+	 * @param timeMillis how long to search for, in milliseconds
+	 * @return the id of the card to play, -1 if there is no card to play and a card should be drawn
+	 */
+	public int findBestMove(@NonNull C8SearchState state, long timeMillis) {
+		playouts = 0;
+		elapsedNanos = 0;
+		int player = state.getTurn();
+		long playable = state.getPlayable(player);
+		if (playable == 0) {
+			return -1;
+		}
+		if (Long.bitCount(playable) == 1) {
+			// Nothing to choose between
+			return Long.numberOfTrailingZeros(playable);
+		}
+
+		// Everything the player can know
+		int numPlayers = state.getNumPlayers();
+		int[] handSizes = new int[numPlayers];
+		long unseen = state.getDrawMask();
+		for (int p = 0; p < numPlayers; p++) {
+			handSizes[p] = state.getHandSize(p);
+			if (p != player) {
+				unseen |= state.getHand(p);
+			}
+		}
+
+		long start = System.nanoTime();
+		long deadline = start + timeMillis * 1000000;
+		List<Worker> workers = new ArrayList<Worker>(threads);
+		for (int i = 0; i < threads; i++) {
+			int limit = (playoutLimit > 0) ? (playoutLimit + threads - 1) / threads : 0;
+			workers.add(new Worker(nextSeed(), numPlayers, player, state.getHand(player), handSizes,
+					unseen, state.getTop(), state.getSuit(), deadline, limit));
+		}
+
+		int[] visits = new int[NUMBER_OF_MOVES];
+		try {
+			if (threads == 1) {
+				add(visits, workers.get(0).call());
+			} else {
+				for (Future<int[]> result : getPool().invokeAll(workers)) {
+					add(visits, result.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		elapsedNanos = System.nanoTime() - start;
+		for (Worker worker : workers) {
+			playouts += worker.playouts;
+		}
+
+		int bestMove = Long.numberOfTrailingZeros(playable);
+		for (int move = 0; move < DRAW; move++) {
+			if (visits[move] > visits[bestMove]) {
+				bestMove = move;
+			}
+		}
+		return bestMove;
+	}
+
+	/**
+	 * @return the number of playouts run by the last search
+	 */
+	public long getPlayouts() {
+		return playouts;
+	}
+
+	/**
+	 * @return the number of playouts run each second by the last search, over all its trees
+	 */
+	public double getPlayoutsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : playouts * 1e9 / elapsedNanos;
+	}
+
+	private long nextSeed() {
+		seed = seed * 6364136223846793005L + 1442695040888963407L;
+		return seed;
+	}
+
+	private static void add(int[] total, int[] visits) {
+		for (int i = 0; i < total.length; i++) {
+			total[i] += visits[i];
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "C8MonteCarloSearch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * A move in the tree, along with how it has done
+	 */
+	private static class Node {
+		/**
+		 * The move, a card id, DRAW or PASS
+		 */
+		final int move;
+
+		/**
+		 * The player who makes the move
+		 */
+		final int player;
+
+		final Node parent;
+		Node firstChild;
+		Node nextSibling;
+
+		/**
+		 * The number of playouts through this move, the number of those the player making the
+		 * move won, and the number of playouts this move could have been made in
+		 */
+		int visits;
+		double wins;
+		int availability;
+
+		Node(int move, int player, Node parent) {
+			this.move = move;
+			this.player = player;
+			this.parent = parent;
+			if (parent != null) {
+				nextSibling = parent.firstChild;
+				parent.firstChild = this;
+			}
+		}
+	}
+
+	/**
+	 * Runs one tree, on a state of its own
+	 */
+	private static class Worker implements Callable<int[]> {
+
+		private C8SearchState state;
+		private Random random;
+
+		/**
+		 * What the player searching knows
+		 */
+		private int observer;
+		private long hand;
+		private int[] handSizes;
+		private int top;
+		private int suit;
+
+		/**
+		 * The cards the player searching hasn't seen, shuffled for each playout, and the draw pile
+		 * dealt out of them
+		 */
+		private int[] unseen;
+		private int[] drawPile;
+
+		private long deadline;
+		private int limit;
+		private long playouts;
+
+		/**
+		 * The share of the playout won by each player
+		 */
+		private double[] rewards;
+
+		private Node root = new Node(-1, -1, null);
+
+		Worker(long seed, int numPlayers, int observer, long hand, int[] handSizes, long unseenMask,
+				int top, int suit, long deadline, int limit) {
+			state = new C8SearchState(numPlayers);
+			random = new Random(seed);
+			this.observer = observer;
+			this.hand = hand;
+			this.handSizes = handSizes;
+			this.top = top;
+			this.suit = suit;
+			this.deadline = deadline;
+			this.limit = limit;
+			unseen = new int[Long.bitCount(unseenMask)];
+			drawPile = new int[unseen.length];
+			int i = 0;
+			for (long rest = unseenMask; rest != 0; rest &= rest - 1) {
+				unseen[i++] = Long.numberOfTrailingZeros(rest);
+			}
+			rewards = new double[numPlayers];
+		}
+
+		@Override
+		public int[] call() {
+			while (limit <= 0 || playouts < limit) {
+				if ((playouts & 15) == 0 && (System.nanoTime() > deadline || Thread.currentThread().isInterrupted())) {
+					break;
+				}
+				playout();
+				playouts++;
+			}
+
+			int[] visits = new int[NUMBER_OF_MOVES];
+			for (Node child = root.firstChild; child != null; child = child.nextSibling) {
+				visits[child.move] = child.visits;
+			}
+			return visits;
+		}
+
+		/**
+		 * Deals the unseen cards out at random into the other hands and the draw pile
+		 */
+		private void determinize() {
+			for (int i = unseen.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int card = unseen[i];
+				unseen[i] = unseen[j];
+				unseen[j] = card;
+			}
+			int next = 0;
+			for (int p = 0; p < handSizes.length; p++) {
+				if (p == observer) {
+					state.setHand(p, hand);
+					continue;
+				}
+				long dealt = 0;
+				for (int i = 0; i < handSizes[p]; i++) {
+					dealt |= 1L << unseen[next++];
+				}
+				state.setHand(p, dealt);
+			}
+			System.arraycopy(unseen, next, drawPile, 0, unseen.length - next);
+			state.setDrawPile(drawPile, unseen.length - next);
+			state.setDiscard(top, suit);
+			state.setTurn(observer);
+		}
+
+		/**
+		 * Runs one playout: picks a determinization, goes down the tree with the moves that can
+		 * be made in it, adds a move to the tree, plays the game out at random and lets every
+		 * move on the way know who won
+		 */
+		private void playout() {
+			determinize();
+			Node node = root;
+			int winner = -1;
+
+			while (winner < 0) {
+				int player = state.getTurn();
+				long legal = state.getPlayable(player);
+				int onlyMove = -1;
+				if (legal == 0) {
+					onlyMove = (state.getDrawCount() > 0) ? DRAW : PASS;
+				}
+
+				// Find the moves in the tree that can be made now, and the ones not in it yet
+				long untried = legal;
+				boolean onlyMoveTried = false;
+				for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+					if (isLegal(child.move, legal, onlyMove)) {
+						child.availability++;
+						if (child.move < DRAW) {
+							untried &= ~(1L << child.move);
+						} else {
+							onlyMoveTried = true;
+						}
+					}
+				}
+
+				if (untried != 0 || (onlyMove >= 0 && !onlyMoveTried)) {
+					int move = (onlyMove >= 0) ? onlyMove : randomCard(untried);
+					node = new Node(move, player, node);
+					node.availability = 1;
+					winner = makeMove(move);
+					break;
+				}
+
+				node = select(node, legal, onlyMove);
+				winner = makeMove(node.move);
+			}
+
+			if (winner < 0) {
+				playOut();
+			} else {
+				for (int p = 0; p < rewards.length; p++) {
+					rewards[p] = (p == winner) ? 1 : 0;
+				}
+			}
+
+			for (Node n = node; n != root; n = n.parent) {
+				n.visits++;
+				n.wins += rewards[n.player];
+			}
+			root.visits++;
+
+			while (state.getMovesMade() > 0) {
+				state.undo();
+			}
+		}
+
+		/**
+		 * Picks the move in the tree that can be made now with the best upper confidence bound
+		 */
+		private Node select(Node node, long legal, int onlyMove) {
+			Node best = null;
+			double bestBound = Double.NEGATIVE_INFINITY;
+			for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+				if (!isLegal(child.move, legal, onlyMove)) {
+					continue;
+				}
+				double bound = child.wins / child.visits
+						+ EXPLORATION * Math.sqrt(Math.log(child.availability) / child.visits);
+				if (bound > bestBound) {
+					best = child;
+					bestBound = bound;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays the rest of the game out at random, and fills in the rewards
+		 */
+		private void playOut() {
+			for (int turns = 0; turns < MAX_PLAYOUT_TURNS; turns++) {
+				int player = state.getTurn();
+				long legal = state.getPlayable(player);
+				if (legal != 0) {
+					state.play(randomCard(legal), state.getMaxSuit(player));
+					if (state.getHandSize(player) == 0) {
+						for (int p = 0; p < rewards.length; p++) {
+							rewards[p] = (p == player) ? 1 : 0;
+						}
+						return;
+					}
+				} else if (state.draw() < 0) {
+					state.pass();
+				}
+			}
+
+			// Nobody won in time, the fewest cards win
+			int fewest = Integer.MAX_VALUE;
+			int tied = 0;
+			for (int p = 0; p < rewards.length; p++) {
+				int size = state.getHandSize(p);
+				if (size < fewest) {
+					fewest = size;
+					tied = 1;
+				} else if (size == fewest) {
+					tied++;
+				}
+			}
+			for (int p = 0; p < rewards.length; p++) {
+				rewards[p] = (state.getHandSize(p) == fewest) ? 1.0 / tied : 0;
+			}
+		}
+
+		/**
+		 * Makes a move for the player whose turn it is
+		 *
+		 * @return the player who made the move if it won them the game, -1 otherwise
+		 */
+		private int makeMove(int move) {
+			int player = state.getTurn();
+			if (move == DRAW) {
+				state.draw();
+			} else if (move == PASS) {
+				state.pass();
+			} else {
+				state.play(move, state.getMaxSuit(player));
+				if (state.getHandSize(player) == 0) {
+					return player;
+				}
+			}
+			return -1;
+		}
+
+		private static boolean isLegal(int move, long legal, int onlyMove) {
+			return (move < DRAW) ? (legal & (1L << move)) != 0 : move == onlyMove;
+		}
+
+		/**
+		 * @return the id of one of the cards, picked at random
+		 */
+		private int randomCard(long cards) {
+			for (int skip = random.nextInt(Long.bitCount(cards)); skip > 0; skip--) {
+				cards &= cards - 1;
+			}
+			return Long.numberOfTrailingZeros(cards);
+		}
+	}
+}
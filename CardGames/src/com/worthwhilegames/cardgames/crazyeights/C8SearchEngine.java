@@ -0,0 +1,411 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import java.util.Random;
+
+import annotations.NonNull;
+
+/**
+ * Searches a C8SearchState for the best move of the player whose turn it is.
+ *
+ * Moves are scored with the CardScoreCalculator, the lower the score the better for the
+ * player searching. The search is paranoid: the player searching goes for the lowest total
+ * score and every other player is assumed to be out to raise it, which turns the game into
+ * a two sided one that alpha-beta can prune. A player with no card to play draws, and as
+ * nobody knows the order of the draw pile, a draw is scored as the average over every card
+ * that could come up (expectimax). A player who can neither play nor draw passes.
+ *
+ * The search deepens one turn at a time until its time runs out, and plays the best move of
+ * the deepest search it finished. Every position searched goes into a transposition table
+ * keyed by the Zobrist hash of the state, which saves searching positions reached along
+ * different lines again, and the best move found for a position the last time around is
+ * tried first the next time. Other moves are tried best score first.
+ *
+ * An engine keeps its transposition table from one search to the next, so it should be kept
+ * for the whole game. It is not thread safe.
+ */
+public class C8SearchEngine {
+
+	/**
+	 * Greater than any score a line of play can add up to
+	 */
+	private static final double INFINITY = 1e12;
+
+	/**
+	 * A move scored at least this much either way ends the game, see CardScoreCalculator
+	 */
+	private static final double GAME_OVER = 10000;
+
+	/**
+	 * The deepest the search will go, in turns
+	 */
+	public static final int MAX_DEPTH = 60;
+
+	/**
+	 * The number of entries in the transposition table, a power of two
+	 */
+	private static final int TABLE_SIZE = 1 << 16;
+
+	/**
+	 * Kinds of values kept in the transposition table
+	 */
+	private static final byte EXACT = 0;
+	private static final byte LOWER_BOUND = 1;
+	private static final byte UPPER_BOUND = 2;
+
+	/**
+	 * Random keys telling apart the positions searched for each player, since the scores of a
+	 * position depend on who is searching it
+	 */
+	private static final long[] SEARCHER_KEYS = new long[C8SearchState.MAX_PLAYERS];
+
+	static {
+		Random random = new Random(0xc8c8c8c8L);
+		for (int i = 0; i < SEARCHER_KEYS.length; i++) {
+			SEARCHER_KEYS[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * The transposition table: the hash of each position, the value of the rest of the game
+	 * from it, how many turns deep that value was searched, what kind of value it is, the best
+	 * move found and which search stored it
+	 */
+	private long[] tableHashes = new long[TABLE_SIZE];
+	private double[] tableValues = new double[TABLE_SIZE];
+	private byte[] tableDepths = new byte[TABLE_SIZE];
+	private byte[] tableKinds = new byte[TABLE_SIZE];
+	private byte[] tableMoves = new byte[TABLE_SIZE];
+	private byte[] tableSearches = new byte[TABLE_SIZE];
+
+	/**
+	 * The moves of each ply being searched, in the order they are tried, and their scores
+	 */
+	private int[][] moves = new int[MAX_DEPTH + 1][C8SearchState.NUMBER_OF_CARDS];
+	private double[][] moveScores = new double[MAX_DEPTH + 1][C8SearchState.NUMBER_OF_CARDS];
+
+	/**
+	 * The state being searched and the scores of its moves
+	 */
+	private C8SearchState state;
+	private CardScoreCalculator csc;
+
+	/**
+	 * The player searching
+	 */
+	private int searcher;
+
+	/**
+	 * The deepest a search goes, in turns
+	 */
+	private int depthLimit = MAX_DEPTH;
+
+	/**
+	 * Counts the searches made by this engine, to tell entries of the transposition table left
+	 * by earlier searches apart
+	 */
+	private byte searchCount;
+
+	/**
+	 * When the current search has to stop, from System.nanoTime()
+	 */
+	private long deadline;
+
+	/**
+	 * Set once the current search has run out of time, or its thread has been interrupted
+	 */
+	private boolean outOfTime;
+
+	/**
+	 * Set if the current pass of the search stopped anywhere because it was deep enough
+	 * rather than because the game was over
+	 */
+	private boolean depthCutOff;
+
+	/**
+	 * The best move found at the top of the tree by the current pass of the search, and its value
+	 */
+	private int rootMove;
+	private double rootValue;
+
+	/**
+	 * What the last search got through
+	 */
+	private long nodes;
+	private int depthReached;
+	private double bestValue;
+
+	/**
+	 * Finds the best move for the player whose turn it is. The search stops early, with the best
+	 * move found so far, if its thread is interrupted.
+	 *
+	 * @param stateGiven the state of the game, left as it was found
+	 * @param timeMillis how long to search for, in milliseconds
+	 * @return the id of the card to play, -1 if there is no card to play and a card should be drawn
+	 */
+	public int findBestMove(@NonNull C8SearchState stateGiven, long timeMillis) {
+		state = stateGiven;
+		searcher = state.getTurn();
+		csc = new CardScoreCalculator(searcher, state);
+		deadline = System.nanoTime() + timeMillis * 1000000;
+		outOfTime = false;
+		nodes = 0;
+		depthReached = 0;
+		bestValue = 0;
+		searchCount++;
+
+		long playable = state.getPlayable(searcher);
+		if (playable == 0) {
+			return -1;
+		}
+		int bestMove = Long.numberOfTrailingZeros(playable);
+		if (Long.bitCount(playable) == 1) {
+			// Nothing to choose between
+			return bestMove;
+		}
+
+		for (int depth = 1; depth <= depthLimit; depth++) {
+			depthCutOff = false;
+			rootMove = -1;
+			search(0, depth, -INFINITY, INFINITY);
+			if (outOfTime) {
+				break;
+			}
+			bestMove = rootMove;
+			bestValue = rootValue;
+			depthReached = depth;
+			if (!depthCutOff) {
+				// Every line was searched to the end of the game, going deeper won't change anything
+				break;
+			}
+		}
+
+		return bestMove;
+	}
+
+	/**
+	 * @param limit the deepest searches go, in turns, up to MAX_DEPTH. A search that stops on its
+	 * depth rather than its time picks the same move every time.
+	 */
+	public void setDepthLimit(int limit) {
+		depthLimit = Math.max(1, Math.min(limit, MAX_DEPTH));
+	}
+
+	/**
+	 * @return the number of positions looked at by the last search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the deepest the last search got, in turns, before its time ran out
+	 */
+	public int getDepthReached() {
+		return depthReached;
+	}
+
+	/**
+	 * @return the value of the move chosen by the last search, the lower the better for the
+	 * player who searched
+	 */
+	public double getBestValue() {
+		return bestValue;
+	}
+
+	/**
+	 * Forgets every position searched so far
+	 */
+	public void clear() {
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			tableHashes[i] = 0;
+			tableDepths[i] = 0;
+		}
+	}
+
+	/**
+	 * Searches the position the state is in
+	 *
+	 * @param ply how many turns from the top of the tree the position is
+	 * @param depth how many more turns to search
+	 * @param alpha the value the players raising the score are sure of already
+	 * @param beta the value the player searching is sure of already
+	 * @return the total score of the rest of the game from this position, from the point of view
+	 * of the player searching
+	 */
+	private double search(int ply, int depth, double alpha, double beta) {
+		if ((++nodes & 1023) == 0 && (System.nanoTime() > deadline || Thread.currentThread().isInterrupted())) {
+			outOfTime = true;
+		}
+		if (outOfTime) {
+			return 0;
+		}
+		if (depth == 0) {
+			depthCutOff = true;
+			return 0;
+		}
+
+		long hash = state.getHash() ^ SEARCHER_KEYS[searcher];
+		int slot = (int) hash & (TABLE_SIZE - 1);
+		int tableMove = -1;
+		if (tableHashes[slot] == hash) {
+			tableMove = tableMoves[slot];
+			if (ply > 0 && tableDepths[slot] >= depth) {
+				double value = tableValues[slot];
+				byte kind = tableKinds[slot];
+				if (kind == EXACT
+						|| (kind == LOWER_BOUND && value >= beta)
+						|| (kind == UPPER_BOUND && value <= alpha)) {
+					// The value may have been cut off by depth when it was stored
+					depthCutOff = true;
+					return value;
+				}
+			}
+		}
+
+		int player = state.getTurn();
+		long playable = state.getPlayable(player);
+		if (playable == 0) {
+			double value = searchDraw(ply, depth);
+			if (!outOfTime) {
+				store(slot, hash, value, depth, EXACT, -1);
+			}
+			return value;
+		}
+
+		boolean isSearcher = player == searcher;
+		int count = orderMoves(ply, player, playable, tableMove, isSearcher);
+		int suitToChoose = state.getMaxSuit(player);
+		int[] plyMoves = moves[ply];
+		double[] plyScores = moveScores[ply];
+		double originalAlpha = alpha;
+		double originalBeta = beta;
+		double best = isSearcher ? INFINITY : -INFINITY;
+		int bestMove = -1;
+
+		for (int i = 0; i < count; i++) {
+			int card = plyMoves[i];
+			double score = plyScores[i];
+			double value = score;
+			if (Math.abs(score) < GAME_OVER) {
+				state.play(card, suitToChoose);
+				value += search(ply + 1, depth - 1, alpha - score, beta - score);
+				state.undo();
+			} // else { the game is over with this card }
+
+			if (isSearcher ? value < best : value > best) {
+				best = value;
+				bestMove = card;
+			}
+			if (isSearcher) {
+				beta = Math.min(beta, best);
+			} else {
+				alpha = Math.max(alpha, best);
+			}
+			if (alpha >= beta) {
+				break;
+			}
+		}
+
+		if (outOfTime) {
+			return 0;
+		}
+		byte kind = EXACT;
+		if (best <= originalAlpha) {
+			kind = UPPER_BOUND;
+		} else if (best >= originalBeta) {
+			kind = LOWER_BOUND;
+		}
+		store(slot, hash, best, depth, kind, bestMove);
+		if (ply == 0) {
+			rootMove = bestMove;
+			rootValue = best;
+		}
+		return best;
+	}
+
+	/**
+	 * Searches the position of a player with no card to play, who draws a card. Every card left in
+	 * the draw pile is as likely to come up as any other. Each line is searched with a full window,
+	 * so the value is exact and can be stored as such.
+	 *
+	 * @return the average total score of the rest of the game over the cards that could be drawn
+	 */
+	private double searchDraw(int ply, int depth) {
+		int player = state.getTurn();
+		long drawMask = state.getDrawMask();
+		if (drawMask == 0) {
+			// nothing left to draw either, so the turn just passes
+			state.pass();
+			double value = search(ply + 1, depth - 1, -INFINITY, INFINITY);
+			state.undo();
+			return value;
+		}
+
+		double total = 0;
+		for (long rest = drawMask; rest != 0; rest &= rest - 1) {
+			int card = Long.numberOfTrailingZeros(rest);
+			state.drawCard(card);
+			total += csc.calculateScoreDrawn(card, player) + search(ply + 1, depth - 1, -INFINITY, INFINITY);
+			state.undo();
+			if (outOfTime) {
+				return 0;
+			}
+		}
+		return total / Long.bitCount(drawMask);
+	}
+
+	/**
+	 * Puts the playable cards of a player in the order they should be tried: the best move found
+	 * for the position before, then the rest best score first.
+	 *
+	 * @return the number of moves
+	 */
+	private int orderMoves(int ply, int player, long playable, int tableMove, boolean isSearcher) {
+		int[] plyMoves = moves[ply];
+		double[] plyScores = moveScores[ply];
+		int suitToChoose = state.getMaxSuit(player);
+		int onDiscardSuit = state.getSuit();
+		int onDiscardValue = C8SearchState.valueOf(state.getTop());
+		int count = 0;
+
+		for (long rest = playable; rest != 0; rest &= rest - 1) {
+			int card = Long.numberOfTrailingZeros(rest);
+			state.play(card, suitToChoose);
+			double score = csc.calculateScorePlayed(card, onDiscardSuit, onDiscardValue, player);
+			state.undo();
+
+			// Insert the move, keeping the list ordered from the best move to the worst
+			double key = (card == tableMove) ? (isSearcher ? -INFINITY : INFINITY) : score;
+			int i = count++;
+			while (i > 0) {
+				int previous = plyMoves[i - 1];
+				double previousKey = (previous == tableMove) ? (isSearcher ? -INFINITY : INFINITY) : plyScores[i - 1];
+				if (isSearcher ? previousKey <= key : previousKey >= key) {
+					break;
+				}
+				plyMoves[i] = previous;
+				plyScores[i] = plyScores[i - 1];
+				i--;
+			}
+			plyMoves[i] = card;
+			plyScores[i] = score;
+		}
+		return count;
+	}
+
+	/**
+	 * Keeps the value of a position in the transposition table, unless its slot holds a position
+	 * of the same search that was searched deeper
+	 */
+	private void store(int slot, long hash, double value, int depth, byte kind, int bestMove) {
+		if (tableHashes[slot] != hash && tableSearches[slot] == searchCount && tableDepths[slot] > depth) {
+			return;
+		}
+		tableHashes[slot] = hash;
+		tableValues[slot] = value;
+		tableDepths[slot] = (byte) depth;
+		tableKinds[slot] = kind;
+		tableMoves[slot] = (byte) bestMove;
+		tableSearches[slot] = searchCount;
+	}
+}
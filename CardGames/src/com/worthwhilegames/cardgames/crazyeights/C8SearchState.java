@@ -0,0 +1,574 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import java.util.List;
+import java.util.Random;
+
+import annotations.NonNull;
+
+import com.worthwhilegames.cardgames.shared.Card;
+import com.worthwhilegames.cardgames.shared.Constants;
+
+/**
+ * A compact state of a game of Crazy Eights for the computer players to search.
+ *
+ * Cards are known by their id in the Deck (0 - 53): the suit times 13 plus the value, with
+ * the two jokers at 52 and 53. Each hand is a single long with one bit for each card id,
+ * the card on the discard pile and the suit to follow are plain ints, and the number of
+ * cards of each suit in every hand is kept up to date as cards move, so nothing has to be
+ * counted again while searching.
+ *
+ * Moves are made on the state itself and undone from an undo stack, both in constant time,
+ * so a search can run down and back up a whole tree on a single state without creating
+ * any objects along the way. The state also keeps a Zobrist hash of itself up to date,
+ * so positions reached along different lines can be told apart and looked up.
+ */
+public class C8SearchState {
+
+	/**
+	 * The number of cards in a Crazy Eights deck
+	 */
+	public static final int NUMBER_OF_CARDS = 54;
+
+	/**
+	 * The number of suit counts kept for a hand: one for each suit and one more, at
+	 * Constants.SUIT_JOKER, counting the eights and jokers together
+	 */
+	public static final int NUMBER_OF_SUITS = 5;
+
+	/**
+	 * The cards of each suit, by suit
+	 */
+	private static final long[] SUIT_CARDS = new long[NUMBER_OF_SUITS];
+
+	/**
+	 * The cards of each value, by value
+	 */
+	private static final long[] VALUE_CARDS = new long[13];
+
+	/**
+	 * The eights and the jokers, which can be played on anything
+	 */
+	public static final long SPECIAL_CARDS;
+
+	/**
+	 * The suit count each card goes towards, by card id
+	 */
+	private static final int[] COUNTED_SUIT = new int[NUMBER_OF_CARDS];
+
+	static {
+		long special = 0;
+		for (int id = 0; id < NUMBER_OF_CARDS; id++) {
+			SUIT_CARDS[suitOf(id)] |= 1L << id;
+			VALUE_CARDS[valueOf(id)] |= 1L << id;
+			if (isSpecial(id)) {
+				special |= 1L << id;
+				COUNTED_SUIT[id] = Constants.SUIT_JOKER;
+			} else {
+				COUNTED_SUIT[id] = suitOf(id);
+			}
+		}
+		SPECIAL_CARDS = special;
+	}
+
+	/**
+	 * The most players a state can hold
+	 */
+	public static final int MAX_PLAYERS = 8;
+
+	/**
+	 * Random keys making up the Zobrist hash: one for each card in each hand, for each card
+	 * in the draw pile, for each card on the discard pile, for each suit to follow and for
+	 * each player whose turn it may be
+	 */
+	private static final long[] HAND_KEYS = new long[MAX_PLAYERS * NUMBER_OF_CARDS];
+	private static final long[] DRAW_KEYS = new long[NUMBER_OF_CARDS];
+	private static final long[] TOP_KEYS = new long[NUMBER_OF_CARDS];
+	private static final long[] SUIT_KEYS = new long[NUMBER_OF_SUITS];
+	private static final long[] TURN_KEYS = new long[MAX_PLAYERS];
+
+	static {
+		// Always the same keys, so hashes can be compared from one game to the next
+		Random random = new Random(0x8c8c8c8cL);
+		for (long[] keys : new long[][] { HAND_KEYS, DRAW_KEYS, TOP_KEYS, SUIT_KEYS, TURN_KEYS }) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = random.nextLong();
+			}
+		}
+	}
+
+	/**
+	 * Kinds of moves kept on the undo stack
+	 */
+	private static final int PLAY = 0;
+	private static final int DRAW = 1;
+	private static final int PASS = 2;
+
+	/**
+	 * The number of players in the game
+	 */
+	private int numPlayers;
+
+	/**
+	 * The cards in each player's hand, one bit per card id
+	 */
+	private long[] hands;
+
+	/**
+	 * The number of cards of each suit in each player's hand, NUMBER_OF_SUITS per player
+	 */
+	private int[] suitCounts;
+
+	/**
+	 * The id of the card on top of the discard pile
+	 */
+	private int top;
+
+	/**
+	 * The suit to follow, the suit chosen for an eight on the discard pile
+	 */
+	private int suit;
+
+	/**
+	 * The index of the player whose turn it is
+	 */
+	private int turn;
+
+	/**
+	 * The draw pile in the order the cards will be drawn, starting at drawNext
+	 */
+	private int[] drawPile = new int[NUMBER_OF_CARDS];
+	private int drawSize;
+	private int drawNext;
+
+	/**
+	 * The cards left in the draw pile, one bit per card id, and where each of them is in
+	 * drawPile
+	 */
+	private long drawMask;
+	private int[] drawIndex = new int[NUMBER_OF_CARDS];
+
+	/**
+	 * The Zobrist hash of the hands, the draw pile, the discard pile, the suit to follow
+	 * and whose turn it is
+	 */
+	private long hash;
+
+	/**
+	 * The moves made so far, each packed into an int along with what they replaced, and
+	 * the hash from before each of them
+	 */
+	private int[] undoStack = new int[64];
+	private long[] hashStack = new long[64];
+	private int undoSize;
+
+	/**
+	 * Create an empty state with no cards in any hand
+	 *
+	 * @param numPlayers the number of players in the game
+	 */
+	public C8SearchState(int numPlayers) {
+		if (numPlayers > MAX_PLAYERS) {
+			throw new IllegalArgumentException("At most " + MAX_PLAYERS + " players can be searched");
+		}
+		this.numPlayers = numPlayers;
+		hands = new long[numPlayers];
+		suitCounts = new int[numPlayers * NUMBER_OF_SUITS];
+	}
+
+	/**
+	 * Create a state from the cards of a game
+	 *
+	 * @param hands the cards in each player's hand
+	 * @param onDiscard the card on top of the discard pile
+	 * @param suitToFollow the suit to follow, which is the chosen suit if an eight is on the discard pile
+	 * @param drawPile the draw pile in the order the cards will be drawn
+	 * @param turn the index of the player whose turn it is
+	 * @return the state
+	 */
+	public static C8SearchState create(@NonNull List<List<Card>> hands, @NonNull Card onDiscard, int suitToFollow,
+			@NonNull List<Card> drawPile, int turn) {
+		C8SearchState state = new C8SearchState(hands.size());
+		for (int i = 0; i < hands.size(); i++) {
+			state.setHand(i, maskOf(hands.get(i)));
+		}
+		state.setDiscard(onDiscard.getIdNum(), suitToFollow);
+		int[] draw = new int[drawPile.size()];
+		for (int i = 0; i < draw.length; i++) {
+			draw[i] = drawPile.get(i).getIdNum();
+		}
+		state.setDrawPile(draw, draw.length);
+		state.setTurn(turn);
+		return state;
+	}
+
+	/**
+	 * @param cards a list of cards
+	 * @return the ids of the cards as a mask with one bit per card
+	 */
+	public static long maskOf(@NonNull List<Card> cards) {
+		long mask = 0;
+		for (Card c : cards) {
+			mask |= 1L << c.getIdNum();
+		}
+		return mask;
+	}
+
+	/**
+	 * @param id a card id
+	 * @return the suit of the card, Constants.SUIT_JOKER for the jokers
+	 */
+	public static int suitOf(int id) {
+		return id / 13;
+	}
+
+	/**
+	 * @param id a card id
+	 * @return the value of the card, 0 - 12 (0 and 1 for the jokers)
+	 */
+	public static int valueOf(int id) {
+		return id % 13;
+	}
+
+	/**
+	 * @param id a card id
+	 * @return true if the card is an eight or a joker, which can be played on anything
+	 */
+	public static boolean isSpecial(int id) {
+		return suitOf(id) == Constants.SUIT_JOKER || valueOf(id) == C8Constants.EIGHT_CARD_NUMBER;
+	}
+
+	/**
+	 * @param id a card id
+	 * @return true if the card is an eight, for which a suit is chosen
+	 */
+	public static boolean isEight(int id) {
+		return suitOf(id) != Constants.SUIT_JOKER && valueOf(id) == C8Constants.EIGHT_CARD_NUMBER;
+	}
+
+	/**
+	 * Replace the cards in a player's hand
+	 *
+	 * @param player the index of the player
+	 * @param hand the cards, one bit per card id
+	 */
+	public void setHand(int player, long hand) {
+		hands[player] = hand;
+		int base = player * NUMBER_OF_SUITS;
+		for (int s = 0; s < NUMBER_OF_SUITS; s++) {
+			suitCounts[base + s] = 0;
+		}
+		for (long rest = hand; rest != 0; rest &= rest - 1) {
+			suitCounts[base + COUNTED_SUIT[Long.numberOfTrailingZeros(rest)]]++;
+		}
+		rehash();
+	}
+
+	/**
+	 * Replace the card on top of the discard pile
+	 *
+	 * @param id the id of the card
+	 * @param suitToFollow the suit to follow, which is the chosen suit if the card is an eight
+	 */
+	public void setDiscard(int id, int suitToFollow) {
+		top = id;
+		suit = suitToFollow;
+		rehash();
+	}
+
+	/**
+	 * Replace the draw pile
+	 *
+	 * @param cards the ids of the cards in the order they will be drawn
+	 * @param count the number of cards in the draw pile
+	 */
+	public void setDrawPile(@NonNull int[] cards, int count) {
+		if (drawPile.length < count) {
+			drawPile = new int[count];
+		}
+		System.arraycopy(cards, 0, drawPile, 0, count);
+		drawSize = count;
+		drawNext = 0;
+		drawMask = 0;
+		for (int i = 0; i < count; i++) {
+			drawMask |= 1L << cards[i];
+			drawIndex[cards[i]] = i;
+		}
+		rehash();
+	}
+
+	/**
+	 * @param player the index of the player whose turn it is
+	 */
+	public void setTurn(int player) {
+		turn = player;
+		rehash();
+	}
+
+	/**
+	 * @return the number of players in the game
+	 */
+	public int getNumPlayers() {
+		return numPlayers;
+	}
+
+	/**
+	 * @param player the index of a player
+	 * @return the cards in the player's hand, one bit per card id
+	 */
+	public long getHand(int player) {
+		return hands[player];
+	}
+
+	/**
+	 * @param player the index of a player
+	 * @return the number of cards in the player's hand
+	 */
+	public int getHandSize(int player) {
+		return Long.bitCount(hands[player]);
+	}
+
+	/**
+	 * @param player the index of a player
+	 * @param suit a suit, or Constants.SUIT_JOKER for the eights and jokers
+	 * @return the number of cards of the suit in the player's hand
+	 */
+	public int getSuitCount(int player, int suit) {
+		return suitCounts[player * NUMBER_OF_SUITS + suit];
+	}
+
+	/**
+	 * Finds the suit the player holds the most cards of, not counting eights and jokers.
+	 * This is the suit an eight is played for.
+	 *
+	 * @param player the index of a player
+	 * @return the suit, the lowest one if several are tied
+	 */
+	public int getMaxSuit(int player) {
+		int base = player * NUMBER_OF_SUITS;
+		int maxSuit = Constants.SUIT_CLUBS;
+		for (int s = Constants.SUIT_DIAMONDS; s <= Constants.SUIT_SPADES; s++) {
+			if (suitCounts[base + s] > suitCounts[base + maxSuit]) {
+				maxSuit = s;
+			}
+		}
+		return maxSuit;
+	}
+
+	/**
+	 * @return the id of the card on top of the discard pile
+	 */
+	public int getTop() {
+		return top;
+	}
+
+	/**
+	 * @return the suit to follow
+	 */
+	public int getSuit() {
+		return suit;
+	}
+
+	/**
+	 * @return the index of the player whose turn it is
+	 */
+	public int getTurn() {
+		return turn;
+	}
+
+	/**
+	 * @param player the index of a player
+	 * @return the index of the player who plays after them
+	 */
+	public int nextPlayer(int player) {
+		return (player + 1 < numPlayers) ? player + 1 : 0;
+	}
+
+	/**
+	 * @return the number of cards left in the draw pile
+	 */
+	public int getDrawCount() {
+		return drawSize - drawNext;
+	}
+
+	/**
+	 * @return the cards left in the draw pile, one bit per card id
+	 */
+	public long getDrawMask() {
+		return drawMask;
+	}
+
+	/**
+	 * @return the Zobrist hash of this state. States holding the same cards in the same
+	 * places, with the same suit to follow and the same player to move, have the same hash.
+	 * The order of the draw pile is left out.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the id of the card that will be drawn next, -1 if the draw pile is empty
+	 */
+	public int peekDraw() {
+		return (drawNext < drawSize) ? drawPile[drawNext] : -1;
+	}
+
+	/**
+	 * Finds the cards a player could play on the discard pile, following the same rules
+	 * as CrazyEightGameRules.checkCard
+	 *
+	 * @param player the index of a player
+	 * @return the cards the player can play, one bit per card id
+	 */
+	public long getPlayable(int player) {
+		long hand = hands[player];
+		if (suit == Constants.SUIT_JOKER) {
+			// anything can be played on a joker
+			return hand;
+		}
+		return hand & (SPECIAL_CARDS | SUIT_CARDS[suit] | VALUE_CARDS[valueOf(top)]);
+	}
+
+	/**
+	 * @return the number of moves made on this state that can still be undone
+	 */
+	public int getMovesMade() {
+		return undoSize;
+	}
+
+	/**
+	 * Play a card from the hand of the player whose turn it is, and pass the turn on
+	 *
+	 * @param id the id of the card, which must be one of the player's playable cards
+	 * @param suitChosen the suit chosen if the card is an eight, otherwise ignored
+	 */
+	public void play(int id, int suitChosen) {
+		push(PLAY, id, 0);
+		hands[turn] &= ~(1L << id);
+		suitCounts[turn * NUMBER_OF_SUITS + COUNTED_SUIT[id]]--;
+		hash ^= HAND_KEYS[turn * NUMBER_OF_CARDS + id] ^ TOP_KEYS[top] ^ TOP_KEYS[id] ^ SUIT_KEYS[suit];
+		top = id;
+		suit = isEight(id) ? suitChosen : suitOf(id);
+		hash ^= SUIT_KEYS[suit];
+		nextTurn();
+	}
+
+	/**
+	 * Have the player whose turn it is draw the next card of the draw pile, and pass the
+	 * turn on
+	 *
+	 * @return the id of the card drawn, -1 if the draw pile is empty and nothing was done
+	 */
+	public int draw() {
+		if (drawNext >= drawSize) {
+			return -1;
+		}
+		int id = drawPile[drawNext];
+		drawCard(id);
+		return id;
+	}
+
+	/**
+	 * Have the player whose turn it is draw the given card out of the draw pile, wherever it
+	 * is in the pile, and pass the turn on. This lets a search try each card that might be
+	 * drawn in turn.
+	 *
+	 * @param id the id of the card, which must be in the draw pile
+	 */
+	public void drawCard(int id) {
+		int position = drawIndex[id];
+		push(DRAW, id, position);
+		swapDrawn(position, drawNext);
+		drawNext++;
+		drawMask &= ~(1L << id);
+		hands[turn] |= 1L << id;
+		suitCounts[turn * NUMBER_OF_SUITS + COUNTED_SUIT[id]]++;
+		hash ^= DRAW_KEYS[id] ^ HAND_KEYS[turn * NUMBER_OF_CARDS + id];
+		nextTurn();
+	}
+
+	/**
+	 * Pass the turn on without playing or drawing, for a player who can't do either
+	 */
+	public void pass() {
+		push(PASS, 0, 0);
+		nextTurn();
+	}
+
+	/**
+	 * Undo the last move made on this state
+	 */
+	public void undo() {
+		int entry = undoStack[--undoSize];
+		int id = entry & 0x3f;
+		int previousTop = (entry >>> 6) & 0x3f;
+		int previousSuit = (entry >>> 12) & 0x7;
+		int kind = (entry >>> 15) & 0x3;
+		int player = (entry >>> 17) & 0x7;
+		int position = entry >>> 20;
+
+		if (kind == PLAY) {
+			hands[player] |= 1L << id;
+			suitCounts[player * NUMBER_OF_SUITS + COUNTED_SUIT[id]]++;
+		} else if (kind == DRAW) {
+			hands[player] &= ~(1L << id);
+			suitCounts[player * NUMBER_OF_SUITS + COUNTED_SUIT[id]]--;
+			drawNext--;
+			swapDrawn(position, drawNext);
+			drawMask |= 1L << id;
+		}
+		top = previousTop;
+		suit = previousSuit;
+		turn = player;
+		hash = hashStack[undoSize];
+	}
+
+	private void nextTurn() {
+		hash ^= TURN_KEYS[turn];
+		turn = nextPlayer(turn);
+		hash ^= TURN_KEYS[turn];
+	}
+
+	/**
+	 * Swap two cards of the draw pile
+	 */
+	private void swapDrawn(int i, int j) {
+		int a = drawPile[i];
+		int b = drawPile[j];
+		drawPile[i] = b;
+		drawPile[j] = a;
+		drawIndex[b] = i;
+		drawIndex[a] = j;
+	}
+
+	/**
+	 * Remember a move along with the part of the state it replaces
+	 */
+	private void push(int kind, int id, int position) {
+		if (undoSize == undoStack.length) {
+			int[] bigger = new int[undoStack.length * 2];
+			System.arraycopy(undoStack, 0, bigger, 0, undoSize);
+			undoStack = bigger;
+			long[] biggerHashes = new long[bigger.length];
+			System.arraycopy(hashStack, 0, biggerHashes, 0, undoSize);
+			hashStack = biggerHashes;
+		}
+		hashStack[undoSize] = hash;
+		undoStack[undoSize++] = id | (top << 6) | (suit << 12) | (kind << 15) | (turn << 17) | (position << 20);
+	}
+
+	/**
+	 * Work the hash out from scratch, when the state is set up
+	 */
+	private void rehash() {
+		hash = TOP_KEYS[top] ^ SUIT_KEYS[suit] ^ TURN_KEYS[turn];
+		for (int player = 0; player < numPlayers; player++) {
+			for (long rest = hands[player]; rest != 0; rest &= rest - 1) {
+				hash ^= HAND_KEYS[player * NUMBER_OF_CARDS + Long.numberOfTrailingZeros(rest)];
+			}
+		}
+		for (long rest = drawMask; rest != 0; rest &= rest - 1) {
+			hash ^= DRAW_KEYS[Long.numberOfTrailingZeros(rest)];
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.worthwhilegames.cardgames.crazyeights;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.worthwhilegames.cardgames.shared.Constants;
+
+/**
+ * Plays seeded C8HeadlessGames between computer players on every processor, and reports how often
+ * each difficulty wins, how long games last and how many games are played a second. Nothing
+ * here needs Android, so computer players can be tuned from the command line:
+ *
+ * java com.worthwhilegames.cardgames.crazyeights.C8Simulation [options]
+ *
+ * -games n              the number of games to play, 10000 by default
+ * -players a,b,...      the difficulty of each player, Easy,Medium,Hard,Expert by default
+ * -seed n               the seed of the first game, game i is seeded with seed + i
+ * -threads n            the number of games played at once, one per processor by default
+ * -hard ms,depth        how far hard players search, 1000,4 by default
+ * -expert ms,playouts   how far expert players search, 1000,2000 by default
+ *
+ * Players change seats every game, so every difficulty gets to go first as often. Games are
+ * reproducible from their seed as long as the searches stop on their depth and playout limits
+ * rather than their time.
+ */
+public class C8Simulation {
+
+	private long games = 10000;
+	private String[] difficulties = { Constants.EASY, Constants.MEDIUM, Constants.HARD, Constants.EXPERT };
+	private long seed = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long hardTime = 1000;
+	private int hardDepth = 4;
+	private long expertTime = 1000;
+	private int expertPlayouts = 2000;
+
+	/**
+	 * The next game to be played
+	 */
+	private AtomicLong nextGame = new AtomicLong();
+
+	/**
+	 * What the games played on one thread came to
+	 */
+	private static class Results {
+		/**
+		 * The games played and won by each player of the difficulties list, wherever they sat
+		 */
+		long[] played;
+		long[] won;
+
+		long games = 0;
+		long calledOff = 0;
+		long turns = 0;
+		long expertPlayouts = 0;
+		double expertSeconds = 0;
+
+		Results(int players) {
+			played = new long[players];
+			won = new long[players];
+		}
+
+		void add(Results other) {
+			for (int i = 0; i < played.length; i++) {
+				played[i] += other.played[i];
+				won[i] += other.won[i];
+			}
+			games += other.games;
+			calledOff += other.calledOff;
+			turns += other.turns;
+			expertPlayouts += other.expertPlayouts;
+			expertSeconds += other.expertSeconds;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		C8Simulation simulation = new C8Simulation();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-games")) {
+				simulation.games = Long.parseLong(value);
+			} else if (args[i].equals("-players")) {
+				simulation.difficulties = value.split(",");
+			} else if (args[i].equals("-seed")) {
+				simulation.seed = Long.parseLong(value);
+			} else if (args[i].equals("-threads")) {
+				simulation.threads = Integer.parseInt(value);
+			} else if (args[i].equals("-hard")) {
+				simulation.hardTime = Long.parseLong(value.split(",")[0]);
+				simulation.hardDepth = Integer.parseInt(value.split(",")[1]);
+			} else if (args[i].equals("-expert")) {
+				simulation.expertTime = Long.parseLong(value.split(",")[0]);
+				simulation.expertPlayouts = Integer.parseInt(value.split(",")[1]);
+			} else {
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		simulation.run();
+	}
+
+	/**
+	 * Plays the games and prints the report
+	 */
+	private void run() throws InterruptedException, ExecutionException {
+		long start = System.nanoTime();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Results>> workers = new ArrayList<Callable<Results>>();
+		for (int i = 0; i < threads; i++) {
+			workers.add(new Callable<Results>() {
+				@Override
+				public Results call() {
+					return playGames();
+				}
+			});
+		}
+		Results results = new Results(difficulties.length);
+		try {
+			for (Future<Results> result : pool.invokeAll(workers)) {
+				results.add(result.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Played %d games in %.1f s on %d threads, %.0f games a second%n",
+				results.games, seconds, threads, results.games / seconds);
+		System.out.printf("Games lasted %.1f turns on average, %d were called off after %d turns%n",
+				(double) results.turns / results.games, results.calledOff, C8HeadlessGame.MAX_TURNS);
+
+		// Players of the same difficulty count together
+		Map<String, long[]> byDifficulty = new LinkedHashMap<String, long[]>();
+		for (int i = 0; i < difficulties.length; i++) {
+			long[] total = byDifficulty.get(difficulties[i]);
+			if (total == null) {
+				total = new long[2];
+				byDifficulty.put(difficulties[i], total);
+			}
+			total[0] += results.played[i];
+			total[1] += results.won[i];
+		}
+		for (Map.Entry<String, long[]> entry : byDifficulty.entrySet()) {
+			long[] total = entry.getValue();
+			System.out.printf("%-8s won %6.2f%% of %d games%n", entry.getKey(), 100.0 * total[1] / total[0], total[0]);
+		}
+
+		if (results.expertSeconds > 0) {
+			System.out.printf("Expert players ran %.0f playouts a second%n", results.expertPlayouts / results.expertSeconds);
+		}
+	}
+
+	/**
+	 * Plays games until there are none left to play
+	 *
+	 * @return what the games came to
+	 */
+	private Results playGames() {
+		int players = difficulties.length;
+		Results results = new Results(players);
+		String[] seats = new String[players];
+		// Games are played side by side already, so each search runs on one thread
+		C8ComputerPlayer computerPlayer = new C8ComputerPlayer(1, seed);
+		computerPlayer.setHardSearch(hardTime, hardDepth);
+		computerPlayer.setExpertSearch(expertTime, expertPlayouts);
+
+		for (long game = nextGame.getAndIncrement(); game < games; game = nextGame.getAndIncrement()) {
+			int shift = (int) (game % players);
+			for (int seat = 0; seat < players; seat++) {
+				seats[seat] = difficulties[(seat + shift) % players];
+			}
+
+			C8HeadlessGame headlessGame = new C8HeadlessGame(seats, computerPlayer, seed + game);
+			int winner = headlessGame.play();
+
+			for (int i = 0; i < players; i++) {
+				results.played[i]++;
+			}
+			if (winner >= 0) {
+				results.won[(winner + shift) % players]++;
+			} else {
+				results.calledOff++;
+			}
+			results.games++;
+			results.turns += headlessGame.getTurns();
+			results.expertPlayouts += headlessGame.getExpertPlayouts();
+			results.expertSeconds += headlessGame.getExpertSeconds();
+		}
+
+		return results;
+	}
+}
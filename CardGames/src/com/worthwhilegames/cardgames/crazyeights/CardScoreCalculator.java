@@ -16,6 +16,11 @@ public class CardScoreCalculator {
 	
 	private List<List<Card>> cards;
 	
+	/**
+	 * the state being searched, when scoring moves made on a C8SearchState instead of lists of cards
+	 */
+	private C8SearchState state;
+	
 	private int numPlayers=1;
 	
 	public CardScoreCalculator(int playerIndexGiven, @NonNull List<List<Card>> cardsGiven){
@@ -25,6 +30,18 @@ public class CardScoreCalculator {
 		
 	}
 	
+	/**
+	 * create a calculator scoring the moves made on a search state. The hand sizes and suit
+	 * counts are read straight from the state, so nothing is counted again for each score.
+	 * @param playerIndexGiven the index of the player doing the analysis
+	 * @param stateGiven the state the moves are made on
+	 */
+	public CardScoreCalculator(int playerIndexGiven, @NonNull C8SearchState stateGiven){
+		playerIndex = playerIndexGiven;
+		state = stateGiven;
+		numPlayers = stateGiven.getNumPlayers();
+	}
+	
 	/**
 	 * this will calculate the score for the card played on the discard pile
 	 * @param played the card played
@@ -35,7 +52,26 @@ public class CardScoreCalculator {
 	 * the higher the score the worse it is for the 
 	 */
 	public double calculateScorePlayed(@NonNull Card played, @NonNull Card onDiscard, int player){
-		int numCards = cards.get(player).size();
+		boolean special = played.getValue() == C8Constants.EIGHT_CARD_NUMBER || played.getSuit() == Constants.SUIT_JOKER;
+		return scorePlayed(special, played.getSuit(), played.getValue(), onDiscard.getSuit(), onDiscard.getValue(),
+				player, cards.get(player).size(), maxSuitForPlayer(player));
+	}
+	
+	/**
+	 * this will calculate the score for a card played on the search state, once it has been played
+	 * @param played the id of the card played
+	 * @param onDiscardSuit the suit to follow before the play
+	 * @param onDiscardValue the value of the card on the discard before the play
+	 * @param player the index of the player that played
+	 * @return score, the same as calculateScorePlayed(Card, Card, int)
+	 */
+	public double calculateScorePlayed(int played, int onDiscardSuit, int onDiscardValue, int player){
+		return scorePlayed(C8SearchState.isSpecial(played), C8SearchState.suitOf(played), C8SearchState.valueOf(played),
+				onDiscardSuit, onDiscardValue, player, state.getHandSize(player), state.getMaxSuit(player));
+	}
+	
+	private double scorePlayed(boolean special, int playedSuit, int playedValue, int onDiscardSuit, int onDiscardValue,
+			int player, int numCards, int maxSuit){
 		double numCardsRatio = 1;	
 		if(numCards != 0){
 			numCardsRatio = C8Constants.NUMBER_OF_CARDS_PER_HAND*2.0/(numCards);			
@@ -50,19 +86,19 @@ public class CardScoreCalculator {
 			}
 			
 			//special card
-			if(played.getValue() == C8Constants.EIGHT_CARD_NUMBER || played.getSuit() == Constants.SUIT_JOKER){
+			if(special){
 				return -1 * numCardsRatio * numPlayers;
 			}
 			//same suit
-			if(played.getSuit() == onDiscard.getSuit()){
-				if(isMaxSuitForPlayer(player, played.getSuit())){
+			if(playedSuit == onDiscardSuit){
+				if(maxSuit == playedSuit){
 					return -3 * numCardsRatio * numPlayers;
 				}
 				return -2 * numCardsRatio * numPlayers;
 			}
 			//same index
-			if(played.getValue() == onDiscard.getValue()){
-				if(isMaxSuitForPlayer(player, played.getSuit())){
+			if(playedValue == onDiscardValue){
+				if(maxSuit == playedSuit){
 					return -3 * numCardsRatio * numPlayers;
 				}
 				return -2 * numCardsRatio * numPlayers;
@@ -76,19 +112,19 @@ public class CardScoreCalculator {
 				return 10000;
 			}
 			//special card
-			if(played.getValue() == C8Constants.EIGHT_CARD_NUMBER || played.getSuit() == Constants.SUIT_JOKER){
+			if(special){
 				return 1 * numCardsRatio; 
 			}
 			//same suit
-			if(played.getSuit() == onDiscard.getSuit()){
-				if(isMaxSuitForPlayer(player, played.getSuit())){
+			if(playedSuit == onDiscardSuit){
+				if(maxSuit == playedSuit){
 					return 3 * numCardsRatio;
 				}
 				return 2 * numCardsRatio;
 			}
 			//same index
-			if(played.getValue() == onDiscard.getValue()){
-				if(isMaxSuitForPlayer(player, played.getSuit())){
+			if(playedValue == onDiscardValue){
+				if(maxSuit == playedSuit){
 					return 3 * numCardsRatio;
 				}
 				return 2 * numCardsRatio;
@@ -100,7 +136,21 @@ public class CardScoreCalculator {
 	}
 	
 	public double calculateScoreDrawn(@NonNull Card drawn, int player){
-		int numCards = cards.get(player).size();
+		boolean special = drawn.getValue() == C8Constants.EIGHT_CARD_NUMBER || drawn.getSuit() == Constants.SUIT_JOKER;
+		return scoreDrawn(special, player, cards.get(player).size());
+	}
+	
+	/**
+	 * this will calculate the score for a card drawn on the search state, once it has been drawn
+	 * @param drawn the id of the card drawn
+	 * @param player the index of the player that drew
+	 * @return score, the same as calculateScoreDrawn(Card, int)
+	 */
+	public double calculateScoreDrawn(int drawn, int player){
+		return scoreDrawn(C8SearchState.isSpecial(drawn), player, state.getHandSize(player));
+	}
+	
+	private double scoreDrawn(boolean special, int player, int numCards){
 		double numCardsRatio = 1;	
 		if(numCards != 0){
 			numCardsRatio = C8Constants.NUMBER_OF_CARDS_PER_HAND*2.0/(numCards);			
@@ -108,20 +158,23 @@ public class CardScoreCalculator {
 		
 		if(playerIndex == player){
 			//this is the person who is playing
-			if(drawn.getValue() == C8Constants.EIGHT_CARD_NUMBER || drawn.getSuit() == Constants.SUIT_JOKER){
+			if(special){
 				return 3 * numCardsRatio * numPlayers;
 			}
 			return 4 * numCardsRatio * numPlayers;
 		} else {
 			//this is a move by another player
-			if(drawn.getValue() == C8Constants.EIGHT_CARD_NUMBER || drawn.getSuit() == Constants.SUIT_JOKER){
+			if(special){
 				return -3 * numCardsRatio;
 			}
 			return -4 * numCardsRatio;
 		}
 	}
 	
-	private boolean isMaxSuitForPlayer(int player, int suit){
+	/**
+	 * @return the suit the player holds the most cards of, not counting eights and jokers
+	 */
+	private int maxSuitForPlayer(int player){
 		int suits[] = new int[5];
 		int maxSuitIndex = 0;
 
@@ -138,7 +191,7 @@ public class CardScoreCalculator {
 				maxSuitIndex = c.getSuit();
 			}
 		}
-		return maxSuitIndex == suit;
+		return maxSuitIndex;
 	}
 	
 }
@@ -7,6 +7,7 @@ import static com.worthwhilegames.cardgames.shared.Constants.VALUE;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -15,8 +16,6 @@ import org.json.JSONObject;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -29,6 +28,7 @@ import com.worthwhilegames.cardgames.gameboard.activities.GameResultsActivity;
 import com.worthwhilegames.cardgames.gameboard.activities.GameboardActivity;
 import com.worthwhilegames.cardgames.shared.Card;
 import com.worthwhilegames.cardgames.shared.CardTranslator;
+import com.worthwhilegames.cardgames.shared.ComputerTurnScheduler;
 import com.worthwhilegames.cardgames.shared.Constants;
 import com.worthwhilegames.cardgames.shared.Deck;
 import com.worthwhilegames.cardgames.shared.Game;
@@ -107,11 +107,6 @@ public class CrazyEightsGameController implements GameController {
 	 */
 	private ImageView refreshButton;
 
-	/**
-	 * The implementation of the Game Rules
-	 */
-	private CrazyEightGameRules gameRules = new CrazyEightGameRules();
-
 	/**
 	 * The sound manager
 	 */
@@ -128,31 +123,32 @@ public class CrazyEightsGameController implements GameController {
 	private boolean isPaused = false;
 
 	/**
-	 * Calculates card scores for the computer
+	 * Chooses the moves of the computer players
 	 */
-	private CardScoreCalculator csc;
+	private C8ComputerPlayer computerPlayer = new C8ComputerPlayer();
 
 	/**
-	 * Handler to handle a computer's turn
-	 */
-	private Handler handler = new Handler() {
-		@Override
-		public void handleMessage(Message msg) {
-			if (Util.isDebugBuild()) {
-				Log.d(TAG, "handleMessage: about to play a card");
-			}
+	 * Runs the computers' turns, and plays their moves once chosen
+	 */
+	private ComputerTurnScheduler<C8ComputerPlayer.Move> computerScheduler = new ComputerTurnScheduler<C8ComputerPlayer.Move>(
+			new ComputerTurnScheduler.OnMoveChosenListener<C8ComputerPlayer.Move>() {
+				@Override
+				public void onMoveChosen(C8ComputerPlayer.Move move) {
+					if (Util.isDebugBuild()) {
+						Log.d(TAG, "onMoveChosen: about to play a card");
+					}
 
-			if (!isPaused) {
-				isComputerPlaying = false;
-				playComputerTurn();
-				advanceTurn();
-			} else {
-				if (Util.isDebugBuild()) {
-					Log.d(TAG, "handleMessage: game paused. not going to play now");
+					if (!isPaused) {
+						isComputerPlaying = false;
+						playComputerTurn(move);
+						advanceTurn();
+					} else {
+						if (Util.isDebugBuild()) {
+							Log.d(TAG, "onMoveChosen: game paused. not going to play now");
+						}
+					}
 				}
-			}
-		}
-	};
+			});
 
 	/**
 	 * This will initialize a CrazyEightsGameController
@@ -274,6 +270,9 @@ public class CrazyEightsGameController implements GameController {
 		if (requestCode == GameboardActivity.DISCONNECTED) {
 			if (resultCode == Activity.RESULT_CANCELED) {
 				// We chose to drop the player, so let the Game know to do that
+				// and stop any computer's turn, it will start over with the new players
+				computerScheduler.cancel();
+				isComputerPlaying = false;
 				String playerId = data.getStringExtra(ConnectionConstants.KEY_DEVICE_ID);
 				game.dropPlayer(playerId);
 				refreshPlayers();
@@ -287,6 +286,8 @@ public class CrazyEightsGameController implements GameController {
 
 				// We will initially drop the player, to handle the case where
 				// they don't actually reconnect a player in the Connect Screen.
+				computerScheduler.cancel();
+				isComputerPlaying = false;
 				game.dropPlayer(data.getStringExtra(ConnectionConstants.KEY_DEVICE_ID));
 
 				// Unregister the receiver so that we don't get an annoying
@@ -329,6 +330,9 @@ public class CrazyEightsGameController implements GameController {
 	public void pause() {
 		isPaused = true;
 
+		// Stop the computer from choosing its move, it will start over when the game is unpaused
+		computerScheduler.cancel();
+
 		for (int i = 0; i < game.getNumPlayers(); i++) {
 			server.write(Constants.PAUSE, null, players.get(i).getId());
 		}
@@ -347,8 +351,8 @@ public class CrazyEightsGameController implements GameController {
 
 		// If a computer was playing before the game was paused
 		// let them know that they can play now
-		if (isComputerPlaying) {
-			handler.sendEmptyMessage(0);
+		if (isComputerPlaying && !computerScheduler.isScheduled()) {
+			startComputerTurn();
 		}
 	}
 
@@ -557,236 +561,73 @@ public class CrazyEightsGameController implements GameController {
 	/**
 	 * Start a computer's turn.
 	 * 
-	 * Starts another thread that waits, and then posts a message to the
-	 * mHandler letting it know it can play.
+	 * The computerScheduler has the computer choose its move on another
+	 * thread, from a copy of the game, and plays the move once chosen and
+	 * the computer has waited long enough.
 	 */
 	private void startComputerTurn() {
 		isComputerPlaying = true;
 
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(Constants.COMPUTER_WAIT_TIME);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-
-				if (Util.isDebugBuild()) {
-					Log.d(TAG, "startComputerTurn: letting computer know it can play");
-				}
+		// Copy everything the computer needs to choose its move, as the
+		// game goes on on this thread meanwhile
+		final String difficulty = players.get(whoseTurn).getComputerDifficulty();
+		final List<List<Card>> hands = new ArrayList<List<Card>>();
+		for (Player p : players) {
+			hands.add(new ArrayList<Card>(p.getCards()));
+		}
+		final int player = whoseTurn;
+		final Card discardTop = game.getDiscardPileTop();
+		final Card onDiscard = getCardToFollow();
+		final List<Card> drawPile = new ArrayList<Card>(game.getShuffledDeck());
 
-				handler.sendEmptyMessage(0);
+		computerScheduler.schedule(new Callable<C8ComputerPlayer.Move>() {
+			@Override
+			public C8ComputerPlayer.Move call() {
+				return computerPlayer.chooseMove(difficulty, hands, player, discardTop, onDiscard, drawPile);
 			}
-		}).start();
+		}, Constants.COMPUTER_WAIT_TIME, Constants.COMPUTER_DEADLINE);
 	}
 
 	/**
-	 * This will play for a computer player based on the difficulty level. either play or draw a card.
-	 * This will be called after the PlayComputerTurnActivity has waited for the appropriate amount of time.
-	 * level 0 	should just loop through the cards to find one that it is allowed to play
-	 * 			very basic, randomly play a card if able or draw if not able
-	 * level 1 	chooses first the cards of the same suit, then cards of the same index of a different suit,
-	 * 			then a special card as a last resort. if a suit of the same index
-	 *
-	 * level 2 	nothing yet
+	 * @return the card on the discard pile, with the suit that was chosen if it is an 8
 	 */
-	private void playComputerTurn() {
+	private Card getCardToFollow() {
 		Card onDiscard = game.getDiscardPileTop();
 		if (onDiscard.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
 			onDiscard = new Card(suitChosen, onDiscard.getValue(), onDiscard.getResourceId(), onDiscard.getIdNum());
 		}
-		List<Card> cards = players.get(whoseTurn).getCards();
-		Card cardSelected = null;
-
-		//computer with difficulty Easy
-		if (players.get(whoseTurn).getComputerDifficulty().equals(Constants.EASY)) {
-			for (Card c : cards) {
-				if (gameRules.checkCard(c, onDiscard)) {
-					cardSelected = c;
-					break;
-				}
-			}
-
-
-			if (cardSelected != null && cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
-				int[] suits = new int[5];
-				int maxSuitIndex = 0;
-				for (Card c : cards) {
-					if (!c.equals(cardSelected)) {
-						suits[c.getSuit()]++;
-						if (suits[c.getSuit()] > suits[maxSuitIndex]) {
-							maxSuitIndex = c.getSuit();
-						}
-					}
-				}
-				suitChosen = maxSuitIndex;
-			}
-
-			//computer difficulty Medium
-		} else if (players.get(whoseTurn).getComputerDifficulty().equals(Constants.MEDIUM) ) {
-
-			List<Card> sameSuit = new ArrayList<Card>();
-			List<Card> sameNum = new ArrayList<Card>();
-			List<Card> special = new ArrayList<Card>();
-
-			int suits[] = new int[5];
-			int maxSuitIndex = 0;
-
-			for (Card c : cards) {
-				//checks for 8s and jokers
-				if( (c.getValue() == C8Constants.EIGHT_CARD_NUMBER || c.getSuit() == Constants.SUIT_JOKER) && gameRules.checkCard(c, onDiscard) ){
-					special.add(c);
-					continue;
-				}
-
-				//this gets the number of cards of each suit
-				suits[c.getSuit()]++;
-				if (suits[c.getSuit()] > suits[maxSuitIndex]) {
-					maxSuitIndex = c.getSuit();
-				}
-
-				//checks for cards of the same suit then cards of the same index
-				if (c.getSuit() == onDiscard.getSuit() && gameRules.checkCard(c, onDiscard) ) {
-					sameSuit.add(c);
-				} else if (c.getValue() == onDiscard.getValue() && gameRules.checkCard(c, onDiscard) ) {
-					sameNum.add(c);
-				}
-			}
-
-
-
-			//see if there is more of another suit that the computer can change it to.
-			boolean moreOfOtherSuit = false;
-			for (Card c : sameNum) {
-				if (suits[c.getSuit()] > suits[onDiscard.getSuit()]){
-					moreOfOtherSuit = true;
-				}
-			}
-
-
-			if (onDiscard.getSuit() == Constants.SUIT_JOKER){ //for a joker
-				for (Card c : cards){
-					if (c.getSuit() == maxSuitIndex){
-						cardSelected = c;
-					}
-				}
-			} else if (moreOfOtherSuit && sameNum.size() > 0 ) { //choose a card of the same number that we can change the suit with
-				cardSelected = sameNum.get(0);
-				for (Card c : sameNum) {
-					if (suits[c.getSuit()] > suits[cardSelected.getSuit()]){
-						cardSelected = c;
-					}
-				}
-			} else if (sameSuit.size() > 0) { //choose a card of the same suit
-				cardSelected = sameSuit.get(0);
-				boolean hasAnotherCardWithIndex = false;
-				for (Card c : sameSuit) {
-					for (Card c1 : cards) {
-						if (c.getValue() == c1.getValue() && suits[c.getSuit()] <= suits[c1.getSuit()] ){
-							cardSelected = c;
-							hasAnotherCardWithIndex = true;
-							break;
-						}
-					}
-					if (hasAnotherCardWithIndex) {
-						break;
-					}
-				}
-			} else if (special.size() > 0){ //play a special card as last resort
-				cardSelected = special.get(0);
-				if (cardSelected != null && cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
-					suitChosen = maxSuitIndex;
-				}
-			} // else { no card selected }
-
-			//computer difficulty Hard
-		} else if (players.get(whoseTurn).getComputerDifficulty().equals(Constants.HARD)) {
-
-			//get game state, clone it, send to recursive function
-			List<List<Card>> cardsClone = new ArrayList<List<Card>>();
-			for(Player p : players){
-				cardsClone.add(new ArrayList<Card>(p.getCards()));
-			}
-			csc = new CardScoreCalculator(whoseTurn, cardsClone);
-			Card firstOnDiscard = game.getDiscardPileTop();
-			if(firstOnDiscard.getValue() == C8Constants.EIGHT_CARD_NUMBER){
-				firstOnDiscard = new Card(suitChosen, firstOnDiscard.getValue(), firstOnDiscard.getResourceId(), firstOnDiscard.getIdNum());
-			}
-			Card curOnDiscard = game.getDiscardPileTop();
-			int suitToChoose = findMaxSuitIndex(cardsClone.get(whoseTurn));
-
-			int nextTurnIndex=whoseTurn;
-			// Figure out whose turn it is next
-			if (nextTurnIndex < game.getNumPlayers() - 1) {
-				nextTurnIndex++;
-			} else {
-				nextTurnIndex =0;
-			}
-
-			List<Card> drawPile = new ArrayList<Card>(game.getShuffledDeck());
-			double tmpScore = 0;
-			Card cardDrawn = null;
-			int movesArraySize = cardsClone.get(whoseTurn).size() +1;
-			double moves[] = new double[movesArraySize];
-			int recDepth = 6 + players.size();
-
-			int minIndex=0;
-
-			//recursive call
-			for(int i = 0; i<cardsClone.get(whoseTurn).size(); i++){
-				curOnDiscard = firstOnDiscard;
-				Card tmpCard = cardsClone.get(whoseTurn).get(0);
-				cardsClone.get(whoseTurn).remove(0);
-				if(gameRules.checkCard(tmpCard, curOnDiscard)){
-					tmpScore = csc.calculateScorePlayed(tmpCard, curOnDiscard, whoseTurn);
-					curOnDiscard = tmpCard;
-					if(curOnDiscard.getValue() == C8Constants.EIGHT_CARD_NUMBER){
-						curOnDiscard = new Card(suitToChoose, curOnDiscard.getValue(), curOnDiscard.getResourceId(), curOnDiscard.getIdNum());
-					}
-					tmpScore += findBestMove(nextTurnIndex, cardsClone, curOnDiscard, drawPile, recDepth);
-					moves[i] = tmpScore;
-					if(moves[i] < moves[minIndex]){
-						minIndex = i;
-					}
-				} else {
-					//very high number so it is not chosen
-					moves[i] = 30000;
-				}
-				cardsClone.get(whoseTurn).add(tmpCard);
-			}
-
-			//see how we do if we draw
-			if(!drawPile.isEmpty() && moves[minIndex]>= 30000){
-				cardDrawn = drawPile.get(0);
-				cardsClone.get(whoseTurn).add(cardDrawn);
-				drawPile.remove(0);
-				tmpScore = csc.calculateScoreDrawn(cardDrawn, whoseTurn);
-				tmpScore += findBestMove(nextTurnIndex, cardsClone, curOnDiscard, drawPile, recDepth);
-				drawPile.add(0,cardDrawn);
-				cardsClone.get(whoseTurn).remove(cardDrawn);
-				moves[movesArraySize-1] = tmpScore;
-				//if there is no card to play then draw.
-				if(moves[movesArraySize-1] < moves[minIndex]){
-					minIndex = movesArraySize-1;
-				}
-			}
-
-			if(minIndex < movesArraySize-1){
-				cardSelected = players.get(whoseTurn).getCards().get(minIndex);
+		return onDiscard;
+	}
 
-				if(!gameRules.checkCard(cardSelected, onDiscard)){
-					//should never get here, this would be an error.
-					cardSelected = null;
-				} else if(cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER){
-					suitChosen = suitToChoose;
-				}
-			} else {
-				cardSelected = null;
+	/**
+	 * This will play the move chosen for a computer player, either playing or drawing a card.
+	 * This will be called once the computer has chosen its move and waited for the appropriate amount of time.
+	 *
+	 * @param move
+	 *            The move chosen by the C8ComputerPlayer, null if it didn't choose one in time,
+	 *            in which case the computer plays the first card it can
+	 */
+	private void playComputerTurn(C8ComputerPlayer.Move move) {
+		String difficulty = players.get(whoseTurn).getComputerDifficulty();
+		if (move == null) {
+			List<List<Card>> hands = new ArrayList<List<Card>>();
+			for (Player p : players) {
+				hands.add(p.getCards());
 			}
-
+			move = computerPlayer.chooseMove(Constants.EASY, hands, whoseTurn, game.getDiscardPileTop(),
+					getCardToFollow(), game.getShuffledDeck());
+		} else if (Util.isDebugBuild() && difficulty.equals(Constants.HARD)) {
+			Log.d(TAG, "playComputerTurn: searched " + computerPlayer.getSearchEngine().getNodes() + " positions "
+					+ computerPlayer.getSearchEngine().getDepthReached() + " turns deep");
+		} else if (Util.isDebugBuild() && difficulty.equals(Constants.EXPERT)) {
+			Log.d(TAG, "playComputerTurn: ran " + computerPlayer.getMonteCarloSearch().getPlayouts() + " playouts, "
+					+ (int) computerPlayer.getMonteCarloSearch().getPlayoutsPerSecond() + " a second");
 		}
 
+		Card cardSelected = move.getCard();
+		if (cardSelected != null && cardSelected.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
+			suitChosen = move.getSuitChosen();
+		}
 
 		if (cardSelected != null) {
 			//Play Card
@@ -803,130 +644,4 @@ public class CrazyEightsGameController implements GameController {
 			}
 		}
 	}
-
-	/**
-	 * Finds the suit of the list with the maximum number of cards
-	 * 
-	 * @param cards
-	 * @return
-	 */
-	private int findMaxSuitIndex(List<Card> cards) {
-		int suits[] = new int[5];
-		int maxSuitIndex = 0;
-
-		for (Card c : players.get(whoseTurn).getCards()) {
-			// checks for 8s and jokers
-			if (c.getValue() == C8Constants.EIGHT_CARD_NUMBER
-					|| c.getSuit() == Constants.SUIT_JOKER) {
-				continue;
-			}
-			// this gets the number of cards of each suit
-			suits[c.getSuit()]++;
-			if (suits[c.getSuit()] > suits[maxSuitIndex]) {
-				maxSuitIndex = c.getSuit();
-			}
-		}
-
-		return maxSuitIndex;
-	}
-
-	/**
-	 * This function will find the best move for any player and return the score of how good of a move it is for that player
-	 * @param playerIndex
-	 * @param players
-	 * @param onDiscard
-	 * @param drawPile
-	 * @param recursionDepth
-	 * @return
-	 */
-	private double findBestMove(int playerIndex, List<List<Card>> cardsClone, Card curOnDiscard, List<Card> drawPile, int recDepth) {
-		if (recDepth == 0) {
-			return 0;
-		}
-		int suitToChoose = findMaxSuitIndex(cardsClone.get(playerIndex));
-		Card firstOnDiscard = curOnDiscard;
-		double tmpScore = 0;
-		Card cardDrawn = null;
-		int movesArraySize = cardsClone.get(playerIndex).size() +1;
-		double[] moves = new double[movesArraySize];
-
-		int nextTurnIndex = playerIndex;
-		// Figure out whose turn it is next
-		if (nextTurnIndex < game.getNumPlayers() - 1) {
-			nextTurnIndex++;
-		} else {
-			nextTurnIndex = 0;
-		}
-
-		int maxIndex = 0;
-		//rec call
-		for (int i = 0; i < cardsClone.get(playerIndex).size(); i++) {
-			curOnDiscard = firstOnDiscard;
-			Card tmpCard = cardsClone.get(playerIndex).get(0);
-			cardsClone.get(playerIndex).remove(0);
-			if (gameRules.checkCard(tmpCard, curOnDiscard)) {
-				tmpScore = csc.calculateScorePlayed(tmpCard, curOnDiscard, playerIndex);
-				if (tmpScore >= 10000 || ((whoseTurn == playerIndex) && tmpScore <= -10000)){
-					//we can win with this player so game over.
-					cardsClone.get(playerIndex).add(tmpCard);
-					return tmpScore;
-				}
-				curOnDiscard = tmpCard;
-				if (curOnDiscard.getValue() == C8Constants.EIGHT_CARD_NUMBER) {
-					curOnDiscard = new Card(suitToChoose, curOnDiscard.getValue(), curOnDiscard.getResourceId(), curOnDiscard.getIdNum());
-				}
-				tmpScore += findBestMove(nextTurnIndex, cardsClone, curOnDiscard, drawPile, recDepth-1);
-				moves[i] = tmpScore;
-				if (moves[i] > moves[maxIndex]) {
-					maxIndex = i;
-				}
-			} else {
-				if(whoseTurn == playerIndex){
-					//very high number so it is never chosen by current player
-					moves[i] = 30000;
-				} else {
-					//very low number so it is never chosen by another player
-					moves[i] = -30000;
-				}
-			}
-			cardsClone.get(playerIndex).add(tmpCard);
-		}
-
-		// try drawing a card, only if there is a draw pile and there is not another card that can be played
-		if (!drawPile.isEmpty() && (moves[maxIndex] >=30000 || moves[maxIndex] <= -30000)){
-			cardDrawn = drawPile.get(0);
-			cardsClone.get(playerIndex).add(cardDrawn);
-			drawPile.remove(0);
-			tmpScore = csc.calculateScoreDrawn(cardDrawn, playerIndex);
-			tmpScore += findBestMove(nextTurnIndex, cardsClone, curOnDiscard, drawPile, recDepth - 1);
-			drawPile.add(0,cardDrawn);
-			cardsClone.get(playerIndex).remove(cardDrawn);
-			moves[movesArraySize-1] = tmpScore;
-			if (moves[movesArraySize-1] > moves[maxIndex]) {
-				maxIndex = movesArraySize-1;
-			}
-		} else {
-			if (whoseTurn == playerIndex) {
-				//very high number so it is never chosen by current player
-				moves[movesArraySize-1] = 30000;
-			} else {
-				//very low number so it is never chosen by another player
-				moves[movesArraySize-1] = -30000;
-			}
-		}
-
-		if (whoseTurn == playerIndex) {
-			// if this is the current player then we want the minimum not maximum.
-			int minIndex = 0;
-			for (int i = 0; i< movesArraySize; i++) {
-				if (moves[i] < moves[minIndex]) {
-					minIndex = i;
-				}
-			}
-
-			return moves[minIndex];
-		}
-
-		return moves[maxIndex];
-	}
 }
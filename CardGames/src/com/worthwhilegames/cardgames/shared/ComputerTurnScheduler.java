@@ -0,0 +1,185 @@
+package com.worthwhilegames.cardgames.shared;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import annotations.NonNull;
+
+/**
+ * Runs the turns of computer players off the UI thread.
+ *
+ * The move of a computer player is chosen on a worker thread, and only the move chosen is
+ * posted back to the UI thread. A turn takes at least a minimum delay, so people can follow
+ * the game, but the time spent choosing the move counts towards the delay rather than being
+ * added to it. A turn that hasn't chosen its move by its deadline is cancelled, and a null move
+ * is posted in its place.
+ *
+ * A scheduler has to be created and used on the UI thread. It runs one turn at a time:
+ * scheduling a turn cancels any turn still running.
+ *
+ * @param <T> the moves chosen
+ */
+public class ComputerTurnScheduler<T> {
+
+	/**
+	 * The tag used for logging
+	 */
+	private static final String TAG = ComputerTurnScheduler.class.getName();
+
+	/**
+	 * Gets the moves chosen by computer players
+	 *
+	 * @param <T> the moves chosen
+	 */
+	public interface OnMoveChosenListener<T> {
+		/**
+		 * Called on the UI thread with the move chosen by a computer player
+		 *
+		 * @param move the move chosen, null if no move was chosen by the deadline
+		 */
+		void onMoveChosen(T move);
+	}
+
+	/**
+	 * The thread choosing the moves of all computer players, created the first time it is needed
+	 */
+	private static ExecutorService worker;
+
+	/**
+	 * Posts to the UI thread
+	 */
+	private Handler handler = new Handler();
+
+	private OnMoveChosenListener<T> listener;
+
+	/**
+	 * The turn running, if any
+	 */
+	private Future<?> search;
+	private Runnable timeout;
+	private boolean isScheduled = false;
+
+	/**
+	 * Counts the turns scheduled, so moves posted for a turn that has been cancelled since are dropped
+	 */
+	private int turnCount = 0;
+
+	/**
+	 * Create a scheduler
+	 *
+	 * @param listener gets the moves chosen
+	 */
+	public ComputerTurnScheduler(@NonNull OnMoveChosenListener<T> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts a computer player's turn, cancelling the turn running if any
+	 *
+	 * @param chooseMove chooses the move, on the worker thread. It should only use what it was
+	 *            given when it was created, as the game goes on on the UI thread meanwhile.
+	 * @param minDelayMillis the soonest the move is posted, in milliseconds from now
+	 * @param deadlineMillis the latest the move is posted, in milliseconds from now
+	 */
+	public void schedule(@NonNull final Callable<T> chooseMove, long minDelayMillis, long deadlineMillis) {
+		cancel();
+
+		final int turn = ++turnCount;
+		final long postAt = SystemClock.uptimeMillis() + minDelayMillis;
+		isScheduled = true;
+
+		search = getWorker().submit(new Runnable() {
+			@Override
+			public void run() {
+				T chosen = null;
+				try {
+					chosen = chooseMove.call();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+
+				if (Thread.currentThread().isInterrupted()) {
+					// cancelled, nobody wants the move anymore
+					return;
+				}
+
+				final T move = chosen;
+				handler.postAtTime(new Runnable() {
+					@Override
+					public void run() {
+						deliver(turn, move);
+					}
+				}, postAt);
+			}
+		});
+
+		timeout = new Runnable() {
+			@Override
+			public void run() {
+				if (Util.isDebugBuild()) {
+					Log.d(TAG, "computer turn ran out of time");
+				}
+
+				deliver(turn, null);
+			}
+		};
+		handler.postAtTime(timeout, SystemClock.uptimeMillis() + deadlineMillis);
+	}
+
+	/**
+	 * Cancels the turn running, if any. Its move won't be posted.
+	 */
+	public void cancel() {
+		if (isScheduled) {
+			if (Util.isDebugBuild()) {
+				Log.d(TAG, "cancelling computer turn");
+			}
+
+			search.cancel(true);
+			handler.removeCallbacks(timeout);
+			isScheduled = false;
+		}
+		turnCount++;
+	}
+
+	/**
+	 * @return whether a turn is running, whose move hasn't been posted yet
+	 */
+	public boolean isScheduled() {
+		return isScheduled;
+	}
+
+	/**
+	 * Lets the listener know the move of a turn, on the UI thread, unless the turn is over already
+	 */
+	private void deliver(int turn, T move) {
+		if (turn != turnCount || !isScheduled) {
+			return;
+		}
+
+		search.cancel(true);
+		handler.removeCallbacks(timeout);
+		isScheduled = false;
+		listener.onMoveChosen(move);
+	}
+
+	private static synchronized ExecutorService getWorker() {
+		if (worker == null) {
+			worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ComputerTurnScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return worker;
+	}
+}
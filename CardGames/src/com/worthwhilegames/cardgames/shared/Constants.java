@@ -232,6 +232,11 @@ public class Constants {
 	 */
 	public static final String HARD = "Hard";
 
+	/**
+	 * A constant representing the computer difficulty expert
+	 */
+	public static final String EXPERT = "Expert";
+
 	/**
 	 * A constant representing the connection type for the shared preferences
 	 */
@@ -284,8 +289,14 @@ public class Constants {
 
 	/* AI Constants */
 	/**
-	 * The time you wait in between computer turns, about 1 and a half seconds
-	 * now
+	 * The least time a computer's turn takes, about 1 and a half seconds
+	 * now. The time spent choosing its move counts towards it.
 	 */
 	public static final long COMPUTER_WAIT_TIME = 1500;
+
+	/**
+	 * The most time a computer's turn takes, about 5 seconds now. A computer
+	 * that hasn't chosen its move by then plays the first card it can.
+	 */
+	public static final long COMPUTER_DEADLINE = 5000;
 }
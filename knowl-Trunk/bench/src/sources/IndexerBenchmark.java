@@ -0,0 +1,572 @@
+package sources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import util.indexer.CleanupPlan;
+import util.indexer.CompactIndexer;
+import util.indexer.Indexer;
+import util.indexer.IndexerView;
+
+/**
+ * Measures indexing, cleanup and serialization of results pages, so that changes to
+ * util.indexer can be checked against a baseline. Runs offline against a corpus of saved
+ * pages, one file per page named after the source it came from (Ex. Dictionary-knowl.html).
+ * Sources without a saved page are measured against a generated page carrying the markup
+ * their cleanup looks for.
+ *
+ * Each benchmark is warmed up first and then run for a number of timed rounds. Setup work,
+ * such as indexing a fresh copy of the page for a destructive cleanup, is left out of the
+ * timings and of the allocation counts.
+ *
+ * Usage, from the bench directory (the Knowl-Bench project, which builds on the Knowl
+ * project):
+ * <pre>
+ * java sources.IndexerBenchmark [-corpus dir] [-quick] [-out results.properties] [-baseline results.properties]
+ * java sources.IndexerBenchmark -record Dictionary http://dictionary.reference.com/browse/knowl [-corpus dir]
+ * </pre>
+ */
+public class IndexerBenchmark {
+
+	/**
+	 * Where saved pages are kept unless told otherwise
+	 */
+	public static final String DEFAULT_CORPUS = "corpus//";
+
+	/**
+	 * The sources with a cleanup to measure
+	 */
+	private static final String[] SOURCES = {
+		Source.DICTIONARY, Source.THESAURUS, Source.URBAN_DICTIONARY, Source.LYRICS };
+
+	/**
+	 * The part of the cleanup shared by sources built on the same site template, such as
+	 * Dictionary and Thesaurus
+	 */
+	private static final CleanupPlan TEMPLATE = new CleanupPlan()
+			.removeTagAndChildren("div", "id", "leftRail")
+			.removeTagAndChildren("div", "id", "rightRail")
+			.removeTagAndChildren("div", "id", "macnt")
+			.removeTagAndChildren("div", "class", "fC ccF")
+			.removeTagAndChildren("div", "class", "bca saw")
+			.removeTagAndChildren("div", "id", "ltm")
+			.removeTagAndChildren("div", "id", "link_to_module");
+
+	/**
+	 * Time spent warming up and measuring each benchmark, in milliseconds
+	 */
+	private long warmupMillis = 2000;
+	private long roundMillis = 1000;
+	private int rounds = 5;
+
+	/**
+	 * Results of the finished benchmarks, by benchmark name
+	 */
+	private Map<String, Result> results = new LinkedHashMap<String, Result>();
+
+	/**
+	 * Reads the number of bytes allocated by the current thread, null if the virtual machine
+	 * can't tell
+	 */
+	private Object threadBean;
+	private Method allocatedBytes;
+
+	/**
+	 * A single operation to measure
+	 */
+	private static abstract class Benchmark {
+
+		/**
+		 * Prepares one run of the operation, not timed
+		 */
+		void setup() throws IOException {
+		}
+
+		/**
+		 * Runs the operation once
+		 * @return - Number of characters processed, for throughput
+		 */
+		abstract long run() throws IOException;
+	}
+
+	/**
+	 * The measurements of one benchmark
+	 */
+	private static class Result {
+		double opsPerSecond;
+		double opsDeviation;
+		double megabytesPerSecond;
+		long bytesAllocatedPerOp = -1;
+	}
+
+	public IndexerBenchmark() {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			Object bean = ManagementFactory.getThreadMXBean();
+			if(beanClass.isInstance(bean)) {
+				allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+				threadBean = bean;
+			}
+		} catch (Exception e) {
+			// Allocation counts just won't be reported
+		}
+	}
+
+	/**
+	 * Shortens the warm up and measuring so a full run only takes a few seconds. Numbers
+	 * are noisier, only good for checking that everything runs.
+	 */
+	public void setQuick(boolean quick) {
+		warmupMillis = quick ? 200 : 2000;
+		roundMillis = quick ? 100 : 1000;
+		rounds = quick ? 2 : 5;
+	}
+
+	/**
+	 * Runs every benchmark on every page of the corpus
+	 *
+	 * @param corpus - Directory of saved pages
+	 */
+	public void runAll(File corpus) throws IOException {
+		for(String source : SOURCES) {
+			Map<String, String> pages = loadPages(corpus, source);
+			for(Map.Entry<String, String> page : pages.entrySet()) {
+				runPage(source, page.getKey(), page.getValue());
+			}
+		}
+	}
+
+	private void runPage(final String source, String pageName, final String page) throws IOException {
+		String prefix = source + "/" + pageName + "/";
+		final long length = page.length();
+
+		measure(prefix + "parse", new Benchmark() {
+			@Override
+			long run() {
+				new Indexer(new BufferedReader(new StringReader(page)));
+				return length;
+			}
+		});
+		measure(prefix + "parse-legacy", new Benchmark() {
+			@Override
+			long run() {
+				Indexer.setLegacyIndexing(true);
+				try {
+					new Indexer(new BufferedReader(new StringReader(page)));
+				} finally {
+					Indexer.setLegacyIndexing(false);
+				}
+				return length;
+			}
+		});
+		measure(prefix + "parse-compact", new Benchmark() {
+			@Override
+			long run() {
+				new CompactIndexer(new BufferedReader(new StringReader(page)));
+				return length;
+			}
+		});
+
+		measure(prefix + "removeEmptyTags", new Benchmark() {
+			Indexer indexer;
+			@Override
+			void setup() {
+				indexer = new Indexer(new BufferedReader(new StringReader(page)));
+			}
+			@Override
+			long run() {
+				indexer.removeEmptyTags();
+				return length;
+			}
+		});
+		measure(prefix + "sweep", new Benchmark() {
+			Indexer indexer;
+			@Override
+			void setup() {
+				indexer = new Indexer(new BufferedReader(new StringReader(page)));
+				// Give the sweep something to do
+				indexer.removeType("a");
+			}
+			@Override
+			long run() {
+				indexer.sweep();
+				return length;
+			}
+		});
+
+		measure(prefix + "cleanup", cleanup(source, page));
+
+		final Indexer cleaned = new Indexer(new BufferedReader(new StringReader(page)));
+		measure(prefix + "serialize", new Benchmark() {
+			@Override
+			long run() {
+				return cleaned.toHtml().length();
+			}
+		});
+		final CompactIndexer compact = new CompactIndexer(new BufferedReader(new StringReader(page)));
+		measure(prefix + "serialize-compact", new Benchmark() {
+			@Override
+			long run() {
+				return compact.toHtml().length();
+			}
+		});
+
+		// Cleans a view of a page indexed once, the way sources sharing a site template can
+		// share the indexed page
+		final Indexer shared = new Indexer(new BufferedReader(new StringReader(page)));
+		measure(prefix + "view", new Benchmark() {
+			@Override
+			long run() {
+				IndexerView view = shared.view();
+				view.cleanup(TEMPLATE);
+				return view.toHtml().length();
+			}
+		});
+	}
+
+	/**
+	 * @return - A benchmark of everything the given source cuts out of a freshly indexed page
+	 */
+	private Benchmark cleanup(String source, final String page) {
+		final long length = page.length();
+		if(source.equals(Source.DICTIONARY)) {
+			final Dictionary dictionary = new Dictionary();
+			return new Benchmark() {
+				Indexer indexer;
+				@Override
+				void setup() {
+					indexer = new Indexer(new BufferedReader(new StringReader(page)));
+				}
+				@Override
+				long run() {
+					dictionary.removeUnwanted(indexer);
+					return length;
+				}
+			};
+		} else if(source.equals(Source.THESAURUS)) {
+			final Thesaurus thesaurus = new Thesaurus();
+			return new Benchmark() {
+				Indexer indexer;
+				@Override
+				void setup() {
+					indexer = new Indexer(new BufferedReader(new StringReader(page)));
+				}
+				@Override
+				long run() {
+					thesaurus.removeUnwanted(indexer);
+					return length;
+				}
+			};
+		} else if(source.equals(Source.URBAN_DICTIONARY)) {
+			final UrbanDictionary urban = new UrbanDictionary();
+			return new Benchmark() {
+				Indexer indexer;
+				@Override
+				void setup() {
+					indexer = new Indexer(new BufferedReader(new StringReader(page)));
+				}
+				@Override
+				long run() {
+					urban.removeUnwanted(indexer, "bench");
+					return length;
+				}
+			};
+		} else {
+			final Lyrics lyrics = new Lyrics();
+			return new Benchmark() {
+				CompactIndexer indexer;
+				@Override
+				void setup() {
+					indexer = new CompactIndexer(new BufferedReader(new StringReader(page)));
+				}
+				@Override
+				long run() {
+					lyrics.removeUnwanted(indexer);
+					return length;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Warms up and measures a benchmark, then prints and keeps its result. A benchmark
+	 * that throws is reported and skipped, the legacy indexing can't handle every page.
+	 */
+	private void measure(String name, Benchmark benchmark) throws IOException {
+		try {
+			measureOrFail(name, benchmark);
+		} catch (RuntimeException e) {
+			System.out.println(String.format("%-50s failed: %s", name, e));
+		}
+	}
+
+	private void measureOrFail(String name, Benchmark benchmark) throws IOException {
+		long end = System.currentTimeMillis() + warmupMillis;
+		while(System.currentTimeMillis() < end) {
+			benchmark.setup();
+			benchmark.run();
+		}
+
+		double[] opsPerSecond = new double[rounds];
+		long totalOps = 0;
+		long totalNanos = 0;
+		long totalChars = 0;
+		long totalAllocated = 0;
+		for(int round = 0; round < rounds; round++) {
+			long ops = 0;
+			long nanos = 0;
+			while(nanos < roundMillis * 1000000L) {
+				benchmark.setup();
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				totalChars += benchmark.run();
+				nanos += System.nanoTime() - start;
+				totalAllocated += allocatedBytes() - allocated;
+				ops++;
+			}
+			opsPerSecond[round] = ops * 1e9 / nanos;
+			totalOps += ops;
+			totalNanos += nanos;
+		}
+
+		Result result = new Result();
+		result.opsPerSecond = totalOps * 1e9 / totalNanos;
+		double variance = 0;
+		for(double ops : opsPerSecond) {
+			variance += (ops - result.opsPerSecond) * (ops - result.opsPerSecond);
+		}
+		result.opsDeviation = Math.sqrt(variance / rounds);
+		result.megabytesPerSecond = totalChars * 1e9 / totalNanos / (1024 * 1024);
+		if(threadBean != null) {
+			result.bytesAllocatedPerOp = totalAllocated / totalOps;
+		}
+		results.put(name, result);
+
+		System.out.println(String.format("%-50s %12.1f ops/s +- %8.1f %9.2f MB/s %12s",
+				name, result.opsPerSecond, result.opsDeviation, result.megabytesPerSecond,
+				(result.bytesAllocatedPerOp < 0) ? "n/a" : (result.bytesAllocatedPerOp / 1024) + " KB/op"));
+	}
+
+	private long allocatedBytes() {
+		if(threadBean == null) {
+			return 0;
+		}
+		try {
+			return (Long)allocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			threadBean = null;
+			return 0;
+		}
+	}
+
+	/**
+	 * Saves the results so a later run can be compared against them
+	 */
+	public void save(File file) throws IOException {
+		Properties properties = new Properties();
+		for(Map.Entry<String, Result> entry : results.entrySet()) {
+			Result result = entry.getValue();
+			properties.setProperty(entry.getKey() + ".opsPerSecond", Double.toString(result.opsPerSecond));
+			properties.setProperty(entry.getKey() + ".megabytesPerSecond", Double.toString(result.megabytesPerSecond));
+			properties.setProperty(entry.getKey() + ".bytesAllocatedPerOp", Long.toString(result.bytesAllocatedPerOp));
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, "knowl indexer benchmark results");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Prints how the results compare to the saved results of an earlier run
+	 */
+	public void compare(File baselineFile) throws IOException {
+		Properties baseline = new Properties();
+		InputStream in = new FileInputStream(baselineFile);
+		try {
+			baseline.load(in);
+		} finally {
+			in.close();
+		}
+		System.out.println();
+		System.out.println("Compared to " + baselineFile + ":");
+		for(Map.Entry<String, Result> entry : results.entrySet()) {
+			String ops = baseline.getProperty(entry.getKey() + ".opsPerSecond");
+			if(ops == null) {
+				System.out.println(String.format("%-50s %12s", entry.getKey(), "new"));
+				continue;
+			}
+			double change = (entry.getValue().opsPerSecond / Double.parseDouble(ops) - 1) * 100;
+			String allocated = baseline.getProperty(entry.getKey() + ".bytesAllocatedPerOp", "-1");
+			long before = Long.parseLong(allocated);
+			long after = entry.getValue().bytesAllocatedPerOp;
+			String allocation = (before <= 0 || after < 0) ? "" :
+				String.format("%+8.1f%% allocated", (after / (double)before - 1) * 100);
+			System.out.println(String.format("%-50s %+8.1f%% ops/s %s", entry.getKey(), change, allocation));
+		}
+	}
+
+	/**
+	 * Loads the saved pages of a source, or a generated page if none have been saved
+	 * @return - The pages by name
+	 */
+	private static Map<String, String> loadPages(File corpus, String source) throws IOException {
+		Map<String, String> pages = new LinkedHashMap<String, String>();
+		File[] files = corpus.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				String name = file.getName();
+				if(name.startsWith(source + "-") && name.endsWith(".html")) {
+					pages.put(name.substring(source.length() + 1, name.length() - ".html".length()), read(file));
+				}
+			}
+		}
+		if(pages.isEmpty()) {
+			pages.put("generated", generatePage(source));
+		}
+		return pages;
+	}
+
+	private static String read(File file) throws IOException {
+		StringBuilder page = new StringBuilder();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			char[] buf = new char[8192];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				page.append(buf, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return page.toString();
+	}
+
+	/**
+	 * Builds a page of about 200KB with the layout of a results page: a header, rails
+	 * with ads on both sides and a long list of results, carrying the markup the cleanup
+	 * of the given source looks for.
+	 */
+	static String generatePage(String source) {
+		String[] junk;
+		String result;
+		if(source.equals(Source.DICTIONARY)) {
+			junk = new String[] { "<div id=\"leftRail\"><a rel=\"nofollow\" href=\"/ad\">ad</a></div>",
+					"<div class=\"sep_top shd_hdr\">Related</div>", "<span class=\"pronset\">[noh-l]</span>" };
+			result = "<table><tr><td class=\"td1\">%d. <b>knowl</b> the top of a hill; a knoll</td></tr></table>";
+		} else if(source.equals(Source.THESAURUS)) {
+			junk = new String[] { "<div id=\"ltm\">More</div>", "<span style=\"display:none\">hidden</span>",
+					"<div class=\"rh\"><a href=\"/x\">x</a></div>" };
+			result = "<div class=\"result\">%d <b>Main Entry:</b> knoll <div class=\"result_copyright\">"
+					+ "<a href=\"/a\">a</a><a href=\"/b\">b</a><a href=\"/c\">c</a></div></div>";
+		} else if(source.equals(Source.URBAN_DICTIONARY)) {
+			junk = new String[] { "<div id=\"topnav\"><a href=\"/\">top</a></div>", "<td id=\"leftist\">ads</td>",
+					"<a href=\"/add.php?word=bench\">add</a>" };
+			result = "<table><tr><td class=\"index\"><a href=\"/d\">%d.</a></td><td class=\"word\">bench</td>"
+					+ "<td><div class=\"definition\">a place to sit <a class=\"urbantip\" href=\"/t\">tip</a></div></td></tr></table>";
+		} else {
+			junk = new String[] { "<div id=\"SkyCraper\">ad</div>", "<td class=\"SearchForm\"><form><input name=\"q\"></form></td>",
+					"<img class=\"InlineImg\" src=\"/i.png\">" };
+			result = "<div class=\"lyric\">%d line of a song<br>and another one<br></div>";
+		}
+		StringBuilder page = new StringBuilder(256 * 1024);
+		page.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+		page.append("<html><head><title>bench</title>\n<style>body { margin: 0 }</style>\n");
+		page.append("<script type=\"text/javascript\">var x = 1 < 2 && \"</div>\";</script></head>\n<body>\n");
+		int i = 0;
+		while(page.length() < 200 * 1024) {
+			page.append("<div class=\"row\">\n");
+			page.append(junk[i % junk.length]).append('\n');
+			page.append(String.format(result, i)).append('\n');
+			page.append("<!-- result ").append(i).append(" -->\n<div><span> </span></div>\n</div>\n");
+			i++;
+		}
+		page.append("</body></html>\n");
+		return page.toString();
+	}
+
+	/**
+	 * Saves a live page into the corpus so later runs can use it offline
+	 */
+	private static void record(File corpus, String source, String url) throws IOException {
+		if(!corpus.exists()) {
+			corpus.mkdirs();
+		}
+		File file = new File(corpus, source + "-" + pageName(url) + ".html");
+		InputStream in = Fetcher.getDefault().openStream(new URL(url));
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		System.out.println("Saved " + url + " to " + file);
+	}
+
+	/**
+	 * @return - The name a page is saved under in the corpus (Ex. dictionary_reference_com_browse_knowl)
+	 */
+	static String pageName(String url) {
+		return url.replaceAll("^[a-z]+://", "").replaceAll("[^A-Za-z0-9]+", "_");
+	}
+
+	public static void main(String[] args) throws IOException {
+		File corpus = new File(DEFAULT_CORPUS);
+		File out = null;
+		File baseline = null;
+		boolean quick = false;
+		List<String> record = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-corpus")) {
+				corpus = new File(args[++i]);
+			} else if(args[i].equals("-out")) {
+				out = new File(args[++i]);
+			} else if(args[i].equals("-baseline")) {
+				baseline = new File(args[++i]);
+			} else if(args[i].equals("-quick")) {
+				quick = true;
+			} else if(args[i].equals("-record")) {
+				record.add(args[++i]);
+				record.add(args[++i]);
+			} else {
+				System.err.println("Unknown argument " + args[i]);
+				return;
+			}
+		}
+		if(!record.isEmpty()) {
+			record(corpus, record.get(0), record.get(1));
+			return;
+		}
+
+		IndexerBenchmark benchmark = new IndexerBenchmark();
+		benchmark.setQuick(quick);
+		benchmark.runAll(corpus);
+		if(out != null) {
+			benchmark.save(out);
+		}
+		if(baseline != null) {
+			benchmark.compare(baseline);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package sources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local http server standing in for the sites the sources query, serving the pages
+ * saved in the benchmark corpus (see {@link IndexerBenchmark}). It is meant to be used
+ * as the http proxy of knowl, so the sources fetch from it without knowing. The server
+ * is started from the bench directory, like the benchmark, and knowl from its own:
+ *
+ * <pre>
+ * java sources.StubServer [-port 8088] [-corpus dir] [-delay ms] [-fail n]
+ * java -Dhttp.proxyHost=localhost -Dhttp.proxyPort=8088 util.testlaunch
+ * </pre>
+ *
+ * A request is answered with the page recorded from the same url. Sites without a
+ * recorded page get the generated page of their source, anything else is not found.
+ * Pages are gzipped for clients that accept it.
+ *
+ * -delay pauses after every 8K sent, to see how knowl behaves on a slow connection.
+ * -fail answers every nth request with a server error, to exercise the retries of
+ * the {@link Fetcher}.
+ */
+public class StubServer implements HttpHandler {
+
+	public static final int DEFAULT_PORT = 8088;
+
+	/**
+	 * The sites of the sources, by the source their pages are generated for
+	 */
+	private static final String[][] SITES = {
+		{ "dictionary.reference.com", Source.DICTIONARY },
+		{ "thesaurus.com", Source.THESAURUS },
+		{ "urbandictionary.com", Source.URBAN_DICTIONARY },
+		{ "azlyrics.com", Source.LYRICS } };
+
+	private final File corpus;
+	private final long delay;
+	private final int fail;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	/**
+	 * @param corpus - Directory of saved pages
+	 * @param delay - Pause after every 8K sent, in milliseconds
+	 * @param fail - Every how many requests a server error is sent back, 0 for never
+	 */
+	public StubServer(File corpus, long delay, int fail) {
+		this.corpus = corpus;
+		this.delay = delay;
+		this.fail = fail;
+	}
+
+	/**
+	 * Starts serving on the given port
+	 * @return - The running server
+	 */
+	public HttpServer start(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", this);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			// Proxied requests carry the whole url, direct ones only the path
+			String url = exchange.getRequestURI().toString();
+			if(!url.startsWith("http")) {
+				url = "http://" + exchange.getRequestHeaders().getFirst("Host") + url;
+			}
+			int request = requests.incrementAndGet();
+			if(fail > 0 && request % fail == 0) {
+				System.out.println(request + " 503 " + url);
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+
+			byte[] page = find(url);
+			if(page == null) {
+				System.out.println(request + " 404 " + url);
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if(accept != null && accept.contains("gzip")) {
+				ByteArrayOutputStream zipped = new ByteArrayOutputStream(page.length / 4);
+				GZIPOutputStream out = new GZIPOutputStream(zipped);
+				out.write(page);
+				out.close();
+				page = zipped.toByteArray();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=ISO-8859-1");
+			exchange.sendResponseHeaders(200, page.length);
+			System.out.println(request + " 200 " + url + " (" + page.length + " bytes)");
+
+			OutputStream out = exchange.getResponseBody();
+			for(int off = 0; off < page.length; off += 8192) {
+				out.write(page, off, Math.min(8192, page.length - off));
+				out.flush();
+				if(delay > 0) {
+					Thread.sleep(delay);
+				}
+			}
+			out.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return - The page to answer the url with, null if there is none
+	 */
+	private byte[] find(String url) throws IOException {
+		String suffix = "-" + IndexerBenchmark.pageName(url) + ".html";
+		File[] files = corpus.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				if(file.getName().endsWith(suffix)) {
+					return read(file);
+				}
+			}
+		}
+		String host = url.replaceAll("^[a-z]+://", "").replaceAll("[/:?].*$", "");
+		for(String[] site : SITES) {
+			if(host.endsWith(site[0])) {
+				return IndexerBenchmark.generatePage(site[1]).getBytes("ISO-8859-1");
+			}
+		}
+		return null;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		ByteArrayOutputStream page = new ByteArrayOutputStream((int) file.length());
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int read;
+			while((read = in.read(buf)) != -1) {
+				page.write(buf, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return page.toByteArray();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		File corpus = new File(IndexerBenchmark.DEFAULT_CORPUS);
+		long delay = 0;
+		int fail = 0;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-port")) {
+				port = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-corpus")) {
+				corpus = new File(args[++i]);
+			} else if(args[i].equals("-delay")) {
+				delay = Long.parseLong(args[++i]);
+			} else if(args[i].equals("-fail")) {
+				fail = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("Unknown argument " + args[i]);
+				return;
+			}
+		}
+		new StubServer(corpus, delay, fail).start(port);
+		System.out.println("Serving " + corpus.getAbsolutePath() + " on port " + port);
+	}
+}
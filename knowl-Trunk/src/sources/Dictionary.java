@@ -1,19 +1,15 @@
 package sources;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 import javax.swing.JEditorPane;
 
 
+import util.indexer.CleanupPlan;
 import util.indexer.Indexer;
 import util.indexer.OneLinerTag;
+import util.indexer.Selector;
 import util.indexer.Tag;
 
 /**
@@ -23,6 +19,45 @@ import util.indexer.Tag;
  */
 public class Dictionary extends Source {
 	
+	/**
+	 * Everything that gets cut out of a results page (ads, unnecessary text, etc.)
+	 */
+	private static final CleanupPlan CLEANUP = new CleanupPlan()
+			.removeType("style")
+			.removeType("img")
+			.removeType("form")
+			.removeType("input")
+			.removeTagAndChildren("div", "id", "leftRail")
+			.removeTagAndChildren("div", "id", "rightRail")
+			.removeTagAndChildren("div", "id", "dict_header_content")
+			.removeTagAndChildren("div", "id", "link_to_module")
+			.removeTagAndChildren("div", "id", "popup")
+			.removeTagAndChildren("div", "id", "macnt")
+			.removeTagAndChildren("div", "class", "wrp_rc")
+			.removeTagAndChildren("div", "id", "Headserp")
+			.removeTagAndChildren("div", "class", "spl_unshd")
+			.removeTagAndChildren("span", "class", "pronset")
+			.removeTextTag(" ")
+			.removeTagAndChildren("div", "class", "Lsentnce")
+			.removeTagAndChildren("div", "id", "imgres")
+			.removeTagAndChildren("div", "id", "link_to_div")
+			.removeTagAndChildren("a", "id", "link_to_style")
+			.removeTagAndChildren("div", "id", "webres")
+			.removeTagAndChildren("div", "class", "sep_top")
+			.removeTagAndChildren("a", "rel", "nofollow")
+			.removeTagAndChildren("div", "class", "fC ccF")
+			.removeTypeOnly("a")
+			.removeTagAndChildren("div", "class", "sep_top shd_hdr")
+			.removeTagAndChildren("div", "class", "sr sw")
+			.removeTagAndChildren("div", "class", "bca saw")
+			.removeTagAndChildren("div", "id", "ltm");
+	
+	/**
+	 * The numbering text in front of each definition. The class is matched whole, like
+	 * getTag does, rather than as one class of a list.
+	 */
+	private static final Selector DEFINITION_NUMBERS = Selector.compile("td[class=td1] > text:nth-child(2)");
+	
 	/**
 	 * The JEditorPane displaying this sources URL.
 	 */
@@ -41,103 +76,70 @@ public class Dictionary extends Source {
 	 */
 	@Override
 	public String executeQuery(String queryString) {
+		// Write the cleaned results to a temp file for panes loading from a file
+		return writeTempFile(executeQueryDocument(queryString));
+	}
+	
+	/* (non-Javadoc)
+	 * @see sources.Source#executeQueryDocument(java.lang.String)
+	 */
+	@Override
+	public CharSequence executeQueryDocument(String queryString) {
 		
-		// Try to append the queryString to the site url (find results page)
-		URL dictionary = null;
+		// Try to open the connection with the results page
+		BufferedReader in = null;
 		try {
-			 dictionary = new URL("http://dictionary.reference.com/browse/" + queryString);
-		} catch(MalformedURLException e) {
-			e.printStackTrace();
+			in = Fetcher.getDefault().open("http://dictionary.reference.com/browse/" + queryString);
+		} catch (IOException e1) {
+			e1.printStackTrace();
 		}
 		
-		// Try to open the connection with the results page
-		BufferedReader in = null;
-		if(dictionary != null) {
-			try {
-				in = new BufferedReader(
-							new InputStreamReader(
-							dictionary.openStream()));
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+		// Nothing to clean if the results page couldn't be opened
+		if(in == null) {
+			return null;
 		}
 		
-		// Begin creating the temp file and then proceed to cleaning the site input
-		File dir = new File("bin//temp//");
-		File temp = null;
+		// Proceed to cleaning the site input
 		try {
 			// Index the site
-			Indexer indexer = new Indexer(in);
-			
-			// Clean up all the garbage (ads, unnecessary text, etc.)
-			indexer.removeEmptyTags();
-			indexer.removeType("style");
-			indexer.removeType("img");
-			indexer.removeType("form");
-			indexer.removeType("input");
-			indexer.removeTagAndChildren("div", "id", "leftRail");
-			indexer.removeTagAndChildren("div", "id", "rightRail");
-			indexer.removeTagAndChildren("div", "id", "dict_header_content");
-			indexer.removeTagAndChildren("div", "id", "link_to_module");
-			indexer.removeTagAndChildren("div", "id", "popup");
-			indexer.removeTagAndChildren("div", "id", "macnt");
-			indexer.removeTagAndChildren("div", "class", "wrp_rc");
-			indexer.removeTagAndChildren("div", "id", "Headserp");
-			indexer.removeTagAndChildren("div", "class", "spl_unshd");
-			indexer.removeTagAndChildren("span", "class", "pronset");
-			indexer.removeTextTag(" ");
-			indexer.removeTagAndChildren("div", "class", "Lsentnce");
-			indexer.removeTagAndChildren("div", "id", "imgres");
-			indexer.removeTagAndChildren("div", "id", "link_to_div");
-			indexer.removeTagAndChildren("a", "id", "link_to_style");
-			indexer.removeTagAndChildren("div", "id", "webres");
-			indexer.removeTagAndChildren("div", "class", "sep_top");
-			indexer.removeTagAndChildren("a", "rel", "nofollow");
-			indexer.removeTagAndChildren("div", "class", "fC ccF");
-			indexer.removeTypeOnly("a");
-			indexer.removeTagAndChildren("div", "class", "sep_top shd_hdr");
-			indexer.removeTagAndChildren("div", "class", "sr sw");
-			indexer.removeTagAndChildren("div", "class", "bca saw");
-			indexer.removeTagAndChildren("div", "id", "ltm");
-			indexer.removeChildOf(1, "text", "td", "class", "td1");
-			Tag child = new OneLinerTag();
-			child.setType("hr");
-//			Tag parent = indexer.getTag("div", "class", "sep_top shd_hdr ").get(0).getParent();
-//			int children = parent.getChildren().size();
-//			for(int i = 1; i < (children * 2) + 1; i += 2) {
-//				indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
-//			}
-//			parent = indexer.getTag("div", "class", "sep_top shd_hdr pb7").get(0).getParent();
-//			children = parent.getChildren().size();
-//			for(int i = 1; i < (children * 2) + 1; i += 2) {
-//				indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
-//			}
-			
-			// Finish creating the temp file in the temp directory
-			// Set the file to delete on exit of the virtual machine
+			Indexer indexer;
 			try {
-				temp = File.createTempFile("temp", ".html", dir);
-				temp.deleteOnExit();
-			} catch (IOException e) {
-				e.printStackTrace();
+				indexer = new Indexer(in, CLEANUP);
+			} finally {
+				// Close the input stream, which gives the host back to the fetcher
+				in.close();
 			}
 			
-			// Setup the output writer for the cleaned temp file
-			BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+			// Clean up all the garbage (ads, unnecessary text, etc.)
+			removeUnwanted(indexer);
 			
-			// Write the clean html to the temp file
-			indexer.linesToFile(out);
-
-			// Close both the in and out file streams
-			in.close();
-			out.close();
+			// Hand back the clean html
+			return indexer.toHtml();
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
-		
-		// Return the absolute path of the temporary file with a file: type protocol
-		// Also remember to replace all '\' with "//", which is shown below
-		return "file:/" + temp.getAbsolutePath().replace("\\", "//");
+	}
+	
+	/**
+	 * Removes all unwanted code from the results page
+	 * @param indexer Contains the html source code from the web page
+	 */
+	void removeUnwanted(Indexer indexer) {
+		indexer.cleanup(CLEANUP);
+		indexer.removeTagAndChildren(DEFINITION_NUMBERS);
+		Tag child = new OneLinerTag();
+		child.setType("hr");
+//		Tag parent = indexer.getTag("div", "class", "sep_top shd_hdr ").get(0).getParent();
+//		int children = parent.getChildren().size();
+//		for(int i = 1; i < (children * 2) + 1; i += 2) {
+//			indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
+//		}
+//		parent = indexer.getTag("div", "class", "sep_top shd_hdr pb7").get(0).getParent();
+//		children = parent.getChildren().size();
+//		for(int i = 1; i < (children * 2) + 1; i += 2) {
+//			indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
+//		}
 	}
 	
 	public void setJEditorPane(JEditorPane jep) {
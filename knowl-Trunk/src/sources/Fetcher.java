@@ -0,0 +1,651 @@
+package sources;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import util.QueryTimeline;
+
+/**
+ * Opens the pages the sources query. Every source goes through the same fetcher so
+ * they share its connection pool and its limits:
+ *
+ * Connections are kept alive and reused by HttpURLConnection once a page has been read
+ * to the end, up to {@link #MAX_CONNECTIONS} idle connections per host.
+ * Pages are asked for gzip or deflate compressed and decoded on the fly.
+ * Connecting and reading time out instead of hanging the query.
+ * A request that fails to connect, times out or gets a server error is retried a few
+ * times before giving up.
+ * No more than a set number of pages are read from one host at the same time.
+ *
+ * The stages of a fetch (queue, connect, first byte and download) and the bytes downloaded
+ * are marked in the {@link QueryTimeline} of the query the fetching thread is running.
+ *
+ * Queries run on a pool made by {@link #newFixedThreadPool(int, ThreadFactory)} or
+ * {@link #newCachedThreadPool(ThreadFactory)} can be cancelled while they wait on the
+ * network: cancelling a task of the pool with cancel(true) disconnects the pages it has
+ * open and gives their host permits back from the cancelling thread, instead of leaving
+ * it to the fetching thread, which doesn't notice the interrupt while it waits on the
+ * server.
+ *
+ * Running knowl with -Dhttp.proxyHost=localhost -Dhttp.proxyPort=8088 sends every fetch
+ * to a StubServer (see bench/src) serving saved pages instead of the live sites.
+ */
+public class Fetcher {
+
+	/**
+	 * Default limits, times are in milliseconds
+	 */
+	public static final int CONNECT_TIMEOUT = 10000;
+	public static final int READ_TIMEOUT = 20000;
+	public static final int RETRIES = 2;
+	public static final int PER_HOST = 4;
+
+	/**
+	 * Most idle connections kept alive per host
+	 */
+	public static final int MAX_CONNECTIONS = 8;
+
+	/**
+	 * Wait before the first retry, doubled for each retry after it
+	 */
+	private static final long RETRY_DELAY = 250;
+
+	private static final Fetcher DEFAULT;
+
+	/**
+	 * Disconnects the connections of cancelled tasks. Disconnecting waits for a read in
+	 * progress on the connection to finish, so it is kept off the cancelling thread.
+	 */
+	private static final ExecutorService DISCONNECTER = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "knowl-disconnect");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		// The pool lives in HttpURLConnection, it just has to be big enough for us
+		if(System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(MAX_CONNECTIONS));
+		}
+		DEFAULT = new Fetcher();
+	}
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int retries;
+	private final int perHost;
+
+	/**
+	 * Permits for reading from each host, taken when a page is opened and given back
+	 * when it has been read or closed
+	 */
+	private final Map<String, Semaphore> hosts = new HashMap<String, Semaphore>();
+
+	/**
+	 * Creates a fetcher with the default limits
+	 */
+	public Fetcher() {
+		this(CONNECT_TIMEOUT, READ_TIMEOUT, RETRIES, PER_HOST);
+	}
+
+	/**
+	 * Creates a fetcher with the given limits
+	 *
+	 * @param connectTimeout - Time allowed to connect, in milliseconds
+	 * @param readTimeout - Time allowed to wait for data, in milliseconds
+	 * @param retries - Number of times a failed request is tried again
+	 * @param perHost - Number of pages that may be read from one host at the same time
+	 */
+	public Fetcher(int connectTimeout, int readTimeout, int retries, int perHost) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.retries = retries;
+		this.perHost = perHost;
+	}
+
+	/**
+	 * @return - The fetcher shared by all sources
+	 */
+	public static Fetcher getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates a thread pool whose tasks disconnect the pages they are fetching when they
+	 * are cancelled with cancel(true)
+	 *
+	 * @param threads - Number of threads of the pool
+	 * @param factory - Creates the threads
+	 * @return - The pool
+	 */
+	public static ExecutorService newFixedThreadPool(int threads, ThreadFactory factory) {
+		return new FetchExecutor(threads, threads, 0L,
+				new LinkedBlockingQueue<Runnable>(), factory);
+	}
+
+	/**
+	 * Creates a thread pool that makes threads as they are needed and whose tasks
+	 * disconnect the pages they are fetching when they are cancelled with cancel(true)
+	 *
+	 * @param factory - Creates the threads
+	 * @return - The pool
+	 */
+	public static ExecutorService newCachedThreadPool(ThreadFactory factory) {
+		return new FetchExecutor(0, Integer.MAX_VALUE, 60L,
+				new SynchronousQueue<Runnable>(), factory);
+	}
+
+	/**
+	 * Opens a page for reading
+	 *
+	 * @param url - The page to open
+	 * @return - A reader for the page, decoded with the charset the server gives
+	 * @throws IOException - If the url is malformed or the page could not be opened
+	 */
+	public BufferedReader open(String url) throws IOException {
+		return open(new URL(url));
+	}
+
+	/**
+	 * Opens a page for reading
+	 *
+	 * @param url - The page to open
+	 * @return - A reader for the page, decoded with the charset the server gives
+	 * @throws IOException - If the page could not be opened
+	 */
+	public BufferedReader open(URL url) throws IOException {
+		URLConnection connection = connect(url);
+		InputStream in = body(url, connection);
+		String charset = charset(connection.getContentType());
+		if(charset != null) {
+			try {
+				return new BufferedReader(new InputStreamReader(in, charset));
+			} catch (UnsupportedEncodingException e) {
+				// Fall back to the default charset, like the sources always did
+			}
+		}
+		return new BufferedReader(new InputStreamReader(in));
+	}
+
+	/**
+	 * Opens a page for reading its raw bytes
+	 *
+	 * @param url - The page to open
+	 * @return - The body of the page, decompressed if the server compressed it
+	 * @throws IOException - If the page could not be opened
+	 */
+	public InputStream openStream(URL url) throws IOException {
+		return body(url, connect(url));
+	}
+
+	/**
+	 * Connects to the url, retrying failed attempts. The returned connection holds a
+	 * permit of its host, which is given back by the stream
+	 * {@link #body(URL, URLConnection)} hands out.
+	 */
+	private URLConnection connect(URL url) throws IOException {
+		Semaphore permits = permits(url.getHost());
+		try {
+			if(!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Too many pages open from " + url.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + url.getHost());
+		}
+		QueryTimeline.mark("queue");
+
+		IOException failure = new IOException("Interrupted fetching " + url);
+		for(int attempt = 0; attempt <= retries; attempt++) {
+			if(FetchTask.isAborted()) {
+				break;
+			}
+			if(attempt > 0) {
+				QueryTimeline.count("retries", 1);
+				try {
+					Thread.sleep(RETRY_DELAY << (attempt - 1));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			URLConnection connection = null;
+			Abortable disconnect = null;
+			FetchTask<?> task = null;
+			try {
+				connection = url.openConnection();
+				if(connection instanceof HttpURLConnection) {
+					// Waiting for the server to answer can be cancelled too
+					disconnect = new Disconnect((HttpURLConnection) connection);
+					task = FetchTask.register(disconnect);
+				}
+				connection.setConnectTimeout(connectTimeout);
+				connection.setReadTimeout(readTimeout);
+				connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+				connection.connect();
+				QueryTimeline.mark("connect");
+				if(!(connection instanceof HttpURLConnection)) {
+					return connection;
+				}
+				HttpURLConnection http = (HttpURLConnection) connection;
+				int status = http.getResponseCode();
+				QueryTimeline.mark("first byte");
+				if(status < 400) {
+					return connection;
+				}
+				failure = new IOException("Server returned " + status + " for " + url);
+				discard(http);
+				if(status < 500) {
+					// The page isn't there, asking again won't change that
+					break;
+				}
+			} catch (IOException e) {
+				failure = e;
+				if(connection instanceof HttpURLConnection) {
+					discard((HttpURLConnection) connection);
+				}
+			} finally {
+				// From here on the stream of the page can be cancelled instead
+				FetchTask.unregister(task, disconnect);
+			}
+		}
+		permits.release();
+		throw failure;
+	}
+
+	/**
+	 * @return - The body of a connection made by {@link #connect(URL)} to the url,
+	 * decompressed if the server compressed it. Reading it to the end or closing it
+	 * gives the permit of the host back.
+	 */
+	private InputStream body(URL url, URLConnection connection) throws IOException {
+		Semaphore permits = permits(url.getHost());
+		CountingInputStream wire = null;
+		try {
+			wire = new CountingInputStream(connection.getInputStream());
+			InputStream in = wire;
+			String encoding = connection.getContentEncoding();
+			if(encoding != null) {
+				encoding = encoding.trim().toLowerCase();
+				if(encoding.equals("gzip") || encoding.equals("x-gzip")) {
+					in = new GZIPInputStream(wire);
+				} else if(encoding.equals("deflate")) {
+					in = new InflaterInputStream(wire);
+				}
+			}
+			// The end of the page is the end of the decompressed body, a decompressor
+			// stops reading the connection once it has what it needs
+			return new ReleasingInputStream(in, permits, wire, connection);
+		} catch (IOException e) {
+			permits.release();
+			if(wire != null) {
+				wire.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads out the body of an error response, so that the connection can go back
+	 * to the pool
+	 */
+	private static void discard(HttpURLConnection http) {
+		InputStream error = http.getErrorStream();
+		if(error == null) {
+			return;
+		}
+		try {
+			byte[] buf = new byte[4096];
+			while(error.read(buf) != -1) {
+				// Nothing to keep
+			}
+			error.close();
+		} catch (IOException e) {
+			// The connection can't be reused, nothing else to do about it
+		}
+	}
+
+	/**
+	 * @return - The charset named in a content type (Ex. text/html; charset=UTF-8),
+	 * null if there is none
+	 */
+	static String charset(String contentType) {
+		if(contentType == null) {
+			return null;
+		}
+		for(String param : contentType.split(";")) {
+			param = param.trim();
+			if(param.toLowerCase().startsWith("charset=")) {
+				String charset = param.substring("charset=".length()).trim();
+				if(charset.length() > 1 && charset.startsWith("\"") && charset.endsWith("\"")) {
+					charset = charset.substring(1, charset.length() - 1);
+				}
+				return charset.length() > 0 ? charset : null;
+			}
+		}
+		return null;
+	}
+
+	private Semaphore permits(String host) {
+		synchronized(hosts) {
+			Semaphore permits = hosts.get(host);
+			if(permits == null) {
+				permits = new Semaphore(perHost, true);
+				hosts.put(host, permits);
+			}
+			return permits;
+		}
+	}
+
+	/**
+	 * Disconnects a connection without holding up the calling thread
+	 */
+	private static void disconnectLater(final HttpURLConnection http) {
+		DISCONNECTER.execute(new Runnable() {
+			@Override
+			public void run() {
+				http.disconnect();
+			}
+		});
+	}
+
+	/**
+	 * Something a cancelled task stops from another thread
+	 */
+	private interface Abortable {
+		void abort();
+	}
+
+	/**
+	 * Disconnects a connection that hasn't answered yet, which ends the wait for the
+	 * answer with an exception
+	 */
+	private static class Disconnect implements Abortable {
+
+		private final HttpURLConnection http;
+
+		Disconnect(HttpURLConnection http) {
+			this.http = http;
+		}
+
+		@Override
+		public void abort() {
+			disconnectLater(http);
+		}
+	}
+
+	/**
+	 * Gives the host permit back at the end of the stream or when it is closed,
+	 * whichever comes first, which is also when the download is marked done in the
+	 * timeline of the query. Reading stops with an InterruptedIOException once the
+	 * reading thread is interrupted, so a cancelled query doesn't download the rest
+	 * of its page.
+	 *
+	 * When the task reading the stream is cancelled, the permit is given back right
+	 * away from the cancelling thread and the connection is disconnected, so it isn't
+	 * kept alive half read. HttpURLConnection can't end a read that is already blocked
+	 * on the connection, that read still waits for data or the read timeout, but it
+	 * then fails instead of going on with the page.
+	 */
+	private static class ReleasingInputStream extends FilterInputStream implements Abortable {
+
+		private final Semaphore permits;
+		private final CountingInputStream wire;
+		private final HttpURLConnection http;
+		private final FetchTask<?> task;
+		private final QueryTimeline timeline;
+		private boolean released;
+		private volatile boolean aborted;
+
+		ReleasingInputStream(InputStream in, Semaphore permits, CountingInputStream wire,
+				URLConnection connection) {
+			super(in);
+			this.permits = permits;
+			this.wire = wire;
+			http = (connection instanceof HttpURLConnection) ? (HttpURLConnection) connection : null;
+			timeline = QueryTimeline.current();
+			task = (http != null) ? FetchTask.register(this) : null;
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkCancelled();
+			int read = super.read();
+			checkCancelled();
+			if(read == -1) {
+				release();
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkCancelled();
+			int read = super.read(b, off, len);
+			checkCancelled();
+			if(read == -1) {
+				release();
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				release();
+			}
+		}
+
+		@Override
+		public void abort() {
+			aborted = true;
+			release();
+			disconnectLater(http);
+		}
+
+		private void checkCancelled() throws IOException {
+			if(aborted || Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("Fetch cancelled");
+			}
+		}
+
+		private synchronized void release() {
+			if(!released) {
+				released = true;
+				FetchTask.unregister(task, this);
+				permits.release();
+				if(timeline != null) {
+					timeline.addCount("bytes", wire.getCount());
+					timeline.markStage("download");
+				}
+			}
+		}
+	}
+
+	/**
+	 * A task of a fetcher pool. It keeps track of the pages its thread has open, so
+	 * cancelling it can stop them from the cancelling thread.
+	 */
+	private static class FetchTask<T> extends FutureTask<T> {
+
+		/**
+		 * The task the current thread is running, if it is running one
+		 */
+		private static final ThreadLocal<FetchTask<?>> CURRENT = new ThreadLocal<FetchTask<?>>();
+
+		private final List<Abortable> open = new ArrayList<Abortable>();
+		private boolean aborted;
+
+		FetchTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		FetchTask(Runnable runnable, T result) {
+			super(runnable, result);
+		}
+
+		@Override
+		public void run() {
+			CURRENT.set(this);
+			try {
+				super.run();
+			} finally {
+				CURRENT.remove();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if(cancelled && mayInterruptIfRunning) {
+				abort();
+			}
+			return cancelled;
+		}
+
+		private void abort() {
+			List<Abortable> aborting;
+			synchronized(this) {
+				aborted = true;
+				aborting = new ArrayList<Abortable>(open);
+				open.clear();
+			}
+			for(Abortable abortable : aborting) {
+				abortable.abort();
+			}
+		}
+
+		/**
+		 * @return - Whether the task the current thread is running has been cancelled
+		 */
+		static boolean isAborted() {
+			FetchTask<?> task = CURRENT.get();
+			if(task == null) {
+				return false;
+			}
+			synchronized(task) {
+				return task.aborted;
+			}
+		}
+
+		/**
+		 * Lets the task the current thread is running stop the abortable when it is
+		 * cancelled, or stops it right away if the task has been cancelled already
+		 *
+		 * @return - The task the abortable was registered with, null if the current
+		 * thread isn't running a task
+		 */
+		static FetchTask<?> register(Abortable abortable) {
+			FetchTask<?> task = CURRENT.get();
+			if(task == null) {
+				return null;
+			}
+			synchronized(task) {
+				if(!task.aborted) {
+					task.open.add(abortable);
+					return task;
+				}
+			}
+			abortable.abort();
+			return task;
+		}
+
+		/**
+		 * Forgets an abortable that is done, so cancelling the task leaves it be
+		 */
+		static void unregister(FetchTask<?> task, Abortable abortable) {
+			if(task == null) {
+				return;
+			}
+			synchronized(task) {
+				task.open.remove(abortable);
+			}
+		}
+	}
+
+	/**
+	 * Runs its tasks as FetchTasks
+	 */
+	private static class FetchExecutor extends ThreadPoolExecutor {
+
+		FetchExecutor(int coreThreads, int maxThreads, long keepAliveSeconds,
+				BlockingQueue<Runnable> queue, ThreadFactory factory) {
+			super(coreThreads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS, queue, factory);
+		}
+
+		@Override
+		protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+			return new FetchTask<T>(callable);
+		}
+
+		@Override
+		protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+			return new FetchTask<T>(runnable, value);
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the connection, before they are decompressed
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if(read != -1) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
@@ -1,22 +1,18 @@
 package sources;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 import javax.swing.JEditorPane;
 import javax.swing.event.HyperlinkEvent;
 import javax.swing.event.HyperlinkListener;
 import javax.swing.event.HyperlinkEvent.EventType;
 
-import util.indexer.Indexer;
-import util.indexer.OneLinerTag;
-import util.indexer.Tag;
+import util.Navigator;
+import util.indexer.CleanupPlan;
+import util.indexer.CompactIndexer;
 
 /**
  * A sub-class of Source that represents the particular website contained in the
@@ -26,6 +22,29 @@ import util.indexer.Tag;
  */
 public class Lyrics extends Source {
 
+	/**
+	 * Everything that gets cut out of a lyrics page (ads, unnecessary text, etc.)
+	 */
+	private static final CleanupPlan CLEANUP = new CleanupPlan()
+			.removeType("style")
+			.removeType("img")
+			.removeType("form")
+			.removeType("input")
+			.removeTagAndChildren("img", "class", "InlineImg")
+			.removeTagAndChildren("a", "href", "http://www.azlyrics.com/")
+			.removeTagAndChildren("a", "href", "http://www.azlyrics.com/add.php")
+			.removeTagAndChildren("a", "href", "http://www.stlyrics.com/")
+			.removeTagAndChildren("a", "href", "http://www.azvideos.com/")
+			.removeTagAndChildren("div", "id", "SkyCraper")
+			.removeTagAndChildren("div", "id", "HeaderWhite")
+			.removeTagAndChildren("td", "class", "SearchForm");
+
+	/**
+	 * Links to the second and later pages of search results
+	 */
+	private static final Pattern NEXT_PAGE = Pattern.compile(
+			"href=\"((?:http://search\\.azlyrics\\.com/)?search\\.php\\?[^\"]*[&;]p=(?:[2-9]|\\d\\d+)[^\"]*)\"");
+
 	/**
 	 * The JEditorPane displaying this sources URL.
 	 */
@@ -46,37 +65,42 @@ public class Lyrics extends Source {
 	 */
 	@Override
 	public String executeQuery(String queryString) {
+		// Write the results to a temp file for panes loading from a file
+		return writeTempFile(executeQueryDocument(queryString));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see sources.Source#executeQueryDocument(java.lang.String)
+	 */
+	@Override
+	public CharSequence executeQueryDocument(String queryString) {
 
 		// Try to append the queryString to the site url (find results page)
-		URL uLyrics = null;
-		try {
-			if (!queryString.contains("file:/")) { // if they want to do a new search
-			uLyrics = new URL("http://search.azlyrics.com/search.php?q="
-					+ queryString.replace(" ", "+"));
-			} else { // if they went to the next search page
-				uLyrics = new URL(queryString.replaceFirst("file:/", "http://search.azlyrics.com/").replaceAll(";", ""));
-			}
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
+		String uLyrics;
+		if (queryString.startsWith("http://")) { // a page of results fetched along with the first
+			uLyrics = queryString;
+		} else if (!queryString.contains("file:/")) { // if they want to do a new search
+			uLyrics = "http://search.azlyrics.com/search.php?q=" + queryString.replace(" ", "+");
+		} else { // if they went to the next search page
+			uLyrics = queryString.replaceFirst("file:/", "http://search.azlyrics.com/").replaceAll(";", "");
 		}
 
 		// Try to open the connection with the results page
 		BufferedReader in = null;
-		if (uLyrics != null) {
-			try {
-				in = new BufferedReader(new InputStreamReader(uLyrics
-						.openStream()));
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+		try {
+			in = Fetcher.getDefault().open(uLyrics);
+		} catch (IOException e1) {
+			e1.printStackTrace();
 		}
 
-		// Begin creating the temp file and then proceed to cleaning the site
-		// input
-		File dir = new File("bin//temp//");
-		if (!dir.exists())
-			dir.mkdir();
-		File temp = null;
+		// Nothing to clean if the results page couldn't be opened
+		if (in == null)
+			return null;
+
+		// Proceed to cleaning the site input
+		StringBuilder html = new StringBuilder();
 		try {
 			// Index the site
 			//Indexer indexer = new Indexer(in);
@@ -84,158 +108,114 @@ public class Lyrics extends Source {
 			// Clean up all the garbage (ads, unnecessary text, etc.)
 			//indexer.removeEmptyTags();
 			//indexer.removeTagAndChildren("input", "id", "predictad_result_count");
-			
-
-			// Finish creating the temp file in the temp directory
-			// Set the file to delete on exit of the virtual machine
-			try {
-				temp = File.createTempFile("temp", ".html", dir);
-				temp.deleteOnExit();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			// Setup the output writer for the cleaned temp file
-			BufferedWriter out = new BufferedWriter(new FileWriter(temp));
 
-			// Write the clean html to the temp file
-			//indexer.linesToFile(out);
+			// Keep everything outside of scripts, iframes, lists and forms
+			// Read until the end of the page, ready() is false whenever the network is
+			// slower than we are
 			String tempstr = null;
 			boolean script = false;
-			while(in.ready() ) {
-				//out.write(in.readLine());
-				tempstr = in.readLine();
-				if (tempstr.contains("<script") || tempstr.contains("<iframe") || tempstr.contains("<ul>") || tempstr.contains("<form")) {
-					script = true;
-				}
-				if (!script) {
-					out.write(tempstr);
-				}
-				if (tempstr.contains("script>") || tempstr.contains("iframe>") || tempstr.contains("</ul>") || tempstr.contains("form>")) {
-					script = false;
+			try {
+				while((tempstr = in.readLine()) != null) {
+					if (tempstr.contains("<script") || tempstr.contains("<iframe") || tempstr.contains("<ul>") || tempstr.contains("<form")) {
+						script = true;
+					}
+					if (!script) {
+						html.append(tempstr);
+					}
+					if (tempstr.contains("script>") || tempstr.contains("iframe>") || tempstr.contains("</ul>") || tempstr.contains("form>")) {
+						script = false;
+					}
 				}
+			} finally {
+				// Close the input stream, which gives the host back to the fetcher
+				in.close();
 			}
-
-			// Close both the in and out file streams
-			in.close();
-			out.close();
 		} catch (IOException e) {
+			// Whatever was read before the failure is only part of the page
 			e.printStackTrace();
+			return null;
 		}
+		return html;
+	}
 
-		// Return the absolute path of the temporary file with a file: type
-		// protocol
-		// Also remember to replace all '\' with "//", which is shown below
-		return "file:/" + temp.getAbsolutePath().replace("\\", "//");
+	@Override
+	public Pattern getNextPagePattern() {
+		return NEXT_PAGE;
 	}
 
 	public void setJEditorPane(JEditorPane jep) {
-		this.jep = jep;
-		jep.addHyperlinkListener(new LinkListener());
+		if(this.jep != jep) {
+			// Called before every search, the pane only needs one listener
+			this.jep = jep;
+			jep.addHyperlinkListener(new LinkListener());
+		}
 	}
 	
+	/**
+	 * Fetches and cleans the page of a song's lyrics
+	 * 
+	 * @param inURL - The url of the lyrics page
+	 * @return - The path to the temporary file housing the cleaned lyrics
+	 */
 	public String executeQueryLyrics(String inURL) {
-			
-			// Try to append the queryString to the site url (find results page)
-			URL uLyric = null;
-			try {
-				 uLyric = new URL(inURL);
-			} catch(MalformedURLException e) {
-				e.printStackTrace();
-			}
+			String path = writeTempFile(executeQueryLyricsDocument(inURL));
+			// apparently it's automatically adding in the first "/" after "file:" due to the getAbsolutePath().
+			// makes sense.
+			return (path == null) ? null : path.replaceFirst("file:/", "file:");
+		}
+
+	/**
+	 * Fetches and cleans the page of a song's lyrics
+	 * 
+	 * @param inURL - The url of the lyrics page
+	 * @return - The cleaned lyrics page, null if it couldn't be opened
+	 */
+	public CharSequence executeQueryLyricsDocument(String inURL) {
 			
 			// Try to open the connection with the results page
 			BufferedReader in = null;
-			if(uLyric != null) {
-				try {
-					in = new BufferedReader(
-								new InputStreamReader(
-								uLyric.openStream()));
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+			try {
+				in = Fetcher.getDefault().open(inURL);
+			} catch (IOException e1) {
+				e1.printStackTrace();
 			}
 			
-			// Begin creating the temp file and then proceed to cleaning the site input
-			File dir = new File("bin//temp//");
-			File temp = null;
+			// Nothing to clean if the lyrics page couldn't be opened
+			if(in == null)
+				return null;
+			
+			// Proceed to cleaning the site input
 			try {
-				// Index the site
-				Indexer indexer = new Indexer(in);
-				
-				// Clean up all the garbage (ads, unnecessary text, etc.)
-				indexer.removeEmptyTags();
-				indexer.removeType("style");
-				indexer.removeType("img");
-				indexer.removeType("form");
-				indexer.removeType("input");
-				indexer.removeTagAndChildren("img", "class", "InlineImg");
-				indexer.removeTagAndChildren("a", "href", "http://www.azlyrics.com/");
-				indexer.removeTagAndChildren("a", "href", "http://www.azlyrics.com/add.php");
-				indexer.removeTagAndChildren("a", "href", "http://www.stlyrics.com/");
-				indexer.removeTagAndChildren("a", "href", "http://www.azvideos.com/");
-				indexer.removeTagAndChildren("div", "id", "SkyCraper");
-				indexer.removeTagAndChildren("div", "id", "HeaderWhite");
-				indexer.removeTagAndChildren("td", "class", "SearchForm");
-//				indexer.removeTagAndChildren("div", "class", "spl_unshd");
-//				indexer.removeTagAndChildren("span", "class", "pronset");
-//				indexer.removeTextTag(" ");
-//				indexer.removeTagAndChildren("div", "class", "Lsentnce");
-//				indexer.removeTagAndChildren("div", "id", "imgres");
-//				indexer.removeTagAndChildren("div", "id", "link_to_div");
-//				indexer.removeTagAndChildren("a", "id", "link_to_style");
-//				indexer.removeTagAndChildren("div", "id", "webres");
-//				indexer.removeTagAndChildren("div", "class", "sep_top");
-//				indexer.removeTagAndChildren("a", "rel", "nofollow");
-//				indexer.removeTagAndChildren("div", "class", "fC ccF");
-//				indexer.removeTypeOnly("a");
-//				indexer.removeTagAndChildren("div", "class", "sep_top shd_hdr");
-//				indexer.removeTagAndChildren("div", "class", "sr sw");
-//				indexer.removeTagAndChildren("div", "class", "bca saw");
-//				indexer.removeTagAndChildren("div", "id", "ltm");
-//				indexer.removeChildOf(1, "text", "td", "class", "td1");
-//				Tag child = new OneLinerTag();
-//				child.setType("hr");
-//				Tag parent = indexer.getTag("div", "class", "sep_top shd_hdr ").get(0).getParent();
-//				int children = parent.getChildren().size();
-//				for(int i = 1; i < (children * 2) + 1; i += 2) {
-//					indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
-//				}
-//				parent = indexer.getTag("div", "class", "sep_top shd_hdr pb7").get(0).getParent();
-//				children = parent.getChildren().size();
-//				for(int i = 1; i < (children * 2) + 1; i += 2) {
-//					indexer.insertChildAtAndAbsorbChildrenOf(child, i, 0, parent);
-//				}
-				
-				// Finish creating the temp file in the temp directory
-				// Set the file to delete on exit of the virtual machine
+				// Index the site, nothing but the cleanup plan is applied so the compact
+				// document model is enough
+				CompactIndexer indexer;
 				try {
-					temp = File.createTempFile("temp", ".html", dir);
-					temp.deleteOnExit();
-				} catch (IOException e) {
-					e.printStackTrace();
+					indexer = new CompactIndexer(in, CLEANUP);
+				} finally {
+					// Close the input stream, which gives the host back to the fetcher
+					in.close();
 				}
 				
-				// Setup the output writer for the cleaned temp file
-				BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+				// Clean up all the garbage (ads, unnecessary text, etc.)
+				removeUnwanted(indexer);
 				
-				// Write the clean html to the temp file
-				indexer.linesToFile(out);
-
-				// Close both the in and out file streams
-				in.close();
-				out.close();
+				// Hand back the clean html
+				return indexer.toHtml();
 			} catch (IOException e) {
 				e.printStackTrace();
+				return null;
 			}
-			
-			// Return the absolute path of the temporary file with a file: type protocol
-			// Also remember to replace all '\' with "//", which is shown below
-			return "file:" + temp.getAbsolutePath().replace("\\", "//");
-			// apparently it's automatically adding in the first "/" after "file:" due to the getAbsolutePath().
-			// makes sense.
 		}
 
+	/**
+	 * Removes all unwanted code from a lyrics page
+	 * 
+	 * @param indexer - Contains the html source code from the web page
+	 */
+	void removeUnwanted(CompactIndexer indexer) {
+		indexer.cleanup(CLEANUP);
+	}
+
 	/**
 	 * 
 	 * @author Tony Massarini
@@ -252,12 +232,18 @@ public class Lyrics extends Source {
 		public void hyperlinkUpdate(HyperlinkEvent he) {
 			if (he.getEventType().equals(EventType.ACTIVATED))
 				try {
-					String tempURL = he.getURL().toString();
-					if (tempURL.contains("search.php")) { // next page
-						jep.setPage(executeQuery(tempURL));
-					} else { // lyrics page!
-						jep.setPage(executeQueryLyrics(tempURL));
-					}
+					final String tempURL = he.getURL().toString();
+					// Fetch, index and clean the page off of the event thread
+					Navigator.forPane(jep).navigate(tempURL, new Callable<CharSequence>() {
+						@Override
+						public CharSequence call() {
+							if (tempURL.contains("search.php")) { // next page
+								return executeQueryDocument(tempURL);
+							} else { // lyrics page!
+								return executeQueryLyricsDocument(tempURL);
+							}
+						}
+					});
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
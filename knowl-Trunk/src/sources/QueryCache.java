@@ -0,0 +1,665 @@
+package sources;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import util.QueryTimeline;
+
+/**
+ * Caches the cleaned results of source queries so that looking up the same term again
+ * skips both the download and the indexing of the results page.
+ *
+ * Results are kept in two tiers. The memory tier holds the cleaned html of the most
+ * recently used results, the disk tier holds one html file per result in the cache
+ * directory. Results handed out as documents are served straight from the memory tier
+ * and only reach the disk tier once they are evicted from memory. Entries in both tiers
+ * expire after a fixed time to live, and the least recently used entries are evicted once
+ * either tier goes over its size cap.
+ *
+ * Queries executed by the cache are timed with a {@link QueryTimeline}, unless the caller
+ * is timing the query already.
+ *
+ * The lock of the cache only guards the memory tier and the counters. Files of the disk
+ * tier are read, written and listed without holding it, so a slow disk doesn't hold up
+ * lookups the memory tier can answer.
+ */
+public class QueryCache {
+
+	/**
+	 * Default settings for a cache
+	 */
+	public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+	public static final int DEFAULT_MAX_MEMORY_ENTRIES = 32;
+	public static final long DEFAULT_MAX_MEMORY_CHARS = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_DISK_BYTES = 32 * 1024 * 1024;
+
+	/**
+	 * Ending of the files written before they are renamed into the disk tier
+	 */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * A cached result in the memory tier
+	 */
+	private static class Entry {
+		String html;
+		long created;
+
+		Entry(String html, long created) {
+			this.html = html;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * The directory housing the disk tier
+	 */
+	private File dir;
+
+	/**
+	 * How long a result stays valid, in milliseconds
+	 */
+	private long ttlMillis;
+
+	/**
+	 * Size caps of the memory tier (entries and total characters) and the disk tier (bytes)
+	 */
+	private int maxMemoryEntries;
+	private long maxMemoryChars;
+	private long maxDiskBytes;
+
+	/**
+	 * The memory tier, in least recently used order
+	 */
+	private LinkedHashMap<String, Entry> memory;
+
+	/**
+	 * Total number of characters held by the memory tier
+	 */
+	private long memoryChars;
+
+	/**
+	 * Queries being executed by queryDocument, by key
+	 */
+	private Map<String, FutureTask<CharSequence>> inFlight = new HashMap<String, FutureTask<CharSequence>>();
+
+	/**
+	 * Counters for cache hits, misses and evicted entries
+	 */
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a cache with the default settings
+	 *
+	 * @param dir - Directory to keep the disk tier in
+	 */
+	public QueryCache(File dir) {
+		this(dir, DEFAULT_TTL_MILLIS, DEFAULT_MAX_MEMORY_ENTRIES, DEFAULT_MAX_MEMORY_CHARS, DEFAULT_MAX_DISK_BYTES);
+	}
+
+	/**
+	 * Creates a cache with the given settings
+	 *
+	 * @param dir - Directory to keep the disk tier in
+	 * @param ttlMillis - How long a result stays valid, in milliseconds
+	 * @param maxMemoryEntries - Most results kept in memory
+	 * @param maxMemoryChars - Most characters of html kept in memory
+	 * @param maxDiskBytes - Most bytes kept in the cache directory
+	 */
+	public QueryCache(File dir, long ttlMillis, int maxMemoryEntries, long maxMemoryChars, long maxDiskBytes) {
+		this.dir = dir;
+		this.ttlMillis = ttlMillis;
+		this.maxMemoryEntries = maxMemoryEntries;
+		this.maxMemoryChars = maxMemoryChars;
+		this.maxDiskBytes = maxDiskBytes;
+		memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the result of the given query against the given source, from the cache if
+	 * possible and by executing the query otherwise.
+	 *
+	 * @param source - The source to query
+	 * @param queryString - The string to be queried
+	 * @return - The path to the file housing the cleaned search results, null if the source
+	 * had no results to give
+	 */
+	public String query(Source source, String queryString) {
+		String cached = get(source, queryString);
+		if(cached != null) {
+			QueryTimeline.mark("cache");
+			return cached;
+		}
+		QueryTimeline timeline = begin(source, queryString);
+		String result;
+		try {
+			result = source.executeQuery(queryString);
+		} finally {
+			if(timeline != null) {
+				timeline.end();
+			}
+		}
+		if(result == null) {
+			return null;
+		}
+		String stored = put(source, queryString, result);
+		return (stored == null) ? result : stored;
+	}
+
+	/**
+	 * Returns the result of the given query against the given source as an html document,
+	 * from the cache if possible and by executing the query otherwise. A query that is
+	 * already being executed by another thread, such as a prefetch, is waited on instead
+	 * of being executed a second time.
+	 *
+	 * @param source - The source to query
+	 * @param queryString - The string to be queried
+	 * @return - The cleaned search results, null if the source had no results to give
+	 */
+	public CharSequence queryDocument(final Source source, final String queryString) {
+		CharSequence cached = getDocument(source, queryString);
+		if(cached != null) {
+			QueryTimeline.mark("cache");
+			return cached;
+		}
+
+		String key = key(source, queryString);
+		FutureTask<CharSequence> task;
+		boolean owner = false;
+		synchronized(this) {
+			task = inFlight.get(key);
+			if(task == null) {
+				task = new FutureTask<CharSequence>(new Callable<CharSequence>() {
+					@Override
+					public CharSequence call() {
+						CharSequence result = source.executeQueryDocument(queryString);
+						if(Thread.currentThread().isInterrupted()) {
+							// Cancelled part way, whatever came back is incomplete
+							return null;
+						}
+						if(result != null) {
+							putDocument(source, queryString, result);
+						}
+						return result;
+					}
+				});
+				inFlight.put(key, task);
+				owner = true;
+			}
+		}
+
+		if(owner) {
+			QueryTimeline timeline = begin(source, queryString);
+			try {
+				task.run();
+			} finally {
+				synchronized(this) {
+					inFlight.remove(key);
+				}
+				if(timeline != null) {
+					timeline.end();
+				}
+			}
+		}
+		try {
+			CharSequence result = task.get();
+			if(!owner) {
+				QueryTimeline.mark("joined");
+			}
+			if(result == null && !owner) {
+				// The other thread may have been cancelled part way, try once more ourselves
+				return queryDocument(source, queryString);
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts timing a query about to be executed, unless the calling thread is timing
+	 * one already.
+	 *
+	 * @return - The new timeline for the caller to end, null if the thread was already
+	 * timing a query
+	 */
+	private static QueryTimeline begin(Source source, String queryString) {
+		if(QueryTimeline.current() != null) {
+			return null;
+		}
+		return QueryTimeline.begin(source.getName(), queryString);
+	}
+
+	/**
+	 * Looks up a cached result as an html document.
+	 *
+	 * @param source - The source that was queried
+	 * @param queryString - The string that was queried
+	 * @return - The cached results, null on a cache miss
+	 */
+	public CharSequence getDocument(Source source, String queryString) {
+		String key = key(source, queryString);
+		long now = System.currentTimeMillis();
+
+		synchronized(this) {
+			Entry entry = memoryEntry(key, now);
+			if(entry != null) {
+				hits++;
+				return entry.html;
+			}
+		}
+
+		File file = fileFor(key);
+		String html = null;
+		long modified = 0;
+		if(isValid(file, now)) {
+			modified = file.lastModified();
+			html = ResultFiles.read(file);
+		}
+		Map<String, Entry> spilled;
+		synchronized(this) {
+			if(html == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			Entry entry = memory.get(key);
+			if(entry != null) {
+				// Put in memory by another thread while the file was being read
+				return entry.html;
+			}
+			// Bring the result back into the memory tier
+			spilled = addToMemory(key, new Entry(html, modified));
+		}
+		if(spill(spilled)) {
+			trimDisk();
+		}
+		return html;
+	}
+
+	/**
+	 * Adds an html document holding the result of a query to the memory tier of the cache.
+	 *
+	 * @param source - The source that was queried
+	 * @param queryString - The string that was queried
+	 * @param html - The cleaned search results
+	 */
+	public void putDocument(Source source, String queryString, CharSequence html) {
+		String key = key(source, queryString);
+		// Any older copy on disk is out of date now
+		fileFor(key).delete();
+		Map<String, Entry> spilled;
+		synchronized(this) {
+			removeFromMemory(key);
+			spilled = addToMemory(key, new Entry(html.toString(), System.currentTimeMillis()));
+		}
+		if(spill(spilled)) {
+			trimDisk();
+		}
+	}
+
+	/**
+	 * Looks up a cached result.
+	 *
+	 * @param source - The source that was queried
+	 * @param queryString - The string that was queried
+	 * @return - The path to the file housing the cached results, null on a cache miss
+	 */
+	public String get(Source source, String queryString) {
+		String key = key(source, queryString);
+		long now = System.currentTimeMillis();
+		File file = fileFor(key);
+
+		Entry entry;
+		synchronized(this) {
+			entry = memoryEntry(key, now);
+		}
+		if(entry != null) {
+			// Make sure the disk tier still has the file the pane will be pointed at
+			boolean onDisk = isValid(file, now) || (ensureDir() && write(file, entry.html));
+			synchronized(this) {
+				if(onDisk) {
+					hits++;
+				} else {
+					misses++;
+				}
+			}
+			return onDisk ? ResultFiles.toPath(file) : null;
+		}
+		if(!isValid(file, now)) {
+			synchronized(this) {
+				misses++;
+			}
+			return null;
+		}
+		long modified = file.lastModified();
+		String html = ResultFiles.read(file);
+		Map<String, Entry> spilled = null;
+		synchronized(this) {
+			hits++;
+			if(html != null && !memory.containsKey(key)) {
+				// Bring the result back into the memory tier
+				spilled = addToMemory(key, new Entry(html, modified));
+			}
+		}
+		if(spill(spilled)) {
+			trimDisk();
+		}
+		return ResultFiles.toPath(file);
+	}
+
+	/**
+	 * Adds the result of a query to the cache. The results file written by the source is
+	 * moved into the cache directory, or copied if it belongs to the result store.
+	 *
+	 * @param source - The source that was queried
+	 * @param queryString - The string that was queried
+	 * @param resultPath - The path returned by the source's executeQuery
+	 * @return - The path to the cached copy of the results, null if they could not be cached
+	 */
+	public String put(Source source, String queryString, String resultPath) {
+		File result = ResultFiles.fromPath(resultPath);
+		if(result == null) {
+			return null;
+		}
+		String html = ResultFiles.read(result);
+		if(html == null) {
+			return null;
+		}
+
+		String key = key(source, queryString);
+		File file = fileFor(key);
+		file.delete();
+		ensureDir();
+		// Files of the result store may be handed out again, they are left to its janitor
+		if(ResultStore.getDefault().owns(result) || !result.renameTo(file)) {
+			if(!write(file, html)) {
+				return null;
+			}
+			if(!ResultStore.getDefault().owns(result)) {
+				result.delete();
+			}
+		}
+		file.setLastModified(System.currentTimeMillis());
+
+		Map<String, Entry> spilled;
+		synchronized(this) {
+			removeFromMemory(key);
+			spilled = addToMemory(key, new Entry(html, System.currentTimeMillis()));
+		}
+		spill(spilled);
+		trimDisk();
+		return ResultFiles.toPath(file);
+	}
+
+	/**
+	 * Empties both tiers of the cache. The counters are left alone.
+	 */
+	public void clear() {
+		synchronized(this) {
+			memory.clear();
+			memoryChars = 0;
+		}
+		File[] files = cacheFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return - Number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return - Number of lookups the cache could not answer
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return - Number of entries dropped from either tier to stay under the size caps
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return - Number of results currently held by the memory tier
+	 */
+	public synchronized int getMemoryEntries() {
+		return memory.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryCache[hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+				+ ", memoryEntries=" + memory.size() + ", memoryChars=" + memoryChars + "]";
+	}
+
+	/**
+	 * Builds the cache key for a query. Queries differing only in case or white space
+	 * share a key.
+	 */
+	private static String key(Source source, String queryString) {
+		return source.getName() + "|" + queryString.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/**
+	 * Finds the file of the disk tier for a key. The name is made from a digest of the key
+	 * so that different queries never end up sharing a file.
+	 */
+	private File fileFor(String key) {
+		String name = key.substring(0, key.indexOf('|'));
+		StringBuilder digest = new StringBuilder(name).append('-');
+		try {
+			byte[] hash = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+			for(byte b : hash) {
+				digest.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			digest.append(Integer.toHexString(key.hashCode()));
+		} catch (UnsupportedEncodingException e) {
+			digest.append(Integer.toHexString(key.hashCode()));
+		}
+		return new File(dir, digest.append(".html").toString());
+	}
+
+	/**
+	 * Looks up the entry of the memory tier for a key, dropping it if it has expired.
+	 * Must be called holding the lock of the cache.
+	 * @return - The entry, null if there is none
+	 */
+	private Entry memoryEntry(String key, long now) {
+		Entry entry = memory.get(key);
+		if(entry != null && now - entry.created > ttlMillis) {
+			removeFromMemory(key);
+			entry = null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Checks a file of the disk tier, deleting it if it has expired
+	 * @return - Whether the file is there and still valid
+	 */
+	private boolean isValid(File file, long now) {
+		if(!file.exists()) {
+			return false;
+		}
+		if(now - file.lastModified() > ttlMillis) {
+			file.delete();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds an entry to the memory tier and evicts the least recently used entries until
+	 * it is back under its size caps. Must be called holding the lock of the cache.
+	 * @return - The evicted entries that are still valid, to be written to the disk tier
+	 * by {@link #spill(Map)} once the lock is released, null if there are none
+	 */
+	private Map<String, Entry> addToMemory(String key, Entry entry) {
+		memory.put(key, entry);
+		memoryChars += entry.html.length();
+		long now = System.currentTimeMillis();
+		Map<String, Entry> spilled = null;
+		Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+		while((memory.size() > maxMemoryEntries || memoryChars > maxMemoryChars) && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			Entry evicted = eldest.getValue();
+			memoryChars -= evicted.html.length();
+			it.remove();
+			evictions++;
+			// Keep results that are still valid in the disk tier
+			if(now - evicted.created <= ttlMillis) {
+				if(spilled == null) {
+					spilled = new LinkedHashMap<String, Entry>();
+				}
+				spilled.put(eldest.getKey(), evicted);
+			}
+		}
+		return spilled;
+	}
+
+	/**
+	 * Writes the entries evicted from the memory tier to the disk tier
+	 * @return - Whether any file was written
+	 */
+	private boolean spill(Map<String, Entry> spilled) {
+		if(spilled == null) {
+			return false;
+		}
+		ensureDir();
+		boolean written = false;
+		for(Map.Entry<String, Entry> evicted : spilled.entrySet()) {
+			File file = fileFor(evicted.getKey());
+			if(!file.exists() && write(file, evicted.getValue().html)) {
+				file.setLastModified(evicted.getValue().created);
+				written = true;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Creates the cache directory, the first time a file is written to it
+	 * @return - Whether the directory is there
+	 */
+	private boolean ensureDir() {
+		return dir.isDirectory() || dir.mkdirs();
+	}
+
+	private void removeFromMemory(String key) {
+		Entry entry = memory.remove(key);
+		if(entry != null) {
+			memoryChars -= entry.html.length();
+		}
+	}
+
+	/**
+	 * Deletes the oldest files of the disk tier until it is back under its size cap
+	 */
+	private void trimDisk() {
+		File[] files = cacheFiles();
+		if(files == null) {
+			return;
+		}
+		long total = 0;
+		for(File file : files) {
+			total += file.length();
+		}
+		if(total <= maxDiskBytes) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+			}
+		});
+		int deleted = 0;
+		for(int i = 0; i < files.length && total > maxDiskBytes; i++) {
+			long length = files[i].length();
+			if(files[i].delete()) {
+				total -= length;
+				deleted++;
+			}
+		}
+		synchronized(this) {
+			evictions += deleted;
+		}
+	}
+
+	/**
+	 * @return - The files of the disk tier, leaving out the temporary files still being
+	 * written by {@link #write(File, String)}, null if the directory can't be listed
+	 */
+	private File[] cacheFiles() {
+		return dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return !file.getName().endsWith(TEMP_SUFFIX);
+			}
+		});
+	}
+
+	/**
+	 * Writes a file of the disk tier. The html goes to a temporary file first, which is
+	 * then renamed into place, so a lookup reading the file meanwhile never sees half of it.
+	 */
+	private static boolean write(File file, String html) {
+		File temp = null;
+		try {
+			temp = File.createTempFile(file.getName(), TEMP_SUFFIX, file.getParentFile());
+			BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+			try {
+				out.write(html);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if(temp != null) {
+				temp.delete();
+			}
+			return false;
+		}
+		// Renaming onto an existing file fails on some platforms
+		if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			temp.delete();
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,65 @@
+package sources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Turns the file: paths the sources return into files and back, and reads the results
+ * those files hold. Shared by {@link Source} and {@link QueryCache}.
+ */
+final class ResultFiles {
+
+	private ResultFiles() {
+	}
+
+	/**
+	 * Turns a file into the same kind of path the sources return
+	 */
+	static String toPath(File file) {
+		// Also remember to replace all '\' with "//"
+		return "file:/" + file.getAbsolutePath().replace("\\", "//");
+	}
+
+	/**
+	 * Turns a path returned by a source back into a file
+	 * @return - The file, null if the path does not point at an existing file
+	 */
+	static File fromPath(String path) {
+		if(path == null || !path.startsWith("file:")) {
+			return null;
+		}
+		String name = path.substring("file:".length());
+		File file = new File(name);
+		if(!file.exists()) {
+			// Windows paths come through as /C://...
+			file = new File(name.replaceFirst("^/+", ""));
+		}
+		return file.exists() ? file : null;
+	}
+
+	/**
+	 * Reads a file of results
+	 * @return - The html in the file, null if it could not be read
+	 */
+	static String read(File file) {
+		StringBuilder html = new StringBuilder();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				char[] buf = new char[4096];
+				int read;
+				while((read = in.read(buf)) != -1) {
+					html.append(buf, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return html.toString();
+	}
+}
@@ -0,0 +1,320 @@
+package sources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import util.QueryTimeline;
+
+/**
+ * Keeps the result files the sources hand out as paths, see
+ * {@link Source#writeTempFile(CharSequence)}.
+ *
+ * Files are named after a digest of their contents, so a page that comes out the same
+ * every time it is cleaned is only stored once and storing it again just marks it as
+ * used. The store is kept under a size cap and an age cap by a janitor thread, which
+ * deletes files that haven't been used for longer than the age cap and then the least
+ * recently used files until the store is back under the size cap. A store that goes over
+ * its size cap is swept right away. Files left behind by an earlier run are swept the
+ * same way, so nothing has to be deleted on exit.
+ *
+ * A result file stays put for at least as long as the age cap or until the size cap is
+ * reached, which is plenty for a pane to load it. Anyone wanting to keep a result longer
+ * should copy it, as {@link QueryCache} does.
+ */
+public class ResultStore {
+
+	/**
+	 * Default settings for a store
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE_MILLIS = 30 * 60 * 1000;
+	public static final long DEFAULT_SWEEP_MILLIS = 60 * 1000;
+
+	/**
+	 * Start of the name of every file written by a store, complete files end in .html and
+	 * files still being written in .part
+	 */
+	private static final String PREFIX = "result-";
+
+	private static ResultStore defaultStore;
+
+	/**
+	 * The directory housing the result files
+	 */
+	private File dir;
+
+	/**
+	 * The caps of the store
+	 */
+	private long maxBytes;
+	private long maxAgeMillis;
+
+	/**
+	 * Bytes written since the last sweep, on top of what the sweep left
+	 */
+	private long bytes;
+
+	/**
+	 * Set while a sweep is waiting to run, so a burst of stores only asks for one
+	 */
+	private boolean sweepPending;
+
+	private Charset charset = Charset.defaultCharset();
+
+	private ScheduledExecutorService janitor;
+
+	/**
+	 * Counters for files written, stores answered by an existing file and files swept
+	 */
+	private long written;
+	private long reused;
+	private long swept;
+
+	/**
+	 * Creates a store with the given settings and starts its janitor
+	 *
+	 * @param dir - Directory to keep the result files in
+	 * @param maxBytes - Most bytes kept in the directory
+	 * @param maxAgeMillis - How long an unused file is kept, in milliseconds
+	 * @param sweepMillis - How often the janitor sweeps the directory, in milliseconds
+	 */
+	public ResultStore(File dir, long maxBytes, long maxAgeMillis, long sweepMillis) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		if(!dir.exists()) {
+			dir.mkdirs();
+		}
+		janitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "knowl-result-janitor");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		// The first sweep clears out whatever an earlier run left behind
+		janitor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, 0, sweepMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return - The store the sources write their results to, kept in bin//temp//
+	 */
+	public static synchronized ResultStore getDefault() {
+		if(defaultStore == null) {
+			defaultStore = new ResultStore(new File("bin//temp//"), DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MILLIS, DEFAULT_SWEEP_MILLIS);
+		}
+		return defaultStore;
+	}
+
+	/**
+	 * Stores an html document, unless a document with the same contents is stored already.
+	 *
+	 * @param html - The document to store
+	 * @return - The file housing the document, null if it could not be written
+	 */
+	public File store(CharSequence html) {
+		ByteBuffer encoded;
+		try {
+			encoded = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE)
+					.encode(CharBuffer.wrap(html));
+		} catch (CharacterCodingException e) {
+			e.printStackTrace();
+			return null;
+		}
+		File file = new File(dir, PREFIX + digest(encoded) + ".html");
+
+		synchronized(this) {
+			if(file.length() == encoded.remaining() && file.setLastModified(System.currentTimeMillis())) {
+				reused++;
+				QueryTimeline.mark("store");
+				return file;
+			}
+		}
+
+		// Written under a name of its own and then renamed, so no one ever sees half a file
+		File part;
+		try {
+			part = File.createTempFile(PREFIX, ".part", dir);
+			FileChannel channel = new FileOutputStream(part).getChannel();
+			try {
+				while(encoded.hasRemaining()) {
+					channel.write(encoded);
+				}
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		boolean sweepNow;
+		synchronized(this) {
+			if(file.length() == part.length() && file.setLastModified(System.currentTimeMillis())) {
+				// Another thread stored the same document in the meantime
+				part.delete();
+				reused++;
+				QueryTimeline.mark("store");
+				return file;
+			}
+			file.delete();
+			if(!part.renameTo(file)) {
+				part.delete();
+				return null;
+			}
+			written++;
+			bytes += file.length();
+			sweepNow = bytes > maxBytes && !sweepPending;
+			if(sweepNow) {
+				sweepPending = true;
+			}
+		}
+		if(sweepNow) {
+			janitor.execute(new Runnable() {
+				@Override
+				public void run() {
+					sweep();
+				}
+			});
+		}
+		QueryTimeline.mark("store");
+		return file;
+	}
+
+	/**
+	 * @param file - Any file
+	 * @return - True if the file was written by this store, and so is left to its janitor
+	 */
+	public boolean owns(File file) {
+		File parent = file.getAbsoluteFile().getParentFile();
+		return parent != null && parent.equals(dir.getAbsoluteFile()) && file.getName().startsWith(PREFIX);
+	}
+
+	/**
+	 * Deletes the files that haven't been used for longer than the age cap, and then the least
+	 * recently used files until the store is under its size cap. Files left in the directory by
+	 * older versions, named temp*.html, are swept along with the rest.
+	 */
+	public synchronized void sweep() {
+		sweepPending = false;
+		File[] files = dir.listFiles();
+		if(files == null) {
+			bytes = 0;
+			return;
+		}
+		long now = System.currentTimeMillis();
+		int count = 0;
+		long total = 0;
+		for(File file : files) {
+			String name = file.getName();
+			if(!file.isFile() || !(name.startsWith(PREFIX) || (name.startsWith("temp") && name.endsWith(".html")))) {
+				continue;
+			}
+			if(now - file.lastModified() > maxAgeMillis) {
+				if(file.delete()) {
+					swept++;
+				}
+				continue;
+			}
+			files[count++] = file;
+			total += file.length();
+		}
+
+		if(total > maxBytes) {
+			files = Arrays.copyOf(files, count);
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					long diff = a.lastModified() - b.lastModified();
+					return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+				}
+			});
+			for(int i = 0; i < files.length && total > maxBytes; i++) {
+				if(files[i].getName().endsWith(".part")) {
+					// Still being written, the age cap takes care of any left by a crash
+					continue;
+				}
+				long length = files[i].length();
+				if(files[i].delete()) {
+					total -= length;
+					swept++;
+				}
+			}
+		}
+		bytes = total;
+	}
+
+	/**
+	 * Stops the janitor. Files already in the store are left where they are.
+	 */
+	public void shutdown() {
+		janitor.shutdownNow();
+	}
+
+	/**
+	 * @return - Number of files written
+	 */
+	public synchronized long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return - Number of documents that were stored already and so weren't written again
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return - Number of files deleted by sweeps
+	 */
+	public synchronized long getSwept() {
+		return swept;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResultStore[written=" + written + ", reused=" + reused + ", swept=" + swept + ", bytes=" + bytes + "]";
+	}
+
+	/**
+	 * @return - The hex digest of the bytes left in the buffer, which are left unread
+	 */
+	private static String digest(ByteBuffer encoded) {
+		StringBuilder digest = new StringBuilder();
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			md5.update(encoded.duplicate());
+			for(byte b : md5.digest()) {
+				digest.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			digest.append(Integer.toHexString(encoded.hashCode()));
+		}
+		return digest.toString();
+	}
+}
@@ -1,5 +1,7 @@
 package sources;
+import java.io.File;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.swing.JEditorPane;
 
@@ -58,10 +60,64 @@ public abstract class Source {
 	 * @return - The path to the temporary file housing the cleaned search results
 	 */
 	public abstract String executeQuery(String queryString);
-	
+
+	/**
+	 * Query method returning the cleaned search results as an html document held in
+	 * memory, so it can be handed straight to a JEditorPane without going through a
+	 * temporary file.
+	 *
+	 * The default implementation reads back the file executeQuery points at, and leaves
+	 * the file to whoever wrote it.
+	 * Sources should override this method and have executeQuery write its result with
+	 * {@link #writeTempFile(CharSequence)} instead.
+	 *
+	 * @param queryString - The string to be queried by this source
+	 *
+	 * @return - The cleaned search results, null if there are none
+	 */
+	public CharSequence executeQueryDocument(String queryString) {
+		File file = ResultFiles.fromPath(executeQuery(queryString));
+		return (file == null) ? null : ResultFiles.read(file);
+	}
+
+	/**
+	 * Writes an html document to a file of the result store in the temp directory. The
+	 * same document written twice shares a file, and the file is deleted by the store's
+	 * janitor once it has gone unused for a while, see {@link ResultStore}.
+	 *
+	 * @param html - The document to write
+	 *
+	 * @return - The path to the file with a file: type protocol, null if the document is
+	 * null or could not be written
+	 */
+	protected String writeTempFile(CharSequence html) {
+		if(html == null) {
+			return null;
+		}
+		File file = ResultStore.getDefault().store(html);
+		if(file == null) {
+			return null;
+		}
+		return ResultFiles.toPath(file);
+	}
+
+	/**
+	 * Pattern finding the links to the pages that follow a cleaned page of results, with
+	 * the link in its first group. Sources whose results span several pages override this
+	 * so the following pages can be fetched along with the first one, see util.Paginator.
+	 * The links are handed back to executeQueryDocument as the query string, resolved
+	 * against the file:/ base like the link listeners see them.
+	 *
+	 * @return - The pattern, null if the results of this source are on a single page
+	 */
+	public Pattern getNextPagePattern() {
+		return null;
+	}
+
 	/**
-	 * TODO
-	 * @param jep A JEditorPane TODO
+	 * Hands the source the pane its results are shown in. It is called before every search,
+	 * so anything hooked into the pane should only be added the first time.
+	 * @param jep - The pane the results are shown in
 	 */
 	public abstract void setJEditorPane(JEditorPane jep);
 }
@@ -2,69 +2,116 @@ package sources;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 /**
  * Manages the sources supported within this product
  * 
+ * Sources are registered through SourceProviders and only created when first asked for.
+ * The built in sources are registered here; any others are found through
+ * java.util.ServiceLoader, see {@link SourceProvider}.
+ * 
  * @author Jesse Olds
  */
 public class SourceManager {
 	
 	/**
-	 * The sources managed by this source manager
+	 * The providers of the sources managed by this source manager
+	 */
+	private ArrayList<SourceProvider> providers;
+	
+	/**
+	 * The cache sitting in front of the queries of all managed sources
 	 */
-	private ArrayList<Source> sources;
+	private QueryCache cache;
 	
 	/**
-	 * Default constructor which initializes the internal list of sources
-	 * as well as actually assigning all supported sources to this list
+	 * Default constructor which registers all supported sources, without
+	 * creating any of them yet
 	 */
 	public SourceManager() {
-		sources = new ArrayList<Source>();
-		File dir = new File("bin//sources");
-		if(dir.list() != null) {
-			for(String filename : dir.list()) 
-			{
-				createSource(filename);
+		providers = new ArrayList<SourceProvider>();
+		cache = new QueryCache(new File("bin//temp//cache"));
+		
+		providers.add(new SourceProvider(Source.DICTIONARY, "sources.Dictionary"));
+		//providers.add(new SourceProvider(Source.EHOW, "sources.EHow"));
+		//providers.add(new SourceProvider(Source.HOWSTUFFWORKS, "sources.HowStuffWorks"));
+		providers.add(new SourceProvider(Source.LYRICS, "sources.Lyrics"));
+		providers.add(new SourceProvider(Source.THESAURUS, "sources.Thesaurus"));
+		providers.add(new SourceProvider(Source.URBAN_DICTIONARY, "sources.UrbanDictionary"));
+		providers.add(new SourceProvider(Source.WIKIPEDIA, "sources.Wikipedia"));
+		
+		loadPlugins();
+	}
+	
+	/**
+	 * Adds the providers listed in META-INF/services/sources.SourceProvider files on the
+	 * classpath. A provider that can't be loaded is skipped.
+	 */
+	private void loadPlugins() {
+		Iterator<SourceProvider> plugins = ServiceLoader.load(SourceProvider.class).iterator();
+		while(true) {
+			try {
+				if(!plugins.hasNext()) {
+					break;
+				}
+				SourceProvider plugin = plugins.next();
+				if(getProvider(plugin.getName()) == null) {
+					providers.add(plugin);
+				}
+			} catch (ServiceConfigurationError e) {
+				e.printStackTrace();
 			}
 		}
-		
 	}
 	
 	/**
-	 * Returns the list of supported sources
+	 * Returns the providers of the supported sources, in the order the sources are shown
+	 * @return - The source providers of this product
+	 */
+	public List<SourceProvider> getProviders() {
+		return providers;
+	}
+	
+	/**
+	 * Returns the provider of the source with the given name
+	 * @param name - The name of the source
+	 * @return - The provider, null if there is no source with that name
+	 */
+	public SourceProvider getProvider(String name) {
+		for(SourceProvider provider : providers) {
+			if(provider.getName().equals(name)) {
+				return provider;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the list of supported sources. Every source that hasn't been created
+	 * yet is created, use {@link #getProviders()} to avoid that.
 	 * @return - The list of sources supported by this product
 	 */
 	public List<Source> getSources() {
+		List<Source> sources = new ArrayList<Source>();
+		for(SourceProvider provider : providers) {
+			Source source = provider.get();
+			if(source != null) {
+				sources.add(source);
+			}
+		}
 		return sources;
 	}
 	
 	/**
-	 * Executes a look-up of all accessible sources for this product
-	 * and creates object instances of each source to be added to the internal
-	 * source list
-	 * @param filename - The filename of the source to be created
+	 * Returns the cache to run queries against the managed sources through
+	 * @return - The query cache of this product
 	 */
-	private void createSource(String filename) {
-		if(filename.equals(Source.WIKIPEDIA + ".class"))
-		{
-			sources.add(new Wikipedia());
-		} else if(filename.equals(Source.URBAN_DICTIONARY + ".class"))
-		{
-			sources.add(new UrbanDictionary());
-		} else if(filename.equals(Source.DICTIONARY + ".class"))
-		{
-			sources.add(new Dictionary());
-		//} else if(filename.equals(Source.HOWSTUFFWORKS + ".class")) {
-			//sources.add(new HowStuffWorks());
-		//} else if(filename.equals(Source.EHOW + ".class")) {
-			//sources.add(new EHow());
-		} else if(filename.equals(Source.THESAURUS + ".class")) {
-			sources.add(new Thesaurus());
-		} else if(filename.equals(Source.LYRICS + ".class")) {
-			sources.add(new Lyrics());
-		}
+	public QueryCache getQueryCache() {
+		return cache;
 	}
 	
 //	/**
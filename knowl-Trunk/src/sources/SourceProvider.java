@@ -0,0 +1,104 @@
+package sources;
+
+/**
+ * Registers a source with the SourceManager without creating it. The source is only
+ * created, and its class only loaded, the first time it is asked for, so sources the
+ * user never enables cost nothing at startup.
+ *
+ * Sources outside this package are plugged in by subclassing this class with a public
+ * no argument constructor and listing the subclass in a
+ * META-INF/services/sources.SourceProvider file on the classpath, one class name per
+ * line (see java.util.ServiceLoader).
+ * 
+ * Ex.
+ * <pre>
+ * public class MySourceProvider extends SourceProvider {
+ *     public MySourceProvider() {
+ *         super("MySource", "com.example.MySource");
+ *     }
+ * }
+ * </pre>
+ */
+public class SourceProvider {
+
+	/**
+	 * The name of the source, as given by {@link Source#getName()}
+	 */
+	private String name;
+
+	/**
+	 * The fully qualified name of the class of the source
+	 */
+	private String className;
+
+	/**
+	 * The source, null until it is first asked for
+	 */
+	private Source source;
+
+	/**
+	 * True once creating the source has failed, so it isn't tried again
+	 */
+	private boolean failed;
+
+	/**
+	 * Creates a provider for the source of the given class. The class must extend Source
+	 * and have a public no argument constructor.
+	 * 
+	 * @param name - The name of the source
+	 * @param className - The fully qualified name of the class of the source
+	 */
+	public SourceProvider(String name, String className) {
+		this.name = name;
+		this.className = className;
+	}
+
+	/**
+	 * @return - The name of the source
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the source, creating it the first time. A source that could not be created
+	 * is not tried again.
+	 * 
+	 * @return - The source, null if it could not be created
+	 */
+	public synchronized Source get() {
+		if(source == null && !failed) {
+			source = create();
+			failed = (source == null);
+		}
+		return source;
+	}
+
+	/**
+	 * @return - True if the source has been created
+	 */
+	public synchronized boolean isCreated() {
+		return source != null;
+	}
+
+	/**
+	 * Creates the source. The default implementation loads the class given to the
+	 * constructor and calls its no argument constructor.
+	 * 
+	 * @return - A new instance of the source, null if it could not be created
+	 */
+	protected Source create() {
+		try {
+			return (Source) Class.forName(className).newInstance();
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (InstantiationException e) {
+			e.printStackTrace();
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		} catch (ClassCastException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+}
@@ -1,13 +1,9 @@
 package sources;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
 import java.net.URL;
-import java.util.List;
 
 import javax.swing.JEditorPane;
 import javax.swing.event.HyperlinkEvent;
@@ -15,8 +11,9 @@ import javax.swing.event.HyperlinkListener;
 import javax.swing.event.HyperlinkEvent.EventType;
 
 
+import util.Navigator;
+import util.indexer.CleanupPlan;
 import util.indexer.Indexer;
-import util.indexer.Tag;
 
 
 /** 
@@ -28,6 +25,27 @@ import util.indexer.Tag;
  */
 public class Thesaurus extends Source {
 
+	/**
+	 * Everything that gets cut out of a results page.
+	 */
+	private static final CleanupPlan CLEANUP = new CleanupPlan()
+			.removeType("style")
+			.removeTagAndChildren("span", "style", "display:none")
+			.removeTagAndChildren("div", "class", "dc dw")
+			.removeTagAndChildren("div", "id", "ltm")
+			.removeTagAndChildren("div", "class", "rh")
+			.removeTagAndChildren("div", "class", "ric")
+			.removeTagAndChildren("div", "id", "dict_hdr")
+			.removeTagAndChildren("div", "id", "top_search")
+			.removeTagAndChildren("div", "id", "link_to_module")
+			.removeTagAndChildren("div", "id", "leftRail")
+			.removeTagAndChildren("div", "id", "v2")
+			.removeTagAndChildren("form", "action", "http://ask.reference.com/web")
+			.removeTagAndChildren("div", "id", "rightRail")
+			.removeTagAndChildren("div", "class", "fC ccF")
+			.removeTagAndChildren("div", "id", "macnt")
+			.removeTagAndChildren("div", "class", "bca saw");
+
 	/**
 	 * The JEditorPane displaying this sources URL.
 	 */
@@ -43,46 +61,22 @@ public class Thesaurus extends Source {
 	
 	@Override
 	public String executeQuery(String queryString) {
-		// Create url and BurfferedReader
+		// Write the cleaned results to a temp file for panes loading from a file
+		return writeTempFile(executeQueryDocument(queryString));
+	}
+	
+	@Override
+	public CharSequence executeQueryDocument(String queryString) {
+		// Create url
 		URL thesaurus = null;
-		BufferedReader in;
-		// Begin creating the temp file and then proceed to cleaning the site input
-		File dir = new File("bin//temp//");
-		File temp = null;
-		BufferedWriter out = null;
-		
-		// Try to create the temporary file
-		try {
-			temp = File.createTempFile("temp", ".html", dir);
-			temp.deleteOnExit();
-			// Create the BufferedWriter for writing to the file
-			out = new BufferedWriter(new FileWriter(temp));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 		
 		try {
 			// Try to create URL with just queryString(if the actual url was sent
 			// in from the link listener).  If it was not an exception will be thrown
 			// and then the website will be queried for the search term
 			thesaurus = new URL(queryString);
-			// Get input from website
-			in = new BufferedReader(new InputStreamReader(thesaurus
-					.openStream()));
-			// Create indexer
-			Indexer indexer = new Indexer(in);
-			
-			// Removes unwanted code
-			indexer = removeUnwanted(indexer);
-			
-			// Write the html code to the temporary file
-			indexer.linesToFile(out);
-			
-			// Close the BufferedReader
-			in.close();
-			// Close the BufferedWriter
-			out.close();
-			
+			// Get input from website, clean it and hand back the html code
+			return fetch(thesaurus);
 		}
 		catch (IOException e) {
 			try {
@@ -94,32 +88,33 @@ public class Thesaurus extends Source {
 				url += queryString;
 				// Try to create the url
 				thesaurus = new URL(url);
-				// Try to open the connection with the url
-				in = new BufferedReader(new InputStreamReader(thesaurus
-						.openStream()));
-				// Create the indexer
-				Indexer indexer = new Indexer(in);
-				// Removes unwanted code
-				indexer = removeUnwanted(indexer);
-				
-				// Write to the file
-				indexer.linesToFile(out);
-				// Close the BufferedReader
-				in.close();
-				// Close the BufferedWrite
-				out.close();
+				// Try to open the connection with the url, clean the page and hand back the html code
+				return fetch(thesaurus);
 			}
 			catch (IOException e2) {
-				// print to file error message
-				try {
-					out.write("<html> <h3> Unable to find page </h3> </html>");
-				}
-				catch (IOException e3) {
-					
-				}
+				// No results, so nothing is cached in their place
+				e2.printStackTrace();
+				return null;
 			}
 		}
-		return "file:/" + temp.getAbsolutePath().replace("\\", "//");
+	}
+	
+	/**
+	 * Fetches a page and removes all unwanted code from it
+	 * @param url The page to fetch
+	 * @return The html code of the cleaned page
+	 * @throws IOException If the page could not be opened or read
+	 */
+	private CharSequence fetch(URL url) throws IOException {
+		BufferedReader in = Fetcher.getDefault().open(url);
+		Indexer indexer;
+		try {
+			indexer = new Indexer(in, CLEANUP);
+		} finally {
+			// Close the BufferedReader, which gives the host back to the fetcher
+			in.close();
+		}
+		return removeUnwanted(indexer).toHtml();
 	}
 	
 	/**
@@ -127,33 +122,24 @@ public class Thesaurus extends Source {
 	 * @param indexer Contains the html source code from the web page
 	 * @return An indexer without the unwanted code in it.
 	 */
-	private Indexer removeUnwanted(Indexer indexer) {
-		indexer.removeType("style");
-		indexer.removeTagAndChildren("span", "style", "display:none");
-		indexer.removeTagAndChildren("div", "class", "dc dw");
-		indexer.removeTagAndChildren("div", "id", "ltm");
-		indexer.removeTagAndChildren("div", "class", "rh");
-		indexer.removeTagAndChildren("div", "class", "ric");
-		indexer.removeTagAndChildren("div", "id", "dict_hdr");
-		indexer.removeTagAndChildren("div", "id", "top_search");
-		indexer.removeTagAndChildren("div", "id", "link_to_module");
-		indexer.removeTagAndChildren("div", "id", "leftRail");
-		indexer.removeTagAndChildren("div", "id", "v2");
-		indexer.removeTagAndChildren("form", "action", "http://ask.reference.com/web");
-		indexer.removeTagAndChildren("div", "id", "rightRail");
-		indexer.removeTagAndChildren("div", "class", "fC ccF");
-		List<Tag> helper = indexer.getTag("div", "class", "result_copyright");
-		indexer.removeChildOf(helper.size() - 2, "a", "div", "class", "result_copyright");
-		indexer.removeTagAndChildren("div", "id", "macnt");
-		indexer.removeTagAndChildren("div", "class", "bca saw");
+	Indexer removeUnwanted(Indexer indexer) {
+		indexer.cleanup(CLEANUP);
+		// The link dropped from each copyright notice sits at the number of notices minus
+		// two, so with fewer than two notices there is nothing to drop
+		int notices = indexer.getTag("div", "class", "result_copyright").size();
+		if(notices >= 2) {
+			indexer.removeChildOf(notices - 2, "a", "div", "class", "result_copyright");
+		}
 		return indexer;
 	}
 	
 	@Override
 	public void setJEditorPane(JEditorPane jep) {
-		// TODO Auto-generated method stub
-		this.jep = jep;
-		jep.addHyperlinkListener(new LinkListener());
+		if(this.jep != jep) {
+			// Called before every search, the pane only needs one listener
+			this.jep = jep;
+			jep.addHyperlinkListener(new LinkListener());
+		}
 	}
 	
 	/**
@@ -172,9 +158,15 @@ public class Thesaurus extends Source {
 		public void hyperlinkUpdate(HyperlinkEvent he) {
 			if (he.getEventType().equals(EventType.ACTIVATED))
 				try {
-					String url = he.getURL().toString();
+					final String url = he.getURL().toString();
 					if(url.contains("thesaurus")) {
-						jep.setPage(executeQuery(he.getURL().toString()));
+						// Fetch, index and clean the page off of the event thread
+						Navigator.forPane(jep).navigate(url, new Callable<CharSequence>() {
+							@Override
+							public CharSequence call() {
+								return executeQueryDocument(url);
+							}
+						});
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -1,13 +1,8 @@
 package sources;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.concurrent.Callable;
 
 import javax.swing.JEditorPane;
 import javax.swing.event.HyperlinkEvent;
@@ -16,8 +11,11 @@ import javax.swing.event.HyperlinkEvent.EventType;
 
 import annotations.Uncensored;
 
+import util.Navigator;
+import util.indexer.CleanupPlan;
 import util.indexer.Indexer;
 import util.indexer.OneLinerTag;
+import util.indexer.Selector;
 import util.indexer.Tag;
 
 /**
@@ -28,6 +26,34 @@ import util.indexer.Tag;
  */
 @Uncensored public class UrbanDictionary extends Source {
 
+	/**
+	 * Everything that gets cut out of a results page (ads, unnecessary text, etc.)
+	 */
+	private static final CleanupPlan CLEANUP = new CleanupPlan()
+			.removeTagAndChildren("div", "id", "header_background_left")
+			.removeTagAndChildren("div", "id", "form")
+			.removeTagAndChildren("div", "id", "topnav")
+			.removeTagOnly("div", "id", "header_background")
+			.removeTagOnly("div", "id", "header_width")
+			.removeTagOnly("div", "id", "header")
+			.removeTagOnly("a", "id", "logo_anchor")
+			.removeTagAndChildren("div", "id", "email_pane")
+			.removeTagAndChildren("div", "class", "zazzle_links")
+			.removeTagAndChildren("td", "id", "leftist")
+			.removeTagAndChildren("div", "class", "innernav")
+			.removeTagAndChildren("div", "class", "greenery")
+			.removeTagAndChildren("td", "class", "word")
+			.removeTagAndChildren("div", "id", "copyright")
+			.removeTagAndChildren("table", "class", "offsite")
+			.removeTagOnly("a", "class", "urbantip")
+			.removeTagAndChildren("td", "id", "image_set");
+
+	/**
+	 * The link wrapped around the number of each definition, its text is kept. The class
+	 * is matched whole, like getTag does, rather than as one class of a list.
+	 */
+	private static final Selector DEFINITION_NUMBER_LINKS = Selector.compile("td[class=index] > a:first-child");
+
 	/**
 	 * The JEditorPane displaying this sources URL.
 	 */
@@ -48,103 +74,84 @@ import util.indexer.Tag;
 	 */
 	@Override
 	public @Uncensored String executeQuery(String queryString) {
+		// Write the cleaned results to a temp file for panes loading from a file
+		@Uncensored String path = writeTempFile(executeQueryDocument(queryString));
+		return path;
+	}
 
-		// Try to append the queryString to the site url (find results page)
-		URL uDict = null;
-		try {
-			uDict = new URL("http://www.urbandictionary.com/define.php?term="
-					+ queryString.replace(" ", "+"));
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see sources.Source#executeQueryDocument(java.lang.String)
+	 */
+	@Override
+	public @Uncensored CharSequence executeQueryDocument(String queryString) {
 
 		// Try to open the connection with the results page
 		BufferedReader in = null;
-		if (uDict != null) {
-			try {
-				in = new BufferedReader(new InputStreamReader(uDict
-						.openStream()));
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+		try {
+			in = Fetcher.getDefault().open("http://www.urbandictionary.com/define.php?term="
+					+ queryString.replace(" ", "+"));
+		} catch (IOException e1) {
+			e1.printStackTrace();
 		}
 
-		// Begin creating the temp file and then proceed to cleaning the site
-		// input
-		File dir = new File("bin//temp//");
-		if (!dir.exists())
-			dir.mkdir();
-		File temp = null;
+		// Nothing to clean if the results page couldn't be opened
+		if (in == null)
+			return null;
+
+		// Proceed to cleaning the site input
 		try {
 			// Index the site
-			Indexer indexer = new Indexer(in);
-
-			// Clean up all the garbage (ads, unnecessary text, etc.)
-			indexer.removeEmptyTags();
-			indexer.removeTagAndChildren("div", "id", "header_background_left");
-			indexer.removeTagAndChildren("div", "id", "form");
-			indexer.removeTagAndChildren("div", "id", "topnav");
-			indexer.removeTagOnly("div", "id", "header_background");
-			indexer.removeTagOnly("div", "id", "header_width");
-			indexer.removeTagOnly("div", "id", "header");
-			indexer.removeTagOnly("a", "id", "logo_anchor");
-			indexer.removeTagAndChildren("div", "id", "email_pane");
-			indexer.removeTagAndChildren("div", "class", "zazzle_links");
-			indexer.removeTagAndChildren("td", "id", "leftist");
-			indexer.removeTagAndChildren("div", "class", "innernav");
-			indexer.removeTagAndChildren("div", "class", "greenery");
-			indexer.removeTagAndChildren("td", "class", "word");
-			indexer.removeChildOnlyOf(0, "a", "td", "class", "index");
-			indexer.removeTagAndChildren("div", "id", "copyright");
-			indexer.removeTagAndChildren("table", "class", "offsite");
-			// indexer.removeChildOnlyOfType("a", "class", "urbantip", "div",
-			// "class", "definition");
-			indexer.removeTagOnly("a", "class", "urbantip");
-			indexer.removeTagOnly("a", "href", "/add.php?word=" + queryString);
-			indexer.removeTagAndChildren("td", "id", "image_set");
-			
-			Tag child = new OneLinerTag();
-			child.setType("hr");
-			for (Tag p : indexer.getTag("td", "class", "index")) {
-				int children = p.getChildren().size();
-				for (int i = 1; i < (children * 2) + 1; i += 2) {
-					indexer.insertChildAtAndAbsorbChildrenOf(child, i + 1, 1,
-							p);
-				}
-			}
-
-			// Finish creating the temp file in the temp directory
-			// Set the file to delete on exit of the virtual machine
+			Indexer indexer;
 			try {
-				temp = File.createTempFile("temp", ".html", dir);
-				temp.deleteOnExit();
-			} catch (IOException e) {
-				e.printStackTrace();
+				indexer = new Indexer(in, CLEANUP);
+			} finally {
+				// Close the input stream, which gives the host back to the fetcher
+				in.close();
 			}
 
-			// Setup the output writer for the cleaned temp file
-			BufferedWriter out = new BufferedWriter(new FileWriter(temp));
-
-			// Write the clean html to the temp file
-			indexer.linesToFile(out);
+			// Clean up all the garbage (ads, unnecessary text, etc.)
+			removeUnwanted(indexer, queryString);
 
-			// Close both the in and out file streams
-			in.close();
-			out.close();
+			// Hand back the clean html
+			return indexer.toHtml();
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
+	}
 
-		// Return the absolute path of the temporary file with a file: type
-		// protocol
-		// Also remember to replace all '\' with "//", which is shown below
-		@Uncensored String path = "file:/" + temp.getAbsolutePath().replace("\\", "//");
-		return path;
+	/**
+	 * Removes all unwanted code from the results page and separates the definitions
+	 * 
+	 * @param indexer - Contains the html source code from the web page
+	 * @param queryString - The string that was queried
+	 */
+	void removeUnwanted(Indexer indexer, String queryString) {
+		indexer.cleanup(CLEANUP);
+		indexer.removeTagOnly(DEFINITION_NUMBER_LINKS);
+		// indexer.removeChildOnlyOfType("a", "class", "urbantip", "div",
+		// "class", "definition");
+		indexer.removeTagOnly("a", "href", "/add.php?word=" + queryString);
+		
+		Tag child = new OneLinerTag();
+		child.setType("hr");
+		for (Tag p : indexer.getTag("td", "class", "index")) {
+			int children = p.getChildren().size();
+			for (int i = 1; i < (children * 2) + 1; i += 2) {
+				indexer.insertChildAtAndAbsorbChildrenOf(child, i + 1, 1,
+						p);
+			}
+		}
 	}
 
 	public void setJEditorPane(JEditorPane jep) {
-		this.jep = jep;
-		jep.addHyperlinkListener(new LinkListener());
+		if(this.jep != jep) {
+			// Called before every search, the pane only needs one listener
+			this.jep = jep;
+			jep.addHyperlinkListener(new LinkListener());
+		}
 	}
 
 	/**
@@ -163,8 +170,14 @@ import util.indexer.Tag;
 		public void hyperlinkUpdate(HyperlinkEvent he) {
 			if (he.getEventType().equals(EventType.ACTIVATED))
 				try {
-					jep.setPage(executeQuery(he.getURL().toString().replace(
-							"file:/define.php?term=", "")));
+					final String term = he.getURL().toString().replace("file:/define.php?term=", "");
+					// Fetch, index and clean the page off of the event thread
+					Navigator.forPane(jep).navigate(term, new Callable<CharSequence>() {
+						@Override
+						public CharSequence call() {
+							return executeQueryDocument(term);
+						}
+					});
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -0,0 +1,78 @@
+package util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+
+/**
+ * Hands html documents held in memory to a JEditorPane, so search results don't
+ * have to be written to a temporary file and read back in by JEditorPane.setPage.
+ */
+public class DocumentLoader {
+
+	/**
+	 * Relative links in a loaded document are resolved against this base, which is
+	 * what the link listeners of the sources expect (Ex. /define.php?term=knowl comes
+	 * through as file:/define.php?term=knowl).
+	 */
+	public static final String BASE = "file:/";
+
+	/**
+	 * Parses the given html into a document ready to be handed to a JEditorPane. The
+	 * document isn't attached to any component yet, so this can be done off of the
+	 * event thread.
+	 *
+	 * @param html - The html to parse
+	 * @return - The parsed document
+	 */
+	public static HTMLDocument createDocument(CharSequence html) {
+		HTMLEditorKit kit = new HTMLEditorKit();
+		HTMLDocument doc = (HTMLDocument) kit.createDefaultDocument();
+		doc.putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+		try {
+			doc.setBase(new URL(BASE));
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+		try {
+			kit.read(new StringReader(html.toString()), doc, 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+		return doc;
+	}
+
+	/**
+	 * Shows an already parsed document in the given pane. Must be called on the
+	 * event thread.
+	 *
+	 * @param jep - The pane to show the document in
+	 * @param doc - The document to show
+	 */
+	public static void load(JEditorPane jep, HTMLDocument doc) {
+		jep.setEditable(false);
+		if (!(jep.getEditorKit() instanceof HTMLEditorKit))
+			jep.setContentType("text/html");
+		jep.setDocument(doc);
+	}
+
+	/**
+	 * Parses the given html and shows it in the given pane. Must be called on the
+	 * event thread.
+	 *
+	 * @param jep - The pane to show the html in
+	 * @param html - The html to show, nothing is done if it is null
+	 */
+	public static void load(JEditorPane jep, CharSequence html) {
+		if (html != null)
+			load(jep, createDocument(html));
+	}
+}
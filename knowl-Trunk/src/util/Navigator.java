@@ -0,0 +1,174 @@
+package util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.swing.JEditorPane;
+import javax.swing.SwingUtilities;
+import javax.swing.text.html.HTMLDocument;
+
+import sources.Fetcher;
+
+/**
+ * Loads the pages behind the links clicked in a pane without holding up the event
+ * thread. A page goes through fetch, index and clean (all done by the source handing
+ * over the page) and then render, where it is parsed into a document. Both run on a
+ * navigation thread, the event thread only swaps in the finished document.
+ *
+ * Clicking another link, or starting a search, before a page is in cancels it. The
+ * tab of the pane shows which stage the page is in while it loads.
+ */
+public class Navigator {
+
+	/**
+	 * Client property of the pane holding its navigator
+	 */
+	private static final String PROPERTY = "knowl.navigator";
+
+	/**
+	 * Threads loading pages for every pane
+	 */
+	private static final ExecutorService pool = Fetcher.newCachedThreadPool(
+			new gui.DaemonThreadFactory("knowl-navigate-"));
+
+	private JEditorPane jep;
+	private knowlTab tab;
+
+	/**
+	 * The page being loaded, null if there is none
+	 */
+	private Future<?> current;
+
+	/**
+	 * Counts navigations, so a page that comes in after the user has moved on is
+	 * thrown away
+	 */
+	private int navigation = 0;
+
+	/**
+	 * Creates the navigator of a tab, which shows the progress of a page in the tab
+	 *
+	 * @param tab - The tab to load pages into
+	 */
+	public Navigator(knowlTab tab) {
+		this(tab.getJep(), tab);
+	}
+
+	/**
+	 * Creates the navigator of a pane that isn't part of a tab
+	 *
+	 * @param jep - The pane to load pages into
+	 */
+	public Navigator(JEditorPane jep) {
+		this(jep, null);
+	}
+
+	private Navigator(JEditorPane jep, knowlTab tab) {
+		this.jep = jep;
+		this.tab = tab;
+		jep.putClientProperty(PROPERTY, this);
+	}
+
+	/**
+	 * Returns the navigator of the given pane, creating one if it has none
+	 *
+	 * @param jep - A pane showing the results of a source
+	 * @return - The navigator loading pages into the pane
+	 */
+	public static Navigator forPane(JEditorPane jep) {
+		Object navigator = jep.getClientProperty(PROPERTY);
+		if (navigator instanceof Navigator)
+			return (Navigator) navigator;
+		return new Navigator(jep);
+	}
+
+	/**
+	 * Starts loading a page into the pane, cancelling any page still loading. Must be
+	 * called on the event thread.
+	 *
+	 * @param description - What is being loaded, shown while it loads
+	 * @param page - Fetches, indexes and cleans the page, handing back its html or null
+	 * if the page could not be loaded. It runs off of the event thread and should give
+	 * up once its thread is interrupted.
+	 */
+	public void navigate(String description, final Callable<CharSequence> page) {
+		cancel();
+		final int started = navigation;
+		progress("Loading " + description);
+		current = pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				CharSequence html = null;
+				try {
+					html = page.call();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				if (Thread.currentThread().isInterrupted())
+					return;
+
+				HTMLDocument doc = null;
+				if (html != null) {
+					stage(started, "Rendering");
+					doc = DocumentLoader.createDocument(html);
+				}
+				if (Thread.currentThread().isInterrupted())
+					return;
+				show(started, doc);
+			}
+		});
+	}
+
+	/**
+	 * Cancels the page being loaded, if any. Must be called on the event thread.
+	 */
+	public void cancel() {
+		navigation++;
+		if (current != null) {
+			current.cancel(true);
+			current = null;
+		}
+		if (tab != null)
+			tab.hideProgress();
+	}
+
+	/**
+	 * Shows the stage a page is in, unless the user has moved on since it was started
+	 */
+	private void stage(final int started, final String stage) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (started == navigation)
+					progress(stage);
+			}
+		});
+	}
+
+	/**
+	 * Swaps in a loaded page, unless the user has moved on since it was started
+	 */
+	private void show(final int started, final HTMLDocument doc) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (started != navigation)
+					return;
+				current = null;
+				if (tab != null)
+					tab.hideProgress();
+				if (doc == null) {
+					jep.setContentType("text/html");
+					jep.setText("<html><h3>The page could not be loaded</h3></html>");
+				} else
+					DocumentLoader.load(jep, doc);
+			}
+		});
+	}
+
+	private void progress(String stage) {
+		if (tab != null)
+			tab.showProgress(stage);
+	}
+}
@@ -0,0 +1,163 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import sources.Fetcher;
+import sources.QueryCache;
+import sources.Source;
+
+/**
+ * Fetches the pages of results that follow a first page of results, for sources that
+ * declare a next page pattern (see {@link Source#getNextPagePattern()}). The following
+ * pages are fetched all at once instead of one click at a time, and merged in order
+ * below the first page.
+ *
+ * Pages go through the query cache, under the same query string the link listener of
+ * the source would use, so following a page link afterwards is answered from the cache.
+ */
+public class Paginator {
+
+	/**
+	 * Default number of pages fetched after the first one
+	 */
+	public static final int DEFAULT_PAGES = 4;
+
+	private static final Pattern BODY_START = Pattern.compile("<body[^>]*>", Pattern.CASE_INSENSITIVE);
+	private static final Pattern BODY_END = Pattern.compile("</body\\s*>", Pattern.CASE_INSENSITIVE);
+
+	private QueryCache cache;
+	private ExecutorService pool;
+	private int maxPages;
+
+	/**
+	 * @param cache - The cache pages are fetched through
+	 * @param maxPages - The most pages fetched after the first one, also the number of
+	 * threads fetching them
+	 */
+	public Paginator(QueryCache cache, int maxPages) {
+		this.cache = cache;
+		this.maxPages = maxPages;
+		pool = Fetcher.newFixedThreadPool(Math.max(1, maxPages),
+				new gui.DaemonThreadFactory("knowl-page-"));
+	}
+
+	/**
+	 * Fetches the pages linked to from the given first page of results and merges them
+	 * below it. Blocks until every page is in; interrupting the calling thread cancels
+	 * the fetches.
+	 *
+	 * @param source - The source the first page came from
+	 * @param firstPage - The cleaned first page of results
+	 * @return - The merged pages, the first page itself if it links to no further pages
+	 * or the fetches were interrupted
+	 */
+	public CharSequence fetchFollowing(final Source source, CharSequence firstPage) {
+		List<String> queries = nextPages(source, firstPage, maxPages);
+		if (queries.isEmpty())
+			return firstPage;
+
+		List<Future<CharSequence>> futures = new ArrayList<Future<CharSequence>>();
+		for (final String query : queries) {
+			futures.add(pool.submit(new Callable<CharSequence>() {
+				@Override
+				public CharSequence call() {
+					return cache.queryDocument(source, query);
+				}
+			}));
+		}
+
+		List<CharSequence> pages = new ArrayList<CharSequence>();
+		try {
+			for (Future<CharSequence> future : futures) {
+				try {
+					CharSequence page = future.get();
+					if (page != null)
+						pages.add(page);
+				} catch (ExecutionException e) {
+					// Leave the page out, the others can still be shown
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<CharSequence> future : futures)
+				future.cancel(true);
+			Thread.currentThread().interrupt();
+			return firstPage;
+		}
+		return merge(firstPage, pages);
+	}
+
+	/**
+	 * Finds the links to the pages following the given page, in the order they appear
+	 *
+	 * @param source - The source the page came from
+	 * @param page - A cleaned page of results
+	 * @param max - The most links to return
+	 * @return - The query strings to hand the source for each following page
+	 */
+	static List<String> nextPages(Source source, CharSequence page, int max) {
+		List<String> queries = new ArrayList<String>();
+		Pattern pattern = source.getNextPagePattern();
+		if (pattern == null || page == null)
+			return queries;
+		Set<String> seen = new LinkedHashSet<String>();
+		Matcher m = pattern.matcher(page);
+		while (m.find() && seen.size() < max) {
+			String link = m.group(1).replace("&amp;", "&");
+			// Relative links come through the panes resolved against the document base
+			if (!link.matches("^[a-zA-Z]+:.*"))
+				link = DocumentLoader.BASE + link.replaceFirst("^/+", "");
+			seen.add(link);
+		}
+		queries.addAll(seen);
+		return queries;
+	}
+
+	/**
+	 * Appends the bodies of the given pages to the body of the first page
+	 *
+	 * @param first - The page to merge the others into
+	 * @param pages - The pages to add, in order
+	 * @return - The merged page
+	 */
+	static CharSequence merge(CharSequence first, List<CharSequence> pages) {
+		if (pages.isEmpty())
+			return first;
+		StringBuilder merged = new StringBuilder(first.length() * (pages.size() + 1));
+		Matcher end = BODY_END.matcher(first);
+		int insertAt = first.length();
+		while (end.find())
+			insertAt = end.start();
+		merged.append(first, 0, insertAt);
+		for (CharSequence page : pages) {
+			merged.append("\n<hr>\n");
+			merged.append(body(page));
+		}
+		merged.append(first, insertAt, first.length());
+		return merged;
+	}
+
+	/**
+	 * @return - What is between the body tags of the page, the whole page if it has none
+	 */
+	private static CharSequence body(CharSequence page) {
+		int start = 0;
+		int end = page.length();
+		Matcher m = BODY_START.matcher(page);
+		if (m.find())
+			start = m.end();
+		m = BODY_END.matcher(page);
+		if (m.find(start))
+			end = m.start();
+		return page.subSequence(start, end);
+	}
+}
@@ -0,0 +1,149 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import sources.Fetcher;
+import sources.QueryCache;
+import sources.Source;
+import sources.SourceProvider;
+
+/**
+ * Runs speculative queries for the text being typed into the search field, so that
+ * its results are already cleaned and sitting in the query cache by the time the user
+ * searches. The queries run on their own low priority threads, and queries for text
+ * the user has typed past are cancelled.
+ *
+ * A search for text that is still being prefetched waits for the prefetch to finish
+ * instead of fetching the page a second time, see
+ * {@link QueryCache#queryDocument(Source, String)}.
+ */
+public class Prefetcher {
+
+	/**
+	 * Text shorter than this isn't worth guessing at
+	 */
+	public static final int MIN_LENGTH = 3;
+
+	private QueryCache cache;
+	private ExecutorService pool;
+
+	/**
+	 * The text the pending queries are for, null if there are none
+	 */
+	private String text;
+	private List<Future<?>> pending = new ArrayList<Future<?>>();
+
+	/**
+	 * Counters for prefetches started and cancelled
+	 */
+	private long started;
+	private long cancelled;
+
+	/**
+	 * @param cache - The cache to prefetch results into
+	 * @param threads - The most queries run at the same time
+	 */
+	public Prefetcher(QueryCache cache, int threads) {
+		this.cache = cache;
+		pool = Fetcher.newFixedThreadPool(threads,
+				new gui.DaemonThreadFactory("knowl-prefetch-", Thread.MIN_PRIORITY));
+	}
+
+	/**
+	 * Starts prefetching the results of the given text from the given sources. Queries
+	 * still running for any other text are cancelled.
+	 *
+	 * @param text - The text in the search field
+	 * @param sources - The providers of the sources the user has checked, each source is
+	 * created on the prefetch thread if it hasn't been yet
+	 */
+	public synchronized void prefetch(String text, List<SourceProvider> sources) {
+		if (text.trim().length() < MIN_LENGTH) {
+			cancel();
+			return;
+		}
+		if (text.equals(this.text))
+			return;
+		cancel();
+		this.text = text;
+		for (SourceProvider provider : sources) {
+			pending.add(pool.submit(new prefetchTask(provider, text)));
+			started++;
+		}
+	}
+
+	/**
+	 * Called when the user searches for the given text. Prefetches of that text are
+	 * left to finish so the search can pick them up, anything else is cancelled.
+	 *
+	 * @param text - The text being searched for
+	 */
+	public synchronized void commit(String text) {
+		if (text.equals(this.text)) {
+			pending.clear();
+			this.text = null;
+		} else
+			cancel();
+	}
+
+	/**
+	 * Cancels every prefetch that hasn't finished yet
+	 */
+	public synchronized void cancel() {
+		for (Future<?> future : pending) {
+			if (future.cancel(true))
+				cancelled++;
+		}
+		pending.clear();
+		text = null;
+	}
+
+	/**
+	 * @return - Number of prefetches started
+	 */
+	public synchronized long getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return - Number of prefetches cancelled before they finished
+	 */
+	public synchronized long getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Queries a single source into the cache
+	 */
+	private class prefetchTask implements Runnable {
+
+		private SourceProvider provider;
+		private String text;
+
+		public prefetchTask(SourceProvider provider, String text) {
+			this.provider = provider;
+			this.text = text;
+		}
+
+		@Override
+		public void run() {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			Source source = provider.get();
+			if (source == null)
+				return;
+			// Kept apart from the searches of the source, prefetches run at low priority
+			QueryTimeline timeline = QueryTimeline.begin(source.getName() + " prefetch", text);
+			try {
+				cache.queryDocument(source, text);
+			} catch (RuntimeException e) {
+				// A failed guess is of no interest, the search reports its own failures
+			} finally {
+				timeline.end();
+			}
+		}
+	}
+}
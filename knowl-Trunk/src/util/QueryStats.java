@@ -0,0 +1,299 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps rolling statistics of the queries timed by {@link QueryTimeline}, per source: a
+ * histogram of how long each stage took, of the total time, of every count and of the
+ * bytes allocated. Each histogram covers the most recent {@link #WINDOW} queries of its
+ * source, and the last {@link #RECENT} timelines are kept whole.
+ *
+ * Everything can be written out as JSON, to tune the cleanup rules of a site with data.
+ * Running knowl with -Dknowl.stats=stats.json writes the statistics to that file when
+ * knowl exits. The time knowl took to start up is in there too, as the startup stage of
+ * the source knowl.
+ */
+public class QueryStats {
+
+	/**
+	 * Number of most recent values each histogram covers
+	 */
+	public static final int WINDOW = 512;
+
+	/**
+	 * Number of most recent timelines kept whole
+	 */
+	public static final int RECENT = 32;
+
+	private static final QueryStats DEFAULT = new QueryStats();
+
+	static {
+		final String path = System.getProperty("knowl.stats");
+		if (path != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread("knowl-stats") {
+				@Override
+				public void run() {
+					try {
+						DEFAULT.dump(new File(path));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * A histogram over the most recent values added to it
+	 */
+	public static class Histogram {
+
+		private String unit;
+		private long[] values = new long[WINDOW];
+
+		/**
+		 * Number of values ever added, the newest is at (added - 1) % WINDOW
+		 */
+		private long added;
+
+		Histogram(String unit) {
+			this.unit = unit;
+		}
+
+		synchronized void add(long value) {
+			values[(int) (added++ % WINDOW)] = value;
+		}
+
+		/**
+		 * @return - Unit of the values (Ex. us, bytes)
+		 */
+		public String getUnit() {
+			return unit;
+		}
+
+		/**
+		 * @return - Number of values ever added
+		 */
+		public synchronized long getCount() {
+			return added;
+		}
+
+		/**
+		 * @return - The values in the window, smallest first
+		 */
+		public synchronized long[] getValues() {
+			long[] sorted = Arrays.copyOf(values, (int) Math.min(added, WINDOW));
+			Arrays.sort(sorted);
+			return sorted;
+		}
+
+		/**
+		 * @param fraction - Between 0 and 1 (Ex. 0.9 for the 90th percentile)
+		 * @return - The value at the given percentile of the window, 0 if it is empty
+		 */
+		public long getPercentile(double fraction) {
+			return percentile(getValues(), fraction);
+		}
+
+		private static long percentile(long[] sorted, double fraction) {
+			if (sorted.length == 0)
+				return 0;
+			int index = (int) Math.ceil(fraction * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+
+		void toJson(StringBuilder json) {
+			long[] sorted = getValues();
+			long sum = 0;
+			for (long value : sorted)
+				sum += value;
+			json.append("{\"unit\": \"").append(unit).append('"');
+			json.append(", \"count\": ").append(getCount());
+			json.append(", \"window\": ").append(sorted.length);
+			json.append(", \"mean\": ").append(sorted.length == 0 ? 0 : sum / sorted.length);
+			json.append(", \"p50\": ").append(percentile(sorted, 0.5));
+			json.append(", \"p90\": ").append(percentile(sorted, 0.9));
+			json.append(", \"p99\": ").append(percentile(sorted, 0.99));
+			json.append(", \"max\": ").append(sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+			// Power of two buckets, each counting the values up to its bound
+			json.append(", \"buckets\": {");
+			long bound = 1;
+			int i = 0;
+			boolean first = true;
+			while (i < sorted.length) {
+				int inBucket = 0;
+				while (i < sorted.length && sorted[i] <= bound) {
+					inBucket++;
+					i++;
+				}
+				if (inBucket > 0) {
+					json.append(first ? "" : ", ").append("\"<=").append(bound).append("\": ").append(inBucket);
+					first = false;
+				}
+				bound = (bound >= Long.MAX_VALUE / 2) ? Long.MAX_VALUE : bound * 2;
+			}
+			json.append("}}");
+		}
+	}
+
+	/**
+	 * Histograms by source and then by metric (Ex. stage connect, count bytes)
+	 */
+	private Map<String, Map<String, Histogram>> histograms = new LinkedHashMap<String, Map<String, Histogram>>();
+	private LinkedList<QueryTimeline> recent = new LinkedList<QueryTimeline>();
+
+	/**
+	 * @return - The statistics all ended timelines are added to
+	 */
+	public static QueryStats getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Adds an ended timeline to the statistics
+	 *
+	 * @param timeline - The timeline of a query
+	 */
+	public synchronized void add(QueryTimeline timeline) {
+		String source = timeline.getSource();
+		for (QueryTimeline.Stage stage : timeline.getStages())
+			histogram(source, "stage " + stage.name, "us").add(stage.nanos / 1000);
+		histogram(source, "total", "us").add(timeline.getTotalNanos() / 1000);
+		if (timeline.getAllocatedBytes() >= 0)
+			histogram(source, "allocated", "bytes").add(timeline.getAllocatedBytes());
+		for (Map.Entry<String, Long> count : timeline.getCounts().entrySet())
+			histogram(source, "count " + count.getKey(), "count").add(count.getValue());
+
+		recent.add(timeline);
+		if (recent.size() > RECENT)
+			recent.removeFirst();
+	}
+
+	/**
+	 * @param source - Name of a source
+	 * @param metric - "total", "allocated", "stage " or "count " followed by the name of
+	 * a stage or count
+	 * @return - The histogram of the metric for the source, null if it has none
+	 */
+	public synchronized Histogram getHistogram(String source, String metric) {
+		Map<String, Histogram> metrics = histograms.get(source);
+		return (metrics == null) ? null : metrics.get(metric);
+	}
+
+	/**
+	 * @return - The most recently ended timelines, oldest first
+	 */
+	public synchronized List<QueryTimeline> getRecent() {
+		return new ArrayList<QueryTimeline>(recent);
+	}
+
+	/**
+	 * Forgets everything added so far
+	 */
+	public synchronized void clear() {
+		histograms.clear();
+		recent.clear();
+	}
+
+	/**
+	 * @return - Every histogram and the recent timelines as a JSON object
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n\"sources\": {");
+		boolean firstSource = true;
+		for (Map.Entry<String, Map<String, Histogram>> source : histograms.entrySet()) {
+			json.append(firstSource ? "\n" : ",\n");
+			quote(json, source.getKey());
+			json.append(": {");
+			boolean firstMetric = true;
+			for (Map.Entry<String, Histogram> metric : source.getValue().entrySet()) {
+				json.append(firstMetric ? "\n  " : ",\n  ");
+				quote(json, metric.getKey());
+				json.append(": ");
+				metric.getValue().toJson(json);
+				firstMetric = false;
+			}
+			json.append("\n}");
+			firstSource = false;
+		}
+		json.append("\n},\n\"recent\": [");
+		boolean firstTimeline = true;
+		for (QueryTimeline timeline : recent) {
+			json.append(firstTimeline ? "\n" : ",\n");
+			timeline.toJson(json);
+			firstTimeline = false;
+		}
+		json.append("\n]\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the statistics to a file as JSON
+	 *
+	 * @param file - The file to write, replaced if it exists
+	 * @throws IOException - If the file could not be written
+	 */
+	public void dump(File file) throws IOException {
+		String json = toJson();
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write(json);
+		} finally {
+			out.close();
+		}
+	}
+
+	private Histogram histogram(String source, String metric, String unit) {
+		Map<String, Histogram> metrics = histograms.get(source);
+		if (metrics == null) {
+			metrics = new LinkedHashMap<String, Histogram>();
+			histograms.put(source, metrics);
+		}
+		Histogram histogram = metrics.get(metric);
+		if (histogram == null) {
+			histogram = new Histogram(unit);
+			metrics.put(metric, histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Appends a string as a quoted JSON string
+	 */
+	static void quote(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+
+	/**
+	 * @return - The given nanoseconds in milliseconds, to a thousandth
+	 */
+	static String millis(long nanos) {
+		if (nanos < 0)
+			return "-1";
+		return String.format("%d.%03d", nanos / 1000000, (nanos / 1000) % 1000);
+	}
+}
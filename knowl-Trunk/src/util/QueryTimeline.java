@@ -0,0 +1,284 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The timeline of a single query: when each stage of it was done, from connecting to
+ * the site through indexing, cleanup and serialization to parsing the results, along
+ * with counts such as the bytes downloaded, the tags indexed and how often each cleanup
+ * rule matched, and the bytes allocated by the thread running the query.
+ *
+ * A timeline belongs to the thread running the query. The fetcher, the indexers and the
+ * query cache mark the end of their stages with {@link #mark(String)} and
+ * {@link #count(String, long)}, which do nothing when the thread isn't timing a query, so
+ * none of them need to know whether anyone is listening. Each stage is timed from the end
+ * of the stage marked before it. Pages are indexed while they stream in, so the download
+ * stage takes in whatever indexing happens before the last byte arrives.
+ *
+ * Ended timelines are added to {@link QueryStats#getDefault()}.
+ */
+public class QueryTimeline {
+
+	/**
+	 * The timeline of the query each thread is running
+	 */
+	private static final ThreadLocal<QueryTimeline> current = new ThreadLocal<QueryTimeline>();
+
+	/**
+	 * Reads the number of bytes allocated by a thread, null if the virtual machine can't
+	 * tell
+	 */
+	private static Object threadBean;
+	private static Method allocatedBytes;
+
+	static {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			Object bean = ManagementFactory.getThreadMXBean();
+			if (beanClass.isInstance(bean)) {
+				allocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+				threadBean = bean;
+			}
+		} catch (Exception e) {
+			// Allocations just won't be reported
+		}
+	}
+
+	/**
+	 * A finished stage of a query
+	 */
+	public static class Stage {
+		public final String name;
+		public final long nanos;
+
+		Stage(String name, long nanos) {
+			this.name = name;
+			this.nanos = nanos;
+		}
+	}
+
+	private String source;
+	private String query;
+	private Thread thread;
+
+	/**
+	 * Wall clock time the query started at, in milliseconds
+	 */
+	private long started;
+
+	/**
+	 * System.nanoTime() at the start of the query and at the end of the last stage
+	 */
+	private long start;
+	private long last;
+
+	private List<Stage> stages = new ArrayList<Stage>();
+	private Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Bytes allocated by the thread before the query started, -1 if unknown
+	 */
+	private long allocatedBefore;
+
+	/**
+	 * Set once the query has ended
+	 */
+	private long totalNanos = -1;
+	private long allocated = -1;
+
+	private QueryTimeline(String source, String query) {
+		this.source = source;
+		this.query = query;
+		thread = Thread.currentThread();
+		started = System.currentTimeMillis();
+		allocatedBefore = allocatedBytes(thread);
+		start = System.nanoTime();
+		last = start;
+	}
+
+	/**
+	 * Starts timing a query on the current thread, replacing any timeline the thread
+	 * was keeping
+	 *
+	 * @param source - Name of the source being queried
+	 * @param query - The query string
+	 * @return - The new timeline, to be ended by the same thread
+	 */
+	public static QueryTimeline begin(String source, String query) {
+		QueryTimeline timeline = new QueryTimeline(source, query);
+		current.set(timeline);
+		return timeline;
+	}
+
+	/**
+	 * @return - The timeline of the query the current thread is running, null if it
+	 * isn't timing one
+	 */
+	public static QueryTimeline current() {
+		return current.get();
+	}
+
+	/**
+	 * Marks the end of a stage of the query the current thread is running, if any
+	 *
+	 * @param stage - Name of the stage (Ex. connect, index, serialize)
+	 */
+	public static void mark(String stage) {
+		QueryTimeline timeline = current.get();
+		if (timeline != null)
+			timeline.markStage(stage);
+	}
+
+	/**
+	 * Adds to a count of the query the current thread is running, if any
+	 *
+	 * @param name - Name of the count (Ex. bytes, nodes)
+	 * @param amount - Amount to add
+	 */
+	public static void count(String name, long amount) {
+		QueryTimeline timeline = current.get();
+		if (timeline != null)
+			timeline.addCount(name, amount);
+	}
+
+	/**
+	 * Marks the end of a stage of this query. Can be called from any thread, for work
+	 * done on behalf of the query elsewhere.
+	 *
+	 * @param stage - Name of the stage
+	 */
+	public synchronized void markStage(String stage) {
+		if (totalNanos >= 0)
+			return;
+		long now = System.nanoTime();
+		stages.add(new Stage(stage, now - last));
+		last = now;
+	}
+
+	/**
+	 * Adds to a count of this query. Can be called from any thread.
+	 *
+	 * @param name - Name of the count
+	 * @param amount - Amount to add
+	 */
+	public synchronized void addCount(String name, long amount) {
+		if (totalNanos >= 0)
+			return;
+		Long count = counts.get(name);
+		counts.put(name, (count == null) ? amount : count + amount);
+	}
+
+	/**
+	 * Ends this query and adds its timeline to the default statistics. Must be called by
+	 * the thread that began it. A query that was cancelled part way is left out of the
+	 * statistics, as its timeline would only be half of one.
+	 */
+	public void end() {
+		synchronized (this) {
+			if (totalNanos >= 0)
+				return;
+			totalNanos = System.nanoTime() - start;
+			long after = allocatedBytes(thread);
+			if (allocatedBefore >= 0 && after >= 0)
+				allocated = after - allocatedBefore;
+		}
+		if (current.get() == this)
+			current.remove();
+		if (!thread.isInterrupted())
+			QueryStats.getDefault().add(this);
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return - Wall clock time the query started at, in milliseconds
+	 */
+	public long getStarted() {
+		return started;
+	}
+
+	/**
+	 * @return - The stages done so far, in order
+	 */
+	public synchronized List<Stage> getStages() {
+		return Collections.unmodifiableList(new ArrayList<Stage>(stages));
+	}
+
+	/**
+	 * @return - The counts of this query, by name
+	 */
+	public synchronized Map<String, Long> getCounts() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(counts));
+	}
+
+	/**
+	 * @return - Time the query took from beginning to end, -1 if it hasn't ended
+	 */
+	public synchronized long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return - Bytes allocated by the thread running the query while it ran, -1 if it
+	 * hasn't ended or the virtual machine can't tell
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocated;
+	}
+
+	/**
+	 * Writes this timeline out as a JSON object
+	 *
+	 * @param json - The builder to append to
+	 */
+	public synchronized void toJson(StringBuilder json) {
+		json.append("{\"source\": ");
+		QueryStats.quote(json, source);
+		json.append(", \"query\": ");
+		QueryStats.quote(json, query);
+		json.append(", \"started\": ").append(started);
+		json.append(", \"totalMillis\": ").append(QueryStats.millis(totalNanos));
+		json.append(", \"allocatedBytes\": ").append(allocated);
+		json.append(", \"stages\": [");
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			json.append(i == 0 ? "" : ", ").append("{\"name\": ");
+			QueryStats.quote(json, stage.name);
+			json.append(", \"millis\": ").append(QueryStats.millis(stage.nanos)).append('}');
+		}
+		json.append("], \"counts\": {");
+		boolean first = true;
+		for (Map.Entry<String, Long> count : counts.entrySet()) {
+			json.append(first ? "" : ", ");
+			QueryStats.quote(json, count.getKey());
+			json.append(": ").append(count.getValue());
+			first = false;
+		}
+		json.append("}}");
+	}
+
+	/**
+	 * @return - Bytes allocated so far by the given thread, -1 if unknown
+	 */
+	private static long allocatedBytes(Thread thread) {
+		if (allocatedBytes == null)
+			return -1;
+		try {
+			return (Long) allocatedBytes.invoke(threadBean, thread.getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
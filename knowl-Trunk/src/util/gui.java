@@ -7,8 +7,16 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -17,11 +25,18 @@ import javax.swing.JEditorPane;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.html.HTMLDocument;
 
 import annotations.Censored;
 
+import sources.Fetcher;
 import sources.Source;
 import sources.SourceManager;
+import sources.SourceProvider;
 
 /**
  * 
@@ -30,9 +45,32 @@ import sources.SourceManager;
  */
 public class gui {
 
+	/**
+	 * The most sources that will be queried at the same time
+	 */
+	private static final int MAX_CONCURRENT_QUERIES = 4;
+
+	/**
+	 * How long a single source gets to answer before it is given up on
+	 */
+	private static final int QUERY_TIMEOUT_SECONDS = 20;
+
+	/**
+	 * How long typing has to pause before the text is prefetched, and the most
+	 * sources prefetched at the same time
+	 */
+	private static final int PREFETCH_DELAY_MILLIS = 400;
+	private static final int PREFETCH_THREADS = 2;
+
+	/**
+	 * Pages of results fetched along with the first one, for sources whose results
+	 * span several pages
+	 */
+	private static final int FOLLOWING_PAGES = Paginator.DEFAULT_PAGES;
+
 	private SourceManager guiSourceManager;
 	private int numberOfSources;
-	private ListIterator<Source> sourceIter;
+	private ListIterator<SourceProvider> sourceIter;
 	private JCheckBox checkBoxArray[];
 	private GUIFrame mainFrame;
 	private JPanel mainPanel;
@@ -42,6 +80,13 @@ public class gui {
 	private JButton searchButton;
 	private JTabbedPane tabsPane = new JTabbedPane();
 	private knowlTab[] tabArray;
+	private ExecutorService queryPool;
+	private ScheduledExecutorService timeoutTimer;
+	private List<Future<?>> pendingQueries = new ArrayList<Future<?>>();
+	private int searchNumber = 0;
+	private Prefetcher prefetcher;
+	private Timer prefetchTimer;
+	private Paginator paginator;
 
 	/**
 	 * Creates a new Gui
@@ -51,7 +96,7 @@ public class gui {
 		guiSourceManager = new SourceManager();
 
 		// gets the total number of available sources
-		numberOfSources = guiSourceManager.getSources().size();
+		numberOfSources = guiSourceManager.getProviders().size();
 
 		// set the proper size of the check box array
 		checkBoxArray = new JCheckBox[numberOfSources];
@@ -60,7 +105,28 @@ public class gui {
 		tabArray = new knowlTab[numberOfSources];
 
 		// iterator for the list of sources
-		sourceIter = guiSourceManager.getSources().listIterator();
+		sourceIter = guiSourceManager.getProviders().listIterator();
+
+		// threads for running the queries off of the event thread
+		queryPool = Fetcher.newFixedThreadPool(
+				Math.max(1, Math.min(numberOfSources, MAX_CONCURRENT_QUERIES)),
+				new DaemonThreadFactory("knowl-query-"));
+		timeoutTimer = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("knowl-query-timeout-"));
+
+		// speculative queries for the text being typed, started once typing pauses
+		prefetcher = new Prefetcher(guiSourceManager.getQueryCache(), PREFETCH_THREADS);
+		prefetchTimer = new Timer(PREFETCH_DELAY_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				prefetch();
+			}
+		});
+		prefetchTimer.setRepeats(false);
+
+		// following pages of paginated results, fetched on their own threads so
+		// they never wait behind the query pool they are started from
+		paginator = new Paginator(guiSourceManager.getQueryCache(), FOLLOWING_PAGES);
 
 		// initializes all the JComponents
 		mainPanel = new JPanel();
@@ -133,7 +199,9 @@ public class gui {
 	}
 
 	/**
-	 * Search method for the gui
+	 * Search method for the gui. Every checked source is queried on the query
+	 * pool, and each tab is filled in as soon as its own source answers. A search
+	 * still running when a new one is started is cancelled.
 	 */
 	private void search() {
 		String query = new String();
@@ -143,9 +211,16 @@ public class gui {
 			return;
 
 		else {
-			List<Source> searchSources;
-			searchSources = guiSourceManager.getSources();
-			ListIterator<Source> searchIter = searchSources.listIterator();
+			cancelSearch();
+			prefetchTimer.stop();
+			prefetcher.commit(query);
+			int search = ++searchNumber;
+
+			// only the checked sources are created, the first time they are searched,
+			// on the query pool so loading their classes doesn't hold up the event thread
+			List<SourceProvider> searchSources;
+			searchSources = guiSourceManager.getProviders();
+			ListIterator<SourceProvider> searchIter = searchSources.listIterator();
 
 			boolean firstFound = false;
 			for (int i = 0; i < numberOfSources; i++) {
@@ -154,13 +229,15 @@ public class gui {
 						tabsPane.setSelectedIndex(i);
 						firstFound = true;
 					}
-					Source cur = searchIter.next();
-					cur.setJEditorPane(tabArray[i].getJep());
-					String path = cur.executeQuery(query);
-
-					doLoadCommand(tabArray[i].getJep(), path);
-					tabArray[i].setVisible(true);
-					tabArray[i].getTab().validate();
+					SourceProvider cur = searchIter.next();
+					// a link still loading in the tab would replace the results
+					tabArray[i].getNavigator().cancel();
+
+					queryTask task = new queryTask(cur, query, tabArray[i], search);
+					final Future<?> running = queryPool.submit(task);
+					pendingQueries.add(running);
+					pendingQueries.add(timeoutTimer.schedule(new timeoutTask(
+							running, task), QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
 				} else
 					searchIter.next();
 			}
@@ -168,6 +245,43 @@ public class gui {
 
 	}
 
+	/**
+	 * Prefetches the text in the search field from every checked source. Called once
+	 * typing has paused for PREFETCH_DELAY_MILLIS.
+	 */
+	private void prefetch() {
+		List<SourceProvider> checked = new ArrayList<SourceProvider>();
+		List<SourceProvider> providers = guiSourceManager.getProviders();
+		for (int i = 0; i < numberOfSources; i++) {
+			if (tabArray[i].isChecked())
+				checked.add(providers.get(i));
+		}
+		prefetcher.prefetch(searchQueryString.getText(), checked);
+	}
+
+	/**
+	 * Cancels every query of the current search that hasn't finished yet. Results
+	 * of cancelled queries that still come in are thrown away.
+	 */
+	private void cancelSearch() {
+		for (Future<?> pending : pendingQueries)
+			pending.cancel(true);
+		pendingQueries.clear();
+		searchNumber++;
+	}
+
+	/**
+	 * Shows a short html message in the given tab in place of a result
+	 */
+	private static void showMessage(knowlTab tab, String message) {
+		JEditorPane jep = tab.getJep();
+		jep.setEditable(false);
+		jep.setContentType("text/html");
+		jep.setText("<html><h3>" + message + "</h3></html>");
+		tab.setVisible(true);
+		tab.getTab().validate();
+	}
+
 	public static void doLoadCommand(JEditorPane jep, @Censored String filename) {
 		jep.setEditable(false);
 		try {
@@ -197,6 +311,162 @@ public class gui {
 
 	}
 
+	/**
+	 * Runs a single source's query on the query pool and hands the result back to
+	 * the event thread, unless the search it belongs to has been replaced since.
+	 * The source is created here the first time it is searched.
+	 */
+	private class queryTask implements Runnable {
+
+		private SourceProvider provider;
+
+		/**
+		 * The source of the provider, null until the task has created it
+		 */
+		private Source source;
+		private String query;
+		private knowlTab tab;
+		private int search;
+
+		/**
+		 * Set once the first page of results has been handed to the event thread
+		 */
+		private volatile boolean shown;
+
+		public queryTask(SourceProvider provider, String query, knowlTab tab, int search) {
+			this.provider = provider;
+			this.query = query;
+			this.tab = tab;
+			this.search = search;
+		}
+
+		@Override
+		public void run() {
+			source = provider.get();
+			if (source == null) {
+				show(null, provider.getName() + " could not be loaded");
+				shown = true;
+				return;
+			}
+			HTMLDocument doc = null;
+			CharSequence html = null;
+			// Time the search on this thread, from the cache lookup to the parsed document.
+			// Swapping the document in happens later on the event thread and isn't timed
+			QueryTimeline timeline = QueryTimeline.begin(source.getName(), query);
+			try {
+				html = guiSourceManager.getQueryCache().queryDocument(source, query);
+				// Parse the results here so the event thread only has to swap documents
+				if (html != null && !Thread.currentThread().isInterrupted()) {
+					doc = DocumentLoader.createDocument(html);
+					QueryTimeline.mark("document");
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				timeline.end();
+			}
+			if (Thread.currentThread().isInterrupted())
+				return;
+			show(doc, source.getName() + " could not be reached");
+			shown = true;
+
+			// Show the first page right away, and the pages following it once
+			// they have all come in
+			if (doc == null || source.getNextPagePattern() == null)
+				return;
+			try {
+				CharSequence merged = paginator.fetchFollowing(source, html);
+				if (merged != html && !Thread.currentThread().isInterrupted())
+					show(DocumentLoader.createDocument(merged), null);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Hands a result to the event thread to be shown in the tab
+		 *
+		 * @param result - The document to show, null if there is none
+		 * @param failure - The message shown in place of a null result
+		 */
+		private void show(final HTMLDocument result, final String failure) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (search != searchNumber)
+						return;
+					if (result == null) {
+						showMessage(tab, failure);
+						return;
+					}
+					// The pane is handed over here, on the event thread, so the
+					// source can hook its link listener into it
+					source.setJEditorPane(tab.getJep());
+					DocumentLoader.load(tab.getJep(), result);
+					tab.setVisible(true);
+					tab.getTab().validate();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gives up on a query that is taking longer than QUERY_TIMEOUT_SECONDS. A query
+	 * still fetching the pages after its first one keeps what it has shown.
+	 */
+	private class timeoutTask implements Runnable {
+
+		private Future<?> running;
+		private queryTask query;
+
+		public timeoutTask(Future<?> running, queryTask query) {
+			this.running = running;
+			this.query = query;
+		}
+
+		@Override
+		public void run() {
+			// cancel only succeeds if the query hasn't finished on its own
+			if (!running.cancel(true) || query.shown)
+				return;
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (query.search == searchNumber)
+						showMessage(query.tab, query.provider.getName() + " took too long to answer");
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates the daemon threads used for querying, so they never keep the
+	 * application from exiting
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+
+		private String prefix;
+		private int priority;
+		private AtomicInteger count = new AtomicInteger();
+
+		public DaemonThreadFactory(String prefix) {
+			this(prefix, Thread.NORM_PRIORITY);
+		}
+
+		public DaemonThreadFactory(String prefix, int priority) {
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		}
+	}
+
 	private class searchAction implements ActionListener {
 
 		@Override
@@ -208,6 +478,24 @@ public class gui {
 	}
 
 	private void createKeyListeners() {
+		// every edit of the search field pushes the prefetch back
+		searchQueryString.getDocument().addDocumentListener(new DocumentListener() {
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				prefetchTimer.restart();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				prefetchTimer.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+
+		});
 		mainFrame.addKeyListener(new KeyListener() {
 
 			@Override
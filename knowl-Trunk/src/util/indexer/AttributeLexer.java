@@ -0,0 +1,112 @@
+package util.indexer;
+
+import java.util.List;
+
+/**
+ * Splits the inside of a tag (Ex. a href="/browse/knowl" class='result big') into its
+ * type and attributes for the line based indexing. Quoted values are read up to their
+ * closing quote, so spaces, equals signs and angle brackets inside them need no special
+ * treatment. Unquoted values run up to the next white space, and attributes without a
+ * value get an empty one.
+ */
+final class AttributeLexer {
+
+	private AttributeLexer() {
+	}
+
+	/**
+	 * Finds the end of a tag, skipping over any quoted attribute values
+	 * @param tag - Text starting inside a tag
+	 * @param from - Index to start looking from
+	 * @return - The index of the &gt; closing the tag, -1 if the tag isn't closed
+	 */
+	static int tagEnd(String tag, int from) {
+		char quote = 0;
+		boolean afterEquals = false;
+		for(int i = from; i < tag.length(); i++) {
+			char c = tag.charAt(i);
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '>') {
+				return i;
+			} else if(afterEquals && (c == '"' || c == '\'')) {
+				quote = c;
+			}
+			if(c == '=') {
+				afterEquals = true;
+			} else if(!Character.isWhitespace(c)) {
+				afterEquals = false;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param tag - The inside of a tag
+	 * @return - The index just past the type of the tag
+	 */
+	static int typeEnd(String tag) {
+		int i = skipSpace(tag, 0);
+		while(i < tag.length() && !Character.isWhitespace(tag.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Reads the attributes of a tag
+	 * @param tag - The inside of a tag
+	 * @param from - Index just past the type of the tag
+	 * @param attributes - The list to add the attributes to
+	 */
+	static void attributes(String tag, int from, List<Attribute> attributes) {
+		int length = tag.length();
+		int i = skipSpace(tag, from);
+		while(i < length) {
+			int nameStart = i;
+			while(i < length && tag.charAt(i) != '=' && !Character.isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			String name = tag.substring(nameStart, i);
+			i = skipSpace(tag, i);
+			if(i >= length || tag.charAt(i) != '=') {
+				// No value, the next attribute starts here
+				if(name.length() > 0 && !name.equals("/")) {
+					attributes.add(new Attribute(name, ""));
+				}
+				continue;
+			}
+			i = skipSpace(tag, i + 1);
+
+			String value;
+			if(i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+				int close = tag.indexOf(tag.charAt(i), i + 1);
+				if(close < 0) {
+					// Unclosed quote, the value runs to the end of the tag
+					close = length;
+				}
+				value = tag.substring(i + 1, close);
+				i = Math.min(close + 1, length);
+			} else {
+				int valueStart = i;
+				while(i < length && !Character.isWhitespace(tag.charAt(i))) {
+					i++;
+				}
+				value = tag.substring(valueStart, i);
+			}
+			if(name.length() > 0) {
+				attributes.add(new Attribute(name, value));
+			}
+			i = skipSpace(tag, i);
+		}
+	}
+
+	private static int skipSpace(String tag, int i) {
+		while(i < tag.length() && Character.isWhitespace(tag.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,242 @@
+package util.indexer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import util.QueryTimeline;
+
+/**
+ * A set of removal rules to be applied to an indexed document in one go. Each rule mirrors
+ * one of the removal methods of {@link Indexer}, but instead of every rule walking the whole
+ * document and sweeping the tag lists on its own, {@link Indexer#cleanup(CleanupPlan)} applies
+ * all of them during a single walk of the tag tree.
+ *
+ * A plan does not depend on any particular document, so a source can declare its plan once
+ * and reuse it for every query.
+ */
+public class CleanupPlan {
+
+	/**
+	 * A single removal rule.
+	 */
+	static class Rule {
+
+		/**
+		 * Lower-cased type of the tags this rule applies to.
+		 */
+		final String type;
+
+		/**
+		 * Attribute name/value a tag has to carry to match, null to match every tag of the type.
+		 */
+		final String attrName;
+		final String attrValue;
+
+		/**
+		 * Text body a text tag has to have to match, null for tags other than text.
+		 */
+		final String text;
+
+		/**
+		 * True if the children of a matching tag are connected to its parent, false if they
+		 * are removed along with it.
+		 */
+		final boolean keepChildren;
+
+		/**
+		 * The rule as it was declared (Ex. removeTagAndChildren(div, id, leftRail)), counted
+		 * in the timeline of a query every time the rule matches.
+		 */
+		final String label;
+
+		Rule(String type, String attrName, String attrValue, String text, boolean keepChildren) {
+			this.type = type.toLowerCase();
+			this.attrName = (attrName == null) ? null : attrName.toLowerCase();
+			this.attrValue = attrValue;
+			this.text = text;
+			this.keepChildren = keepChildren;
+			if(text != null) {
+				label = describe("removeTextTag", text);
+			} else if(attrName == null) {
+				label = describe(keepChildren ? "removeTypeOnly" : "removeType", type);
+			} else {
+				label = describe(keepChildren ? "removeTagOnly" : "removeTagAndChildren", type, attrName, attrValue);
+			}
+		}
+
+		/**
+		 * Counts a match of this rule in the timeline of the query being run, if any.
+		 * @return - This rule
+		 */
+		Rule matched() {
+			QueryTimeline.count(label, 1);
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+
+		boolean matches(Tag tag) {
+			return matches(tag.getAttributes(), (tag.getClass() == TextTag.class) ? ((TextTag)tag).getBody() : null);
+		}
+
+		/**
+		 * @param attributes - The attributes of the tag
+		 * @param body - The text body if the tag is a text tag, null otherwise
+		 */
+		boolean matches(List<Attribute> attributes, String body) {
+			if(text != null) {
+				return body != null && body.equals(text);
+			}
+			if(attrName == null) {
+				return true;
+			}
+			for(Attribute attr : attributes) {
+				if(attr != null && attr.name.equals(attrName) && attr.value.equals(attrValue)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The rules of this plan, grouped by the type of tag they apply to.
+	 */
+	private Map<String, List<Rule>> rules;
+
+	/**
+	 * Creates an empty plan.
+	 */
+	public CleanupPlan() {
+		rules = new HashMap<String, List<Rule>>();
+	}
+
+	/**
+	 * Removes all tags of the specified type and their children.
+	 * @param type - Tag type to remove
+	 * @return - This plan
+	 */
+	public CleanupPlan removeType(String type) {
+		return add(new Rule(type, null, null, null, false));
+	}
+
+	/**
+	 * Removes all tags of the specified type, connecting their children to their parent.
+	 * @param type - Tag type to remove
+	 * @return - This plan
+	 */
+	public CleanupPlan removeTypeOnly(String type) {
+		return add(new Rule(type, null, null, null, true));
+	}
+
+	/**
+	 * Removes all tags that match the given tag description along with their children.
+	 * @param type - The tag type to search for and remove
+	 * @param attrName - An attribute name to help find a tag match
+	 * @param attrValue - An attribute value corresponding to the attribute name to help find a tag match
+	 * @return - This plan
+	 */
+	public CleanupPlan removeTagAndChildren(String type, String attrName, String attrValue) {
+		return add(new Rule(type, attrName, attrValue, null, false));
+	}
+
+	/**
+	 * Removes all tags that match the given tag description, connecting their children to their parent.
+	 * @param type - The tag type to search for and remove
+	 * @param attrName - An attribute name to help find a tag match
+	 * @param attrValue - An attribute value corresponding to the attribute name to help find a tag match
+	 * @return - This plan
+	 */
+	public CleanupPlan removeTagOnly(String type, String attrName, String attrValue) {
+		return add(new Rule(type, attrName, attrValue, null, true));
+	}
+
+	/**
+	 * Removes any text tags whose text body matches the input value.
+	 * @param value - The text body to search for
+	 * @return - This plan
+	 */
+	public CleanupPlan removeTextTag(String value) {
+		return add(new Rule("text", null, null, value, false));
+	}
+
+	/**
+	 * Finds the rule deciding what happens to the given tag. If several rules match, a rule
+	 * removing the children wins over a rule keeping them.
+	 * @param tag - The tag to check.
+	 * @return - The deciding rule, null if the tag is to be kept.
+	 */
+	Rule match(Tag tag) {
+		return match(tag.getType(), tag.getAttributes(),
+				(tag.getClass() == TextTag.class) ? ((TextTag)tag).getBody() : null);
+	}
+
+	/**
+	 * Finds the rule deciding what happens to a tag before the tag is even built, so a
+	 * document can be cleaned while it is being indexed.
+	 * @param type - Lower-cased type of the tag
+	 * @param attributes - The attributes of the tag
+	 * @param body - The text body if the tag is a text tag, null otherwise
+	 * @return - The deciding rule, null if the tag is to be kept.
+	 */
+	Rule match(String type, List<Attribute> attributes, String body) {
+		List<Rule> candidates = rulesFor(type);
+		if(candidates == null) {
+			return null;
+		}
+		Rule found = null;
+		for(Rule rule : candidates) {
+			if(rule.matches(attributes, body)) {
+				if(!rule.keepChildren) {
+					return rule.matched();
+				}
+				found = rule;
+			}
+		}
+		return (found == null) ? null : found.matched();
+	}
+
+	/**
+	 * Describes a call to one of the removal methods, for the timeline of a query.
+	 * @param method - Name of the removal method
+	 * @param args - Its arguments
+	 * @return - The call as it would be written (Ex. removeType(style))
+	 */
+	static String describe(String method, Object... args) {
+		StringBuilder call = new StringBuilder(method).append('(');
+		for(int i = 0; i < args.length; i++) {
+			call.append(i == 0 ? "" : ", ").append(args[i]);
+		}
+		return call.append(')').toString();
+	}
+
+	/**
+	 * @param type - Lower-cased tag type
+	 * @return - The rules applying to tags of the given type, null if there are none.
+	 */
+	List<Rule> rulesFor(String type) {
+		return rules.get(type);
+	}
+
+	/**
+	 * @return - True if this plan has no rules.
+	 */
+	public boolean isEmpty() {
+		return rules.isEmpty();
+	}
+
+	private CleanupPlan add(Rule rule) {
+		List<Rule> list = rules.get(rule.type);
+		if(list == null) {
+			list = new ArrayList<Rule>();
+			rules.put(rule.type, list);
+		}
+		list.add(rule);
+		return this;
+	}
+}
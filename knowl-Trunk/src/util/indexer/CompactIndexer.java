@@ -0,0 +1,959 @@
+package util.indexer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import util.QueryTimeline;
+
+/**
+ * A compact alternative to {@link Indexer} for sources that only need to find and cut tags
+ * out of a page before writing it back out. Instead of a Tag object with its own lists and
+ * strings for every tag, the document is kept as a handful of parallel arrays indexed by
+ * node id. Tag and attribute names are interned into one table, and all text, style bodies
+ * and attribute values are stored as offsets into one shared character buffer.
+ *
+ * Nodes are numbered in the order they were opened in, so a parent always has a smaller id
+ * than its children. Node 0 is the root of the document and holds the doctype and html tags.
+ * Removed nodes keep their ids but are no longer returned by any lookup.
+ */
+public class CompactIndexer {
+
+	/**
+	 * Id used for a missing node (no parent, no more children, etc.)
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The kinds of node
+	 */
+	private static final byte ROOT = 0;
+	private static final byte ELEMENT = 1;
+	private static final byte ONE_LINER = 2;
+	private static final byte TEXT = 3;
+	private static final byte STYLE = 4;
+	private static final byte DOCTYPE = 5;
+
+	private static final String NEW_LINE = System.getProperty("line.separator");
+
+	/**
+	 * Tag types which never have children or a closing tag, same as for the Indexer.
+	 */
+	private static final Set<String> VOID_TYPES = new HashSet<String>(Arrays.asList(
+			"meta", "link", "input", "img", "hr", "br", "wbr", "area", "base", "col", "embed", "param", "source"));
+
+	/**
+	 * Per node data, indexed by node id. Text, style and doctype nodes use the text offsets,
+	 * all others use the attribute offsets.
+	 */
+	private int nodeCount;
+	private byte[] kinds;
+	private int[] names;
+	private int[] parents;
+	private int[] firstChildren;
+	private int[] lastChildren;
+	private int[] nextSiblings;
+	private int[] previousSiblings;
+	private int[] firstAttributes;
+	private int[] attributeCounts;
+	private int[] textStarts;
+	private int[] textLengths;
+
+	/**
+	 * Ids of the nodes that have been cut out of the document
+	 */
+	private BitSet removed;
+
+	/**
+	 * Per attribute data, the attributes of a node are stored next to each other
+	 */
+	private int attributeTotal;
+	private int[] attributeNames;
+	private int[] valueStarts;
+	private int[] valueLengths;
+
+	/**
+	 * The shared buffer holding all text, style bodies, doctypes and attribute values
+	 */
+	private StringBuilder chars;
+
+	/**
+	 * Interned tag and attribute names
+	 */
+	private String[] nameTable;
+	private Map<String, Integer> nameIds;
+
+	/**
+	 * Ids and names of the tags awaiting their closing tag while the document is being
+	 * indexed. Tags cut out by the early plan have an id of NONE.
+	 */
+	private int[] openTags;
+	private int[] openNames;
+	private int openCount;
+
+	/**
+	 * Rules applied to tags as soon as they are opened while indexing, null to keep every tag.
+	 */
+	private CleanupPlan earlyPlan;
+
+	/**
+	 * Index in the open tags of the outermost tag being dropped by the early plan, -1 if no
+	 * tag is being dropped.
+	 */
+	private int dropFrom = -1;
+
+	/**
+	 * Flag specifying whether or not an html document has been indexed.
+	 */
+	private boolean indexed;
+
+	/**
+	 * Constructor that calls the default constructor as well as the
+	 * index method with the given input reader.
+	 * 
+	 * @param in - A buffered input reader from a website.
+	 */
+	public CompactIndexer(BufferedReader in) {
+		this();
+		index(in);
+	}
+
+	/**
+	 * Constructor that indexes the document being read by the given reader, applying the
+	 * given cleanup plan while indexing.
+	 * 
+	 * @param in - A buffered input reader from a website.
+	 * @param plan - Rules applied while indexing, see {@link Indexer#index(BufferedReader, CleanupPlan)}
+	 */
+	public CompactIndexer(BufferedReader in, CleanupPlan plan) {
+		this();
+		index(in, plan);
+	}
+
+	/**
+	 * Default constructor which initializes all of internal variables.
+	 */
+	public CompactIndexer() {
+		int capacity = 256;
+		kinds = new byte[capacity];
+		names = new int[capacity];
+		parents = new int[capacity];
+		firstChildren = new int[capacity];
+		lastChildren = new int[capacity];
+		nextSiblings = new int[capacity];
+		previousSiblings = new int[capacity];
+		firstAttributes = new int[capacity];
+		attributeCounts = new int[capacity];
+		textStarts = new int[capacity];
+		textLengths = new int[capacity];
+		removed = new BitSet();
+		attributeNames = new int[capacity];
+		valueStarts = new int[capacity];
+		valueLengths = new int[capacity];
+		chars = new StringBuilder(4096);
+		nameTable = new String[64];
+		nameIds = new HashMap<String, Integer>();
+		openTags = new int[64];
+		openNames = new int[64];
+		newNode(ROOT, intern("#root"), NONE);
+	}
+
+	/**
+	 * Indexes the given html document
+	 * 
+	 * @param in - Input reader that is reading from the html document
+	 */
+	public void index(BufferedReader in) {
+		index(in, null);
+	}
+
+	/**
+	 * Indexes the given html document, applying the rules of the given plan that can be
+	 * decided from a tag alone while indexing, the same as
+	 * {@link Indexer#index(BufferedReader, CleanupPlan)} does.
+	 * 
+	 * @param in - Input reader that is reading from the html document
+	 * @param plan - Rules to apply while indexing, null to keep every tag
+	 */
+	public void index(BufferedReader in, CleanupPlan plan) {
+		earlyPlan = plan;
+		dropFrom = -1;
+		try {
+			new Tokenizer(new Builder()).tokenize(in);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		openCount = 0;
+		earlyPlan = null;
+		indexed = true;
+		QueryTimeline.count("nodes", nodeCount - 1);
+		QueryTimeline.mark("index");
+	}
+
+	/**
+	 * Finds the tags of the given type carrying the given attribute. Attribute name is
+	 * case-insensitive, while attribute value is case sensitive, same as for the Indexer.
+	 * 
+	 * @param type - The type of the tag to be found.
+	 * @param attributeName - The attribute name of the tag to be found. (Ex. class, href, id)
+	 * @param attributeValue - The attribute value to be found.
+	 * @return - The ids of the matching tags in order of appearance in the document. Null if
+	 * no document has been indexed.
+	 */
+	public int[] getTag(String type, String attributeName, String attributeValue) {
+		if(!indexed) {
+			return null;
+		}
+		Integer typeId = nameIds.get(type.toLowerCase());
+		Integer attrId = nameIds.get(attributeName.toLowerCase());
+		if(typeId == null || attrId == null) {
+			return new int[0];
+		}
+		int[] matches = new int[16];
+		int found = 0;
+		for(int node = removed.nextClearBit(1); node < nodeCount; node = removed.nextClearBit(node + 1)) {
+			if(names[node] == typeId && hasAttribute(node, attrId, attributeValue)) {
+				if(found == matches.length) {
+					matches = Arrays.copyOf(matches, found * 2);
+				}
+				matches[found++] = node;
+			}
+		}
+		return Arrays.copyOf(matches, found);
+	}
+
+	/**
+	 * @param type - Tag type to search for.
+	 * @return - The ids of all tags of the given type in order of appearance in the document.
+	 * Null if no document has been indexed.
+	 */
+	public int[] getTag(String type) {
+		if(!indexed) {
+			return null;
+		}
+		Integer typeId = nameIds.get(type.toLowerCase());
+		if(typeId == null) {
+			return new int[0];
+		}
+		int[] matches = new int[16];
+		int found = 0;
+		for(int node = removed.nextClearBit(1); node < nodeCount; node = removed.nextClearBit(node + 1)) {
+			if(names[node] == typeId) {
+				if(found == matches.length) {
+					matches = Arrays.copyOf(matches, found * 2);
+				}
+				matches[found++] = node;
+			}
+		}
+		return Arrays.copyOf(matches, found);
+	}
+
+	/**
+	 * Removes all tags that match the given tag description along with their children.
+	 * @param type - The tag type to search for and remove
+	 * @param attrName - An attribute name to help find a tag match
+	 * @param attrValue - An attribute value corresponding to the attribute name to help find a tag match
+	 */
+	public void removeTagAndChildren(String type, String attrName, String attrValue) {
+		if(indexed) {
+			for(int node : getTag(type, attrName, attrValue)) {
+				// Matches nested inside of an earlier match are already gone
+				if(!removed.get(node)) {
+					removeTree(node);
+				}
+			}
+			removeEmptyTags();
+			if(QueryTimeline.current() != null) {
+				QueryTimeline.mark(CleanupPlan.describe("removeTagAndChildren", type, attrName, attrValue));
+			}
+		}
+	}
+
+	/**
+	 * Removes all tags that are left without children. Text, doctype and one liner tags
+	 * are never considered empty, neither is a style tag with a style body. The html tag
+	 * is always kept, just like the Indexer keeps it.
+	 */
+	public void removeEmptyTags() {
+		if(indexed) {
+			// Children always come after their parent, so walking backwards empties out
+			// whole chains of tags in one go
+			for(int node = nodeCount - 1; node > 0; node--) {
+				if(!removed.get(node) && parents[node] != 0 && isEmpty(node)) {
+					removeTree(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies every rule of the given cleanup plan to the indexed document in a single walk,
+	 * the same as {@link Indexer#cleanup(CleanupPlan)} does.
+	 * @param plan - The rules to apply
+	 */
+	public void cleanup(CleanupPlan plan) {
+		if(!indexed) {
+			return;
+		}
+		int html = nameIds.containsKey("html") ? nameIds.get("html") : NONE;
+		for(int top = firstChildren[0]; top != NONE; ) {
+			int next = nextSiblings[top];
+			if(names[top] == html) {
+				cleanupChildren(top, plan);
+			}
+			top = next;
+		}
+		QueryTimeline.mark("cleanup");
+	}
+
+	/**
+	 * Walks the descendants of the given tag without recursing. Matching tags are removed
+	 * on the way down, tags left empty are removed on the way back up.
+	 */
+	private void cleanupChildren(int top, CleanupPlan plan) {
+		int parent = top;
+		int node = firstChildren[top];
+		while(true) {
+			if(node != NONE) {
+				int next = nextSiblings[node];
+				CleanupPlan.Rule rule = match(node, plan);
+				if(rule == null) {
+					if(firstChildren[node] != NONE) {
+						parent = node;
+						node = firstChildren[node];
+						continue;
+					}
+					if(isEmpty(node)) {
+						removeTree(node);
+					}
+				} else if(rule.keepChildren) {
+					// Hand the children to the parent and walk them from there
+					int first = firstChildren[node];
+					unwrap(node);
+					if(first != NONE) {
+						next = first;
+					}
+				} else {
+					removeTree(node);
+				}
+				node = next;
+			} else {
+				// Done with all children of the parent, head back up
+				int done = parent;
+				if(done == top) {
+					break;
+				}
+				parent = parents[done];
+				node = nextSiblings[done];
+				if(isEmpty(done)) {
+					removeTree(done);
+				}
+			}
+		}
+	}
+
+	private CleanupPlan.Rule match(int node, CleanupPlan plan) {
+		List<CleanupPlan.Rule> candidates = plan.rulesFor(nameTable[names[node]]);
+		if(candidates == null) {
+			return null;
+		}
+		CleanupPlan.Rule found = null;
+		for(CleanupPlan.Rule rule : candidates) {
+			if(matches(node, rule)) {
+				if(!rule.keepChildren) {
+					return rule.matched();
+				}
+				found = rule;
+			}
+		}
+		return (found == null) ? null : found.matched();
+	}
+
+	private boolean matches(int node, CleanupPlan.Rule rule) {
+		if(rule.text != null) {
+			return kinds[node] == TEXT && regionEquals(textStarts[node], textLengths[node], rule.text);
+		}
+		if(rule.attrName == null) {
+			return true;
+		}
+		Integer attrId = nameIds.get(rule.attrName);
+		return attrId != null && hasAttribute(node, attrId, rule.attrValue);
+	}
+
+	/**
+	 * Writes the entire indexed document to a file in html format, in the same format as
+	 * the Indexer.
+	 * 
+	 * @param out - Buffered writer for writing to the output file.
+	 * @return - True if document was written to the file successfully, false otherwise.
+	 */
+	public boolean linesToFile(BufferedWriter out) {
+		if(!indexed) {
+			return false;
+		}
+		try {
+			out.append(toHtml());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return - The html of the document. Null if no document has been indexed.
+	 */
+	public String toHtml() {
+		return toHtml(false);
+	}
+
+	/**
+	 * Writes the entire indexed document to a string in html format.
+	 *
+	 * @param compact - True to leave out the line separator written after every tag
+	 * @return - The html of the document. Null if no document has been indexed.
+	 */
+	public String toHtml(boolean compact) {
+		if(!indexed) {
+			return null;
+		}
+		StringBuilder html = new StringBuilder(chars.length() + nodeCount * 8);
+		// The doctype comes first, then the html tag containing everything else
+		int doctype = first(DOCTYPE, NONE);
+		if(doctype != NONE) {
+			write(doctype, html, compact);
+		}
+		int root = first(ELEMENT, nameIds.containsKey("html") ? nameIds.get("html") : NONE);
+		if(root != NONE) {
+			write(root, html, compact);
+		}
+		QueryTimeline.count("chars", html.length());
+		QueryTimeline.mark("serialize");
+		return html.toString();
+	}
+
+	/**
+	 * @return - Number of nodes still in the document, not counting the root.
+	 */
+	public int getNodeCount() {
+		int count = 0;
+		for(int node = removed.nextClearBit(1); node < nodeCount; node = removed.nextClearBit(node + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Estimates the memory held by this document, for comparing against the object tree of
+	 * the Indexer. Array headers and the name table are left out.
+	 *
+	 * @return - Approximate size in bytes
+	 */
+	public long estimateSize() {
+		long size = kinds.length;
+		size += 10L * 4 * names.length;
+		size += 3L * 4 * attributeNames.length;
+		size += 2L * chars.capacity();
+		size += removed.size() / 8;
+		return size;
+	}
+
+	/**
+	 * @param node - Id of a node
+	 * @return - The type of the node (Ex. div, text, doctype)
+	 */
+	public String getType(int node) {
+		return nameTable[names[node]];
+	}
+
+	/**
+	 * @param node - Id of a node
+	 * @return - Id of the parent of the node, NONE for the root and removed nodes
+	 */
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	/**
+	 * @param node - Id of a node
+	 * @return - Id of the first child of the node, NONE if it has none
+	 */
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	/**
+	 * @param node - Id of a node
+	 * @return - Id of the next child of the node's parent, NONE if it is the last one
+	 */
+	public int getNextSibling(int node) {
+		return nextSiblings[node];
+	}
+
+	/**
+	 * @param node - Id of a node
+	 * @param name - Attribute name to look for
+	 * @return - Value of the attribute, null if the node doesn't carry it
+	 */
+	public String getAttribute(int node, String name) {
+		Integer nameId = nameIds.get(name.toLowerCase());
+		if(nameId != null && kinds[node] != TEXT && kinds[node] != DOCTYPE) {
+			for(int a = firstAttributes[node]; a < firstAttributes[node] + attributeCounts[node]; a++) {
+				if(attributeNames[a] == nameId) {
+					return chars.substring(valueStarts[a], valueStarts[a] + valueLengths[a]);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param node - Id of a text, style or doctype node
+	 * @return - The text body of the node, null for other nodes
+	 */
+	public String getText(int node) {
+		if(kinds[node] == TEXT || kinds[node] == STYLE || kinds[node] == DOCTYPE) {
+			return chars.substring(textStarts[node], textStarts[node] + textLengths[node]);
+		}
+		return null;
+	}
+
+	/**
+	 * @return - True if the node is not removed yet
+	 */
+	public boolean isAttached(int node) {
+		return node >= 0 && node < nodeCount && !removed.get(node);
+	}
+
+	private int first(byte kind, int name) {
+		for(int node = firstChildren[0]; node != NONE; node = nextSiblings[node]) {
+			if(kinds[node] == kind && (name == NONE || names[node] == name)) {
+				return node;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Writes a node and everything below it, walking the tree through the parent and
+	 * sibling links instead of recursing.
+	 */
+	private void write(int top, StringBuilder out, boolean compact) {
+		int node = top;
+		while(true) {
+			if(open(node, out, compact) && firstChildren[node] != NONE) {
+				node = firstChildren[node];
+				continue;
+			}
+			// Close every tag whose last child has just been written
+			while(node != top && nextSiblings[node] == NONE) {
+				node = parents[node];
+				close(node, out, compact);
+			}
+			if(node == top) {
+				return;
+			}
+			node = nextSiblings[node];
+		}
+	}
+
+	/**
+	 * Writes out everything of a node that comes before its children.
+	 * @return - True if the node can have children, its closing tag is then written by
+	 * {@link #close(int, StringBuilder, boolean)}
+	 */
+	private boolean open(int node, StringBuilder out, boolean compact) {
+		switch(kinds[node]) {
+		case TEXT:
+			out.append(chars, textStarts[node], textStarts[node] + textLengths[node]);
+			newLine(out, compact);
+			return false;
+		case DOCTYPE:
+			out.append('<').append(chars, textStarts[node], textStarts[node] + textLengths[node]).append('>');
+			newLine(out, compact);
+			return false;
+		default:
+			out.append('<').append(nameTable[names[node]]);
+			for(int a = firstAttributes[node]; a < firstAttributes[node] + attributeCounts[node]; a++) {
+				out.append(' ').append(nameTable[attributeNames[a]]).append("=\"");
+				HtmlSerializer.appendEscaped(out, chars, valueStarts[a], valueStarts[a] + valueLengths[a]);
+				out.append('"');
+			}
+			if(kinds[node] == ONE_LINER) {
+				out.append(" />");
+				newLine(out, compact);
+				return false;
+			}
+			out.append('>');
+			newLine(out, compact);
+			if(kinds[node] == STYLE) {
+				if(textLengths[node] > 0) {
+					out.append(chars, textStarts[node], textStarts[node] + textLengths[node]);
+					out.append(compact ? "\n" : NEW_LINE);
+				}
+				close(node, out, compact);
+				return false;
+			}
+			if(firstChildren[node] == NONE) {
+				close(node, out, compact);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	private void close(int node, StringBuilder out, boolean compact) {
+		out.append("</").append(nameTable[names[node]]).append('>');
+		newLine(out, compact);
+	}
+
+	private void newLine(StringBuilder out, boolean compact) {
+		if(!compact) {
+			out.append(NEW_LINE);
+		}
+	}
+
+	/**
+	 * @return - True if the given node can hold children but has none left
+	 */
+	private boolean isEmpty(int node) {
+		switch(kinds[node]) {
+		case ELEMENT:
+			return firstChildren[node] == NONE;
+		case STYLE:
+			return textLengths[node] == 0;
+		default:
+			return false;
+		}
+	}
+
+	private boolean hasAttribute(int node, int nameId, String value) {
+		if(kinds[node] == TEXT || kinds[node] == DOCTYPE) {
+			return false;
+		}
+		for(int a = firstAttributes[node]; a < firstAttributes[node] + attributeCounts[node]; a++) {
+			if(attributeNames[a] == nameId && regionEquals(valueStarts[a], valueLengths[a], value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean regionEquals(int start, int length, String value) {
+		if(length != value.length()) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(chars.charAt(start + i) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cuts a node and everything below it out of the document
+	 */
+	private void removeTree(int top) {
+		unlink(top);
+		removed.set(top);
+		int node = firstChildren[top];
+		while(node != NONE) {
+			removed.set(node);
+			if(firstChildren[node] != NONE) {
+				node = firstChildren[node];
+			} else {
+				while(node != top && nextSiblings[node] == NONE) {
+					node = parents[node];
+				}
+				node = (node == top) ? NONE : nextSiblings[node];
+			}
+		}
+	}
+
+	/**
+	 * Cuts a node out of the document, connecting its children to its parent in its place
+	 */
+	private void unwrap(int node) {
+		int parent = parents[node];
+		int child = firstChildren[node];
+		while(child != NONE) {
+			int next = nextSiblings[child];
+			parents[child] = parent;
+			previousSiblings[child] = NONE;
+			nextSiblings[child] = NONE;
+			insertBefore(child, node);
+			child = next;
+		}
+		firstChildren[node] = NONE;
+		lastChildren[node] = NONE;
+		unlink(node);
+		removed.set(node);
+	}
+
+	private void insertBefore(int node, int sibling) {
+		int previous = previousSiblings[sibling];
+		previousSiblings[node] = previous;
+		nextSiblings[node] = sibling;
+		previousSiblings[sibling] = node;
+		if(previous == NONE) {
+			firstChildren[parents[sibling]] = node;
+		} else {
+			nextSiblings[previous] = node;
+		}
+	}
+
+	private void unlink(int node) {
+		int parent = parents[node];
+		int previous = previousSiblings[node];
+		int next = nextSiblings[node];
+		if(parent != NONE) {
+			if(previous == NONE) {
+				firstChildren[parent] = next;
+			} else {
+				nextSiblings[previous] = next;
+			}
+			if(next == NONE) {
+				lastChildren[parent] = previous;
+			} else {
+				previousSiblings[next] = previous;
+			}
+		}
+		parents[node] = NONE;
+		previousSiblings[node] = NONE;
+		nextSiblings[node] = NONE;
+	}
+
+	private int intern(String name) {
+		Integer id = nameIds.get(name);
+		if(id == null) {
+			id = nameIds.size();
+			if(id == nameTable.length) {
+				nameTable = Arrays.copyOf(nameTable, id * 2);
+			}
+			nameTable[id] = name;
+			nameIds.put(name, id);
+		}
+		return id;
+	}
+
+	private int newNode(byte kind, int name, int parent) {
+		if(nodeCount == kinds.length) {
+			int capacity = nodeCount * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			names = Arrays.copyOf(names, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			lastChildren = Arrays.copyOf(lastChildren, capacity);
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+			firstAttributes = Arrays.copyOf(firstAttributes, capacity);
+			attributeCounts = Arrays.copyOf(attributeCounts, capacity);
+			textStarts = Arrays.copyOf(textStarts, capacity);
+			textLengths = Arrays.copyOf(textLengths, capacity);
+		}
+		int node = nodeCount++;
+		kinds[node] = kind;
+		names[node] = name;
+		parents[node] = parent;
+		firstChildren[node] = NONE;
+		lastChildren[node] = NONE;
+		nextSiblings[node] = NONE;
+		previousSiblings[node] = NONE;
+		firstAttributes[node] = attributeTotal;
+		attributeCounts[node] = 0;
+		textStarts[node] = 0;
+		textLengths[node] = 0;
+		if(parent != NONE) {
+			int last = lastChildren[parent];
+			if(last == NONE) {
+				firstChildren[parent] = node;
+			} else {
+				nextSiblings[last] = node;
+				previousSiblings[node] = last;
+			}
+			lastChildren[parent] = node;
+		}
+		return node;
+	}
+
+	private void addAttributes(int node, List<Attribute> attributes) {
+		for(Attribute attr : attributes) {
+			if(attr == null) {
+				continue;
+			}
+			if(attributeTotal == attributeNames.length) {
+				int capacity = attributeTotal * 2;
+				attributeNames = Arrays.copyOf(attributeNames, capacity);
+				valueStarts = Arrays.copyOf(valueStarts, capacity);
+				valueLengths = Arrays.copyOf(valueLengths, capacity);
+			}
+			attributeNames[attributeTotal] = intern(attr.name);
+			valueStarts[attributeTotal] = chars.length();
+			valueLengths[attributeTotal] = attr.value.length();
+			chars.append(attr.value);
+			attributeTotal++;
+			attributeCounts[node]++;
+		}
+	}
+
+	private void setText(int node, CharSequence text) {
+		textStarts[node] = chars.length();
+		textLengths[node] = text.length();
+		chars.append(text);
+	}
+
+	/**
+	 * @return - The tag new tags are added to, NONE if no tag of the document is open. Only
+	 * the html tag is added to the root, just like the Indexer only writes out the html tag.
+	 */
+	private int openParent(String type) {
+		for(int i = openCount - 1; i >= 0; i--) {
+			if(openTags[i] != NONE) {
+				return openTags[i];
+			}
+		}
+		return (openCount == 0 && type.equals("html")) ? 0 : NONE;
+	}
+
+	private void push(int node, int name) {
+		if(openCount == openTags.length) {
+			openTags = Arrays.copyOf(openTags, openCount * 2);
+			openNames = Arrays.copyOf(openNames, openCount * 2);
+		}
+		openTags[openCount] = node;
+		openNames[openCount++] = name;
+	}
+
+	/**
+	 * Builds the node arrays from the events of the streaming tokenizer. Comments and
+	 * scripts are ignored just like they are by the Indexer.
+	 */
+	private class Builder implements TokenHandler {
+
+		@Override
+		public void openTag(String type, List<Attribute> attributes, boolean selfClosing) {
+			boolean oneLiner = selfClosing || VOID_TYPES.contains(type);
+			if(dropFrom >= 0 || earlyPlan != null && skip(type, attributes, oneLiner)) {
+				if(!oneLiner) {
+					push(NONE, intern(type));
+				}
+				return;
+			}
+			int parent = openParent(type);
+			int node = newNode(oneLiner ? ONE_LINER : ELEMENT, intern(type), parent);
+			addAttributes(node, attributes);
+			if(parent == NONE) {
+				// Not part of the document, but its children still need somewhere to go
+				removed.set(node);
+			}
+			if(!oneLiner) {
+				push(node, names[node]);
+			}
+		}
+
+		/**
+		 * Checks the early plan for a tag that is being opened. A tag whose children go along
+		 * with it starts a dropped stretch of the document, unless it has no children.
+		 * @return - True if the tag is not to be built
+		 */
+		private boolean skip(String type, List<Attribute> attributes, boolean oneLiner) {
+			CleanupPlan.Rule rule = earlyPlan.match(type, attributes, null);
+			if(rule == null) {
+				return false;
+			}
+			if(!rule.keepChildren && !oneLiner) {
+				dropFrom = openCount;
+			}
+			return true;
+		}
+
+		@Override
+		public void closeTag(String type) {
+			Integer name = nameIds.get(type);
+			if(name == null) {
+				return;
+			}
+			// Anything opened after the matching tag and never closed is closed along with it
+			for(int i = openCount - 1; i >= 0; i--) {
+				if(openNames[i] == name) {
+					openCount = i;
+					if(openCount <= dropFrom) {
+						dropFrom = -1;
+					}
+					break;
+				}
+			}
+		}
+
+		@Override
+		public void text(char[] buf, int start, int length) {
+			int parent = openParent("text");
+			if(dropFrom >= 0 || parent == NONE) {
+				return;
+			}
+			// Blocks of nothing but white space are of no use to anybody
+			boolean blank = true;
+			boolean plain = true;
+			for(int i = start; i < start + length; i++) {
+				blank &= buf[i] == ' ';
+				plain &= TextNormalizer.isPlain(buf[i]);
+			}
+			if(blank) {
+				return;
+			}
+			// The text is cleaned up straight into the shared buffer
+			int textStart = chars.length();
+			if(plain) {
+				chars.append(buf, start, length);
+			} else {
+				TextNormalizer.normalize(CharBuffer.wrap(buf), start, start + length, chars);
+			}
+			if(earlyPlan != null && earlyPlan.rulesFor("text") != null
+					&& earlyPlan.match("text", Collections.<Attribute>emptyList(), chars.substring(textStart)) != null) {
+				chars.setLength(textStart);
+				return;
+			}
+			int node = newNode(TEXT, intern("text"), parent);
+			textStarts[node] = textStart;
+			textLengths[node] = chars.length() - textStart;
+		}
+
+		@Override
+		public void comment(char[] buf, int start, int length) {
+		}
+
+		@Override
+		public void script(String type, List<Attribute> attributes, char[] buf, int start, int length) {
+		}
+
+		@Override
+		public void style(List<Attribute> attributes, char[] buf, int start, int length) {
+			// A style has no children to hand over, so any rule matching it removes it
+			if(dropFrom >= 0 || earlyPlan != null && earlyPlan.match("style", attributes, null) != null) {
+				return;
+			}
+			int parent = openParent("style");
+			int node = newNode(STYLE, intern("style"), parent);
+			addAttributes(node, attributes);
+			setText(node, new String(buf, start, length).trim());
+			if(parent == NONE) {
+				removed.set(node);
+			}
+		}
+
+		@Override
+		public void doctype(String doctypeInfo) {
+			setText(newNode(DOCTYPE, intern("doctype"), 0), doctypeInfo);
+		}
+	}
+}
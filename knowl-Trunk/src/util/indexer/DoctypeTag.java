@@ -1,8 +1,5 @@
 package util.indexer;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-
 public class DoctypeTag extends Tag {
 
 	private String doctype;
@@ -19,13 +16,4 @@ public class DoctypeTag extends Tag {
 		super("doctype", null, null);
 		doctype = "<" + doctypeInfo + ">";
 	}
-	
-	public void linesToFile(BufferedWriter out) {
-		try {
-			out.write(doctype);
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
 }
@@ -0,0 +1,312 @@
+package util.indexer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes a tree of tags back out as html. The tree is walked with an explicit stack
+ * instead of recursion, so deeply nested pages can't overflow the call stack, and all
+ * output goes through one reusable buffer so nothing is allocated per tag.
+ *
+ * By default every tag and piece of text is followed by a line separator, the same as
+ * the html the indexer has always written. Compact output leaves the line separators out.
+ *
+ * A serializer keeps its buffers between calls and is not thread safe.
+ */
+public class HtmlSerializer {
+
+	/**
+	 * Number of buffered characters after which they are handed to the writer
+	 */
+	private static final int FLUSH_SIZE = 8192;
+
+	private static final String NEW_LINE = System.getProperty("line.separator");
+
+	/**
+	 * Flag specifying whether line separators are left out of the output
+	 */
+	private boolean compact;
+
+	/**
+	 * Buffer the html is built up in before it is written out
+	 */
+	private StringBuilder buffer;
+	private char[] chunk;
+
+	/**
+	 * Tags whose closing tag has yet to be written, with the children being written and
+	 * the index of the next child of each one to visit
+	 */
+	private Tag[] stack;
+	private List<?>[] children;
+	private int[] next;
+
+	/**
+	 * Creates a serializer that ends every tag with a line separator
+	 */
+	public HtmlSerializer() {
+		this(false);
+	}
+
+	/**
+	 * @param compact - True to leave the line separators out of the output
+	 */
+	public HtmlSerializer(boolean compact) {
+		this.compact = compact;
+		buffer = new StringBuilder(FLUSH_SIZE);
+		stack = new Tag[32];
+		children = new List<?>[32];
+		next = new int[32];
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * Writes the given tag and all of its children to a writer.
+	 *
+	 * @param root - The tag to write
+	 * @param out - The writer to write to, it is not flushed
+	 * @throws IOException - If the writer fails
+	 */
+	public void serialize(Tag root, Writer out) throws IOException {
+		buffer.setLength(0);
+		try {
+			walk(root, out);
+			flush(out);
+		} finally {
+			buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Appends the given tag and all of its children to a string builder.
+	 *
+	 * @param root - The tag to write
+	 * @param out - The builder to append to
+	 * @return - The given builder
+	 */
+	public StringBuilder serialize(Tag root, StringBuilder out) {
+		StringBuilder previous = buffer;
+		buffer = out;
+		try {
+			walk(root, null);
+		} catch (IOException e) {
+			// Only the writer can fail
+		} finally {
+			buffer = previous;
+		}
+		return out;
+	}
+
+	/**
+	 * @param root - The tag to write
+	 * @return - The html of the given tag and all of its children
+	 */
+	public String toHtml(Tag root) {
+		return serialize(root, new StringBuilder()).toString();
+	}
+
+	private void walk(Tag root, Writer out) throws IOException {
+		if(root == null) {
+			return;
+		}
+		int depth = 0;
+		if(open(root)) {
+			push(root, depth++);
+		}
+		while(depth > 0) {
+			Tag tag = stack[depth - 1];
+			List<?> tagChildren = children[depth - 1];
+			int index = next[depth - 1];
+			if(index < tagChildren.size()) {
+				next[depth - 1] = index + 1;
+				Tag child = (Tag) tagChildren.get(index);
+				if(child != null && open(child)) {
+					push(child, depth++);
+				}
+			} else {
+				stack[--depth] = null;
+				children[depth] = null;
+				buffer.append("</").append(tag.getType()).append('>');
+				newLine();
+			}
+			if(out != null && buffer.length() >= FLUSH_SIZE) {
+				flush(out);
+			}
+		}
+	}
+
+	/**
+	 * Writes out everything of a tag that comes before its children.
+	 * @return - True if the tag has children and a closing tag still to be written
+	 */
+	private boolean open(Tag tag) {
+		if(tag instanceof TextTag) {
+			String body = ((TextTag)tag).getBody();
+			if(body != null) {
+				buffer.append(body);
+			}
+			newLine();
+			return false;
+		}
+		if(tag instanceof DoctypeTag) {
+			buffer.append(((DoctypeTag)tag).getDoctype());
+			newLine();
+			return false;
+		}
+		buffer.append('<').append(tag.getType());
+		appendAttributes(tag);
+		if(tag instanceof OneLinerTag) {
+			buffer.append(" />");
+			newLine();
+			return false;
+		}
+		buffer.append('>');
+		newLine();
+		if(tag instanceof StyleTag) {
+			for(String line : ((StyleTag)tag).getBody()) {
+				buffer.append(line).append(compact ? "\n" : NEW_LINE);
+			}
+			buffer.append("</").append(tag.getType()).append('>');
+			newLine();
+			return false;
+		}
+		return true;
+	}
+
+	private void appendAttributes(Tag tag) {
+		for(Attribute attr : tag.getAttributes()) {
+			if(attr != null) {
+				buffer.append(' ').append(attr.name);
+				if(attr.value != null) {
+					buffer.append("=\"");
+					appendEscaped(buffer, attr.value);
+					buffer.append('"');
+				}
+			}
+		}
+	}
+
+	private void push(Tag tag, int depth) {
+		if(depth == stack.length) {
+			Tag[] biggerStack = new Tag[depth * 2];
+			System.arraycopy(stack, 0, biggerStack, 0, depth);
+			stack = biggerStack;
+			List<?>[] biggerChildren = new List<?>[depth * 2];
+			System.arraycopy(children, 0, biggerChildren, 0, depth);
+			children = biggerChildren;
+			int[] biggerNext = new int[depth * 2];
+			System.arraycopy(next, 0, biggerNext, 0, depth);
+			next = biggerNext;
+		}
+		stack[depth] = tag;
+		children[depth] = getChildren(tag);
+		next[depth] = 0;
+	}
+
+	/**
+	 * Hands back the children of a tag that are to be written. Every child is written
+	 * unless a subclass leaves some out, see {@link IndexerView}.
+	 *
+	 * @param tag - A tag being written
+	 * @return - The children to write inside of it
+	 */
+	protected List<Tag> getChildren(Tag tag) {
+		return tag.getChildren();
+	}
+
+	private void newLine() {
+		if(!compact) {
+			buffer.append(NEW_LINE);
+		}
+	}
+
+	private void flush(Writer out) throws IOException {
+		int length = buffer.length();
+		if(chunk == null || chunk.length < length) {
+			chunk = new char[Math.max(length, FLUSH_SIZE * 2)];
+		}
+		buffer.getChars(0, length, chunk, 0);
+		out.write(chunk, 0, length);
+		buffer.setLength(0);
+	}
+
+	/**
+	 * Appends an attribute value so that it can sit between double quotes. Quotes and
+	 * angle brackets are escaped, as are ampersands that don't already start a character
+	 * reference (Ex. the &amp; in href="a?b=1&amp;c=2" is left alone).
+	 *
+	 * @param out - The builder to append to
+	 * @param value - The attribute value to escape
+	 */
+	public static void appendEscaped(StringBuilder out, String value) {
+		appendEscaped(out, value, 0, value.length());
+	}
+
+	/**
+	 * Appends part of an attribute value so that it can sit between double quotes, see
+	 * {@link #appendEscaped(StringBuilder, String)}.
+	 *
+	 * @param out - The builder to append to
+	 * @param value - Holds the attribute value to escape
+	 * @param start - Index of the first character of the value
+	 * @param end - Index after the last character of the value
+	 */
+	public static void appendEscaped(StringBuilder out, CharSequence value, int start, int end) {
+		for(int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			switch(c) {
+			case '"':
+				out.append("&quot;");
+				break;
+			case '<':
+				out.append("&lt;");
+				break;
+			case '>':
+				out.append("&gt;");
+				break;
+			case '&':
+				out.append(isReference(value, i, end) ? "&" : "&amp;");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+	}
+
+	/**
+	 * @return - True if the ampersand at the given index starts a character reference
+	 * like &amp;amp; or &amp;#39; or &amp;#x27;
+	 */
+	private static boolean isReference(CharSequence value, int amp, int length) {
+		int i = amp + 1;
+		boolean digits = false;
+		if(i < length && value.charAt(i) == '#') {
+			digits = true;
+			i++;
+			if(i < length && (value.charAt(i) == 'x' || value.charAt(i) == 'X')) {
+				i++;
+			}
+		}
+		int start = i;
+		while(i < length && i - start < 32) {
+			char c = value.charAt(i);
+			if(c == ';') {
+				return i > start;
+			}
+			boolean valid = digits ? Character.digit(c, 16) >= 0 : (Character.isLetterOrDigit(c) && c < 128);
+			if(!valid) {
+				return false;
+			}
+			i++;
+		}
+		return false;
+	}
+}
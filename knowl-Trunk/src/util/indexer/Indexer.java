@@ -4,11 +4,21 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import util.QueryTimeline;
+
 
 /**
  * Indexes an HTML document using the HTML DOM methodology. Contains methods for removing
@@ -19,10 +29,17 @@ import java.util.regex.Pattern;
 public class Indexer {
 	
 	/**
-	 * A list of lists of tags. Each list contains a list of a certain type of 
-	 * tags for convenience later.
+	 * All indexed tags, grouped into lists by their lower-cased type. Each list is in
+	 * the order the tags were closed in.
+	 */
+	private Map<String, List<Tag>> tags;
+
+	/**
+	 * Secondary index of tags by attribute name and then attribute value. Built the first
+	 * time it is needed and kept up to date as tags are added and swept. Changes made to
+	 * the attributes of an already indexed tag are not picked up.
 	 */
-	private List<List<Tag>> tags;
+	private Map<String, Map<String, List<Tag>>> attributeIndex;
 	
 	/**
 	 * An arraylist turned stack which houses all tags currently awaiting to be closed by
@@ -70,7 +87,53 @@ public class Indexer {
 	 * Flag specifying whether or not an html document has been indexed.
 	 */
 	private boolean indexed;
-	
+
+	/**
+	 * Flag specifying whether documents are indexed with the old line based splicing
+	 * instead of the streaming {@link Tokenizer}. Kept around so the output of both
+	 * can be compared. Can also be turned on with -Dknowl.indexer.legacy=true
+	 */
+	private static boolean legacyIndexing = Boolean.getBoolean("knowl.indexer.legacy");
+
+	/**
+	 * Tag types which never have children or a closing tag, whether or not they are
+	 * written as <tag />.
+	 */
+	private static final Set<String> VOID_TYPES = new HashSet<String>(Arrays.asList(
+			"meta", "link", "input", "img", "hr", "br", "wbr", "area", "base", "col", "embed", "param", "source"));
+
+	/**
+	 * Writes the document back out as html. Created the first time it is needed.
+	 */
+	private HtmlSerializer serializer;
+
+	/**
+	 * Tokenizer of the document being indexed incrementally, null when no document is
+	 * being indexed.
+	 */
+	private Tokenizer tokenizer;
+
+	/**
+	 * Rules applied to tags as soon as they are opened while indexing, null to keep every tag.
+	 */
+	private CleanupPlan earlyPlan;
+
+	/**
+	 * Index in the tagStack of the outermost tag being dropped by the early plan, -1 if no tag
+	 * is being dropped. Nothing opened inside of a dropped tag is kept.
+	 */
+	private int dropFrom;
+
+	/**
+	 * Stands in on the tagStack for a tag cut out by the early plan, so that its closing tag
+	 * is still matched up. Never becomes part of the document.
+	 */
+	private static class SkippedTag extends Tag {
+		SkippedTag(String type) {
+			super(type, null, null);
+		}
+	}
+
 	/**
 	 * Constructor that calls the default constructor as well as the
 	 * index method with the given input reader.
@@ -81,6 +144,18 @@ public class Indexer {
 		initialize();
 		index(in);
 	}
+
+	/**
+	 * Constructor that indexes the document being read by the given reader, applying the
+	 * given cleanup plan while indexing.
+	 * 
+	 * @param in - A buffered input reader from a website.
+	 * @param plan - Rules applied while indexing, see {@link #index(BufferedReader, CleanupPlan)}
+	 */
+	public Indexer(BufferedReader in, CleanupPlan plan) {
+		initialize();
+		index(in, plan);
+	}
 	
 	/**
 	 * Default constructor which initializes all of internal variables.
@@ -90,7 +165,8 @@ public class Indexer {
 	}
 	
 	private void initialize() {
-		tags = new ArrayList<List<Tag>>();
+		tags = new LinkedHashMap<String, List<Tag>>();
+		attributeIndex = null;
 		tagStack = new ArrayList<Tag>();
 		strStack = new ArrayList<String>();
 		scriptInProg = false;
@@ -98,6 +174,9 @@ public class Indexer {
 		styleInProg = false;
 		oneLinerInProg = false;
 		indexed = false;
+		tokenizer = null;
+		earlyPlan = null;
+		dropFrom = -1;
 	}
 	
 	/**
@@ -116,32 +195,19 @@ public class Indexer {
 	 */
 	public List<Tag> getTag(String type, String attributeName, String attributeValue) {
 		if(indexed) {
-			List<Tag> list = new ArrayList<Tag>();
-			
-			// Search for a list whose type equals the given type
-			for(List<Tag> l : tags) {
-				if(!l.isEmpty()) {
-					if(l.get(0).getType().equals(type.toLowerCase())) {
-						// List of correct type found, break
-						list = l;
-						break;
-					}
-				}
-			}
-			
 			// Setup return list
 			List<Tag> ofTheKing = new ArrayList<Tag>();
 			
-			// Search for tags with matching attribute name/value
-			for(Tag t : list) {
-				// Check for a matching attribute name/value in this tag
-				for(Attribute a : t.getAttributes()) {
-					if(a.name.equals(attributeName.toLowerCase()) && a.value.equals(attributeValue)) {
-						// Tag found, add it to return list, break out of the attribute list and 
-						// keep looking for matching tags
-						ofTheKing.add(t);
-						break;
-					}
+			// No tags of this type, don't bother with the attribute index
+			String lowerType = type.toLowerCase();
+			if(!tags.containsKey(lowerType)) {
+				return ofTheKing;
+			}
+			
+			// Look up the tags carrying this attribute name/value and keep the ones of the right type
+			for(Tag t : attributeMatches(attributeName, attributeValue)) {
+				if(t.getType().equals(lowerType) && isAttached(t)) {
+					ofTheKing.add(t);
 				}
 			}
 			return ofTheKing;
@@ -160,12 +226,9 @@ public class Indexer {
 	 */
 	public List<Tag> getTag(String type) {
 		if(indexed) {
-			for(List<Tag> l : tags) {
-				if(!l.isEmpty()) {
-					if(l.get(0).getType().equals(type)) {
-						return l;
-					}
-				}
+			List<Tag> l = tags.get(type.toLowerCase());
+			if(l != null) {
+				return l;
 			}
 			return new ArrayList<Tag>(0);
 		} else {
@@ -183,22 +246,10 @@ public class Indexer {
 	 */
 	public Tag getTextTag(String value) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals("text")) {
-						for(int j = 0; j < tagList.size(); j++) {
-							TextTag tag = (TextTag)tagList.get(j);
-							String body = tag.getBody();
-							if(body.equals(value)) {
-								return tag;
-							}
-						}
-					}
-				} else {
-					tags.remove(i);
-					i--;
+			for(Tag tag : getTag("text")) {
+				String body = ((TextTag)tag).getBody();
+				if(body.equals(value)) {
+					return tag;
 				}
 			}
 			return null;
@@ -215,29 +266,77 @@ public class Indexer {
 	 */
 	public boolean linesToFile(BufferedWriter out) {
 		if(indexed) {
-			System.out.println("Trying to print to file.");
 			// Start with the doctype as it has no children, no parent and always comes 
 			// first in a document.
+			HtmlSerializer serializer = getSerializer(false);
+			try {
+				List<Tag> docList = getTag("doctype");
+				if(!docList.isEmpty()) {
+					serializer.serialize(docList.get(0), out);
+				}
+				// Next comes the html tag, which should contain all other tags by HTML DOM
+				// methodology.
+				List<Tag> htmlList = getTag("html");
+				if(!htmlList.isEmpty()) {
+					serializer.serialize(htmlList.get(0), out);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+			QueryTimeline.mark("serialize");
+			return true;
+		} else {
+			// No document has been indexed, return false.
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes the entire indexed document to a string in html format, the same way
+	 * {@link #linesToFile(BufferedWriter)} writes it to a file.
+	 *
+	 * @return - The html of the document. Null if no document has been indexed.
+	 */
+	public String toHtml() {
+		return toHtml(false);
+	}
+
+	/**
+	 * Writes the entire indexed document to a string in html format.
+	 *
+	 * @param compact - True to leave out the line separator written after every tag
+	 * @return - The html of the document. Null if no document has been indexed.
+	 */
+	public String toHtml(boolean compact) {
+		if(indexed) {
+			HtmlSerializer serializer = getSerializer(compact);
+			StringBuilder html = new StringBuilder();
+			// Start with the doctype, then the html tag containing everything else
 			List<Tag> docList = getTag("doctype");
 			if(!docList.isEmpty()) {
-				DoctypeTag doc = (DoctypeTag)docList.get(0);
-				doc.linesToFile(out);
+				serializer.serialize(docList.get(0), html);
 			}
-			// Next comes the html tag, which should contain all other tags by HTML DOM
-			// methodology.
 			List<Tag> htmlList = getTag("html");
 			if(!htmlList.isEmpty()) {
-				Tag html = htmlList.get(0);
-				html.linesToFile(out);
+				serializer.serialize(htmlList.get(0), html);
 			}
-			System.out.println("Printed to file successfully!");
-			return true;
+			QueryTimeline.count("chars", html.length());
+			QueryTimeline.mark("serialize");
+			return html.toString();
 		} else {
-			// No document has been indexed, return false.
-			return false;
+			return null;
 		}
 	}
-	
+
+	private HtmlSerializer getSerializer(boolean compact) {
+		if(serializer == null) {
+			serializer = new HtmlSerializer(compact);
+		}
+		serializer.setCompact(compact);
+		return serializer;
+	}
+
 	public void insertChildAtAndAbsorbChildrenOf(Tag child, int desiredIndex, int childrenToAbsorb, Tag parent) {
 		if(indexed) {
 			if(parent.getChildren().size() > desiredIndex) {
@@ -278,23 +377,16 @@ public class Indexer {
 	 */
 	public void removeType(String type) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals(type.toLowerCase())) {
-						for(int j = 0; j < tagList.size(); j++) {
-							Tag tag = tagList.get(j);
-							tag.removeIncludeChildren();
-						}
-						sweep();
-					}
-				} else {
-					tags.remove(i);
-					i--;
+			List<Tag> tagList = tags.get(type.toLowerCase());
+			if(tagList != null) {
+				for(int j = 0; j < tagList.size(); j++) {
+					Tag tag = tagList.get(j);
+					tag.removeIncludeChildren();
 				}
+				sweep();
 			}
 			removeEmptyTags();
+			markRemoval("removeType", type);
 		}
 	}
 	
@@ -306,11 +398,11 @@ public class Indexer {
 	 */
 	public void removeEmptyTags() {
 		if(indexed) {
-			for(int j = 0; j < tags.size(); j++) {
+			boolean removed = false;
+			// Walk over a copy of the lists as the sweep at the end may drop some of them
+			for(List<Tag> tagList : new ArrayList<List<Tag>>(tags.values())) {
 				// Grab a list of tags of the same type
-				List<Tag> tagList = tags.get(j);
 				if(!tagList.isEmpty()) {
-					boolean removed = false;
 					for(int i = 0; i < tagList.size(); i++) {
 						// Grab a tag from that list
 						Tag tag = tagList.get(i);
@@ -355,17 +447,12 @@ public class Indexer {
 							}
 						}
 					}
-					// Clean up tags with null parents
-					if(removed) {
-						sweep();
-						removed = false;
-					}
-				} else {
-					// Get rid of empty lists to conserve space
-					tags.remove(j);
-					j--;
 				}
 			}
+			// Clean up tags with null parents
+			if(removed) {
+				sweep();
+			}
 		}
 	}
 
@@ -376,23 +463,16 @@ public class Indexer {
 	 */
 	public void removeTypeOnly(String type) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals(type.toLowerCase())) {
-						for(int j = 0; j < tagList.size(); j++) {
-							Tag tag = tagList.get(j);
-							tag.removeConnectChildren();
-						}
-						sweep();
-					}
-				} else {
-					tags.remove(i);
-					i--;
+			List<Tag> tagList = tags.get(type.toLowerCase());
+			if(tagList != null) {
+				for(int j = 0; j < tagList.size(); j++) {
+					Tag tag = tagList.get(j);
+					tag.removeConnectChildren();
 				}
+				sweep();
 			}
 			removeEmptyTags();
+			markRemoval("removeTypeOnly", type);
 		}
 	}
 	
@@ -404,28 +484,15 @@ public class Indexer {
 	 */
 	public void removeTagAndChildren(String type, String attrName, String attrValue) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals(type.toLowerCase())) {
-						for(int j = 0; j < tagList.size(); j++) {
-							Tag tag = tagList.get(j);
-							for(Attribute attr : tag.getAttributes()) {
-								if(attr.name.equals(attrName.toLowerCase()) && attr.value.equals(attrValue)) {
-									tag.removeIncludeChildren();
-									break;
-								}
-							}
-						}
-						sweep();
-					}
-				} else {
-					tags.remove(i);
-					i--;
+			List<Tag> matches = getTag(type, attrName, attrValue);
+			if(!matches.isEmpty()) {
+				for(Tag tag : matches) {
+					tag.removeIncludeChildren();
 				}
+				sweep();
 			}
 			removeEmptyTags();
+			markRemoval("removeTagAndChildren", type, attrName, attrValue);
 		}
 	}
 	
@@ -435,29 +502,156 @@ public class Indexer {
 	 */
 	public void removeTextTag(String value) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals("text")) {
-						for(int j = 0; j < tagList.size(); j++) {
-							TextTag tag = (TextTag)tagList.get(j);
-							String body = tag.getBody();
-							if(body.equals(value)) {
-								tag.removeIncludeChildren();
-							}
-						}
-						sweep();
+			List<Tag> tagList = tags.get("text");
+			if(tagList != null) {
+				for(int j = 0; j < tagList.size(); j++) {
+					TextTag tag = (TextTag)tagList.get(j);
+					String body = tag.getBody();
+					if(body.equals(value)) {
+						tag.removeIncludeChildren();
 					}
-				} else {
-					tags.remove(i);
-					i--;
 				}
+				sweep();
 			}
 			removeEmptyTags();
+			markRemoval("removeTextTag", value);
 		}
 	}
 	
+	/**
+	 * Applies every rule of the given cleanup plan to the indexed document. The tag tree is walked
+	 * only once: matching tags are removed on the way down, and tags left without children are
+	 * removed on the way back up, just like {@link #removeEmptyTags()} would. The tag lists are
+	 * swept a single time at the end.
+	 * @param plan - The rules to apply
+	 */
+	public void cleanup(CleanupPlan plan) {
+		if(indexed) {
+			for(Tag html : new ArrayList<Tag>(getTag("html"))) {
+				cleanupChildren(html, plan);
+				if(isEmptyTag(html)) {
+					html.removeIncludeChildren();
+				}
+			}
+			sweep();
+			QueryTimeline.mark("cleanup");
+		}
+	}
+
+	/**
+	 * Applies the cleanup plan to the children of the given tag and then to their children.
+	 * @param parent - The tag whose children are to be cleaned
+	 * @param plan - The rules to apply
+	 */
+	private void cleanupChildren(Tag parent, CleanupPlan plan) {
+		List<Tag> children = parent.getChildren();
+		List<Tag> kept = new ArrayList<Tag>(children.size());
+		for(Tag child : children) {
+			CleanupPlan.Rule rule = plan.match(child);
+			if(rule == null) {
+				cleanupChildren(child, plan);
+				if(isEmptyTag(child)) {
+					// Nothing left inside of this tag, get rid of it
+					child.setParent(null);
+				} else {
+					kept.add(child);
+				}
+			} else if(rule.keepChildren) {
+				// Clean the children first, then hand whatever is left to the parent
+				cleanupChildren(child, plan);
+				for(Tag grandChild : child.getChildren()) {
+					grandChild.setParent(parent);
+					kept.add(grandChild);
+				}
+				child.setChildren(new ArrayList<Tag>());
+				child.setParent(null);
+			} else {
+				// Detach the child from its parent first so it doesn't try to remove itself
+				// from the list being walked
+				child.setParent(null);
+				child.removeIncludeChildren();
+			}
+		}
+		parent.setChildren(kept);
+	}
+
+	/**
+	 * @return - True if the given tag can hold children but has none left. Text, doctype and one liner
+	 * tags are never considered empty, neither is a style tag with a style body.
+	 */
+	private boolean isEmptyTag(Tag tag) {
+		if(!tag.getChildren().isEmpty() || tag.getType().equals("text") || tag.getType().equals("doctype")
+				|| tag.getClass() == OneLinerTag.class) {
+			return false;
+		}
+		return tag.getClass() != StyleTag.class || ((StyleTag)tag).getBody().isEmpty();
+	}
+
+	/**
+	 * Finds the tags matching a CSS style selector, see {@link Selector}.
+	 * @param selector - The compiled selector
+	 * @return - The matching tags. Null if no document has been indexed.
+	 */
+	public List<Tag> select(Selector selector) {
+		if(indexed) {
+			return selector.select(this);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a pruned view of the indexed document, see {@link IndexerView}. Tags removed from
+	 * the view stay in this document, so any number of views can share it. Once a document backs
+	 * views it must not be changed itself, or the views will show the changes half way.
+	 * @return - A view showing the whole document. Null if no document has been indexed.
+	 */
+	public IndexerView view() {
+		if(indexed) {
+			// Views look tags up from any thread, so the lazily built index has to be there first
+			buildAttributeIndex();
+			return new IndexerView(this);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Removes all tags matching a CSS style selector along with their children.
+	 * @param selector - The compiled selector (Ex. td.td1 > text:nth-child(2))
+	 */
+	public void removeTagAndChildren(Selector selector) {
+		if(indexed) {
+			List<Tag> matches = selector.select(this);
+			if(!matches.isEmpty()) {
+				for(Tag tag : matches) {
+					tag.removeIncludeChildren();
+				}
+				sweep();
+			}
+			removeEmptyTags();
+			markRemoval("removeTagAndChildren", selector);
+		}
+	}
+
+	/**
+	 * Removes all tags matching a CSS style selector, connecting their children to their parent.
+	 * @param selector - The compiled selector (Ex. td.index > a:first-child)
+	 */
+	public void removeTagOnly(Selector selector) {
+		if(indexed) {
+			List<Tag> matches = selector.select(this);
+			if(!matches.isEmpty()) {
+				for(Tag tag : matches) {
+					tag.removeConnectChildren();
+				}
+				sweep();
+			}
+			removeEmptyTags();
+			markRemoval("removeTagOnly", selector);
+		}
+	}
+
 	/**
 	 * Removes all tags that match the given tag description, connects any children of the removed tags to the
 	 * removed tag's parent.
@@ -467,28 +661,15 @@ public class Indexer {
 	 */
 	public void removeTagOnly(String type, String attrName, String attrValue) {
 		if(indexed) {
-			for(int i = 0; i < tags.size(); i++) {
-				List<Tag> tagList = tags.get(i);
-				if(!tagList.isEmpty()) {
-					String tagType = tagList.get(0).getType();
-					if(tagType.equals(type.toLowerCase())) {
-						for(int j = 0; j < tagList.size(); j++) {
-							Tag tag = tagList.get(j);
-							for(Attribute attr : tag.getAttributes()) {
-								if(attr.name.equals(attrName.toLowerCase()) && attr.value.equals(attrValue)) {
-									tag.removeConnectChildren();
-									break;
-								}
-							}
-						}
-						sweep();
-					}
-				} else {
-					tags.remove(i);
-					i--;
+			List<Tag> matches = getTag(type, attrName, attrValue);
+			if(!matches.isEmpty()) {
+				for(Tag tag : matches) {
+					tag.removeConnectChildren();
 				}
+				sweep();
 			}
 			removeEmptyTags();
+			markRemoval("removeTagOnly", type, attrName, attrValue);
 		}
 	}
 	
@@ -515,6 +696,7 @@ public class Indexer {
 				}
 			}
 			removeEmptyTags();
+			markRemoval("removeChildOf", index, childType, parentType, parentAttrName, parentAttrValue);
 		}
 	}
 	
@@ -541,52 +723,288 @@ public class Indexer {
 				}
 			}
 			removeEmptyTags();
+			markRemoval("removeChildOnlyOf", index, childType, parentType, parentAttrName, parentAttrValue);
 		}
 	}
 	
 	/**
 	 * Removes any parentless tags from the indexed tags, excluding the html and doctype tags as they will never have a parent.
-	 * Also removes any empty lists from the list of lists of tags.
+	 * Also removes any empty lists from the map of tags, and drops the same tags from the attribute index.
 	 */
 	public void sweep() {
 		if(indexed) {
-			for(int j = 0; j < tags.size(); j++) {
-				List<Tag> tagList = tags.get(j);
-				if(!tagList.isEmpty()) {
-					for(int i = 0; i < tagList.size(); i++) {
-						Tag tag = tagList.get(i);
-						if(!tag.getType().equals("html") && !tag.getType().equals("doctype")) {
-							if(tag.getParent() == null) {
-								tagList.remove(i);
-								i--;
-							}
+			for(Iterator<List<Tag>> it = tags.values().iterator(); it.hasNext(); ) {
+				List<Tag> tagList = it.next();
+				removeDetached(tagList);
+				if(tagList.isEmpty()) {
+					it.remove();
+				}
+			}
+			if(attributeIndex != null) {
+				for(Map<String, List<Tag>> byValue : attributeIndex.values()) {
+					for(Iterator<List<Tag>> it = byValue.values().iterator(); it.hasNext(); ) {
+						List<Tag> tagList = it.next();
+						removeDetached(tagList);
+						if(tagList.isEmpty()) {
+							it.remove();
 						}
 					}
-					if(tagList.isEmpty()) {
-						tags.remove(j);
-						j--;
-					}
-				} else {
-					tags.remove(j);
-					j--;
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Removes the parentless tags from the given list while keeping the order of the others.
+	 * @param tagList - The list to compact.
+	 */
+	private void removeDetached(List<Tag> tagList) {
+		int kept = 0;
+		for(int i = 0; i < tagList.size(); i++) {
+			Tag tag = tagList.get(i);
+			if(isAttached(tag)) {
+				tagList.set(kept++, tag);
+			}
+		}
+		while(tagList.size() > kept) {
+			tagList.remove(tagList.size() - 1);
+		}
+	}
+	
+	/**
+	 * @return - False if the given tag has been cut out of the document, true otherwise.
+	 * The html and doctype tags never have a parent and are always considered attached.
+	 */
+	private boolean isAttached(Tag tag) {
+		return tag.getParent() != null || tag.getType().equals("html") || tag.getType().equals("doctype");
+	}
+	
+	/**
+	 * Finds the tags carrying the given attribute name/value pair, building the attribute
+	 * index if this is the first lookup since the document was indexed.
+	 * @return - The matching tags of any type, possibly including tags that have been removed
+	 * since the last sweep. Never null.
+	 */
+	private List<Tag> attributeMatches(String attrName, String attrValue) {
+		buildAttributeIndex();
+		Map<String, List<Tag>> byValue = attributeIndex.get(attrName.toLowerCase());
+		if(byValue != null) {
+			List<Tag> matches = byValue.get(attrValue);
+			if(matches != null) {
+				return matches;
+			}
+		}
+		return new ArrayList<Tag>(0);
+	}
+	
+	private void buildAttributeIndex() {
+		if(attributeIndex == null) {
+			attributeIndex = new HashMap<String, Map<String, List<Tag>>>();
+			for(List<Tag> tagList : tags.values()) {
+				for(Tag tag : tagList) {
+					addToAttributeIndex(tag);
+				}
+			}
+		}
+	}
+	
+	private void addToAttributeIndex(Tag tag) {
+		for(Attribute attr : tag.getAttributes()) {
+			if(attr == null) {
+				continue;
+			}
+			Map<String, List<Tag>> byValue = attributeIndex.get(attr.name);
+			if(byValue == null) {
+				byValue = new HashMap<String, List<Tag>>();
+				attributeIndex.put(attr.name, byValue);
+			}
+			List<Tag> list = byValue.get(attr.value);
+			if(list == null) {
+				list = new ArrayList<Tag>();
+				byValue.put(attr.value, list);
+			}
+			// A tag repeating the same attribute only needs to be listed once
+			if(list.isEmpty() || list.get(list.size() - 1) != tag) {
+				list.add(tag);
+			}
+		}
+	}
+	
 	/**
 	 * Indexes the html document being read from the specified input reader
 	 * @param in - Input reader that is reading from the html document
 	 */
 	public void index(BufferedReader in) {
+		index(in, null);
+	}
+
+	/**
+	 * Indexes the html document being read from the specified input reader, parsing each
+	 * chunk as soon as the reader hands it over. Rules of the given plan that can be decided
+	 * from a tag alone are applied while indexing: a tag to be removed along with its children
+	 * is never built and nothing inside of it is kept, a tag to be removed on its own hands
+	 * its children straight to its parent, and matching text is dropped. Tags left empty are
+	 * not removed until {@link #cleanup(CleanupPlan)} is run with the same plan.
+	 * 
+	 * @param in - Input reader that is reading from the html document
+	 * @param plan - Rules to apply while indexing, null to keep every tag. Ignored by the legacy
+	 * line based indexing.
+	 */
+	public void index(BufferedReader in, CleanupPlan plan) {
 		if(in == null) {
 			return;
 		}
 		
-		if(indexed == true) {
-			initialize();
+		if(legacyIndexing) {
+			if(indexed == true) {
+				initialize();
+			}
+			indexLines(in);
+			markIndexed();
+			return;
 		}
-		
+
+		startIndexing(plan);
+		try {
+			tokenizer.tokenize(in);
+			closeRemainingTags();
+			indexed = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		tokenizer = null;
+		markIndexed();
+	}
+
+	/**
+	 * Marks the end of indexing in the timeline of the query being run, if any, along with
+	 * the number of tags indexed.
+	 */
+	private void markIndexed() {
+		if(QueryTimeline.current() != null) {
+			int nodes = 0;
+			for(List<Tag> tagList : tags.values()) {
+				nodes += tagList.size();
+			}
+			QueryTimeline.count("nodes", nodes);
+			QueryTimeline.mark("index");
+		}
+	}
+
+	/**
+	 * Marks the end of a removal in the timeline of the query being run, if any, so every
+	 * removal a source makes is timed on its own.
+	 * @param method - Name of the removal method
+	 * @param args - Its arguments
+	 */
+	private static void markRemoval(String method, Object... args) {
+		if(QueryTimeline.current() != null) {
+			QueryTimeline.mark(CleanupPlan.describe(method, args));
+		}
+	}
+
+	/**
+	 * Starts indexing a document that is handed over in chunks with {@link #feed(char[], int, int)},
+	 * for callers that receive the document piece by piece instead of through a reader. Any
+	 * previously indexed document is dropped.
+	 * 
+	 * @param plan - Rules to apply while indexing, see {@link #index(BufferedReader, CleanupPlan)}
+	 */
+	public void startIndexing(CleanupPlan plan) {
+		initialize();
+		earlyPlan = plan;
+		tokenizer = new Tokenizer(new TreeBuilder());
+	}
+
+	/**
+	 * Indexes the next chunk of a document started with {@link #startIndexing(CleanupPlan)}.
+	 * 
+	 * @param buf - Buffer holding the chunk
+	 * @param start - Index of the first character of the chunk
+	 * @param length - Number of characters in the chunk
+	 */
+	public void feed(char[] buf, int start, int length) {
+		if(tokenizer == null) {
+			throw new IllegalStateException("No document is being indexed");
+		}
+		tokenizer.feed(buf, start, length);
+	}
+
+	/**
+	 * Finishes indexing a document started with {@link #startIndexing(CleanupPlan)}. Tags that
+	 * were never closed are closed.
+	 */
+	public void finishIndexing() {
+		if(tokenizer == null) {
+			throw new IllegalStateException("No document is being indexed");
+		}
+		tokenizer.finish();
+		tokenizer = null;
+		closeRemainingTags();
+		indexed = true;
+	}
+
+	/**
+	 * Turns the old line based indexing path on or off for every indexer created from
+	 * now on. The streaming tokenizer is used by default.
+	 *
+	 * @param legacy - True to splice documents line by line, false to use the tokenizer.
+	 */
+	public static void setLegacyIndexing(boolean legacy) {
+		legacyIndexing = legacy;
+	}
+
+	/**
+	 * @return - True if documents are indexed with the old line based splicing.
+	 */
+	public static boolean isLegacyIndexing() {
+		return legacyIndexing;
+	}
+
+	/**
+	 * Closes any tags that were still open when the document ended, innermost first.
+	 */
+	private void closeRemainingTags() {
+		while(!tagStack.isEmpty()) {
+			popTag();
+		}
+	}
+
+	/**
+	 * Removes the innermost tag from the tagStack and adds it to the indexed tags, unless
+	 * it was cut out by the early plan.
+	 */
+	private void popTag() {
+		strStack.remove(strStack.size() - 1);
+		Tag tag = tagStack.remove(tagStack.size() - 1);
+		if(tagStack.size() <= dropFrom) {
+			dropFrom = -1;
+		}
+		if(tag.getClass() != SkippedTag.class) {
+			addToTagsList(tag);
+		}
+	}
+
+	/**
+	 * @return - The innermost open tag that is part of the document, which is where new tags
+	 * go. Null if there is none.
+	 */
+	private Tag openParent() {
+		for(int i = tagStack.size() - 1; i >= 0; i--) {
+			Tag tag = tagStack.get(i);
+			if(tag.getClass() != SkippedTag.class) {
+				return tag;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Indexes the html document line by line, splicing comments, scripts and styles out of
+	 * each line before handing it to the tag handler. This is the original indexing path.
+	 * @param in - Input reader that is reading from the html document
+	 */
+	private void indexLines(BufferedReader in) {
 		String inputLine;
 		try {
 			String fabricatedLine = "";
@@ -1025,31 +1443,12 @@ public class Indexer {
 					 * Our option now looks like this:
 					 * option = "input class="linkbox" onclick="this.select()" value=""
 					 * 
-					 * Obviously this isn't yet finished, we should append the next section in order to accurately index this tag
+					 * Obviously this isn't yet finished, we should append the next sections until the
+					 * tag is closed outside of any quotes in order to accurately index this tag
 					 */
-					option += "<" + preTagScan.next().trim();
-					
-					// Now we have a somewhat normal tag, except for the > contained within, let's replace those with a special character
-					// so it doesn't mess up our delimiters
-					option = option.replace(">", "?!@**#$");
-					
-					// We only wanted to replace the middle instances of >, let's put back the last one so we don't break our own code
-					int lastIndex = option.lastIndexOf("?!@**#$");
-					option = option.substring(0, lastIndex) + ">" + option.substring(lastIndex + new String("?!@**#$").length(), option.length());
-					
-					// We also want to get rid of any spaces in the enclosed tag, we'll add them back later
-					int openIndex = option.indexOf("<");
-					int closeIndex = option.lastIndexOf("?!@**#$");
-					option = option.substring(0, openIndex) 
-					+ option.substring(openIndex, closeIndex).replace(" ", "*&^%$#@!?")
-					+ option.substring(closeIndex, option.length());
-					
-					// We also want to get rid of any other = signs in the enclosed tag, we'll add them back later
-					int openIndexEq = option.indexOf("<");
-					int closeIndexEq = option.lastIndexOf("?!@**#$");
-					option = option.substring(0, openIndexEq) 
-					+ option.substring(openIndexEq, closeIndexEq).replace("=", "!#?@%$&^")
-					+ option.substring(closeIndexEq, option.length());
+					do {
+						option += "<" + preTagScan.next();
+					} while(AttributeLexer.tagEnd(option, 0) < 0 && preTagScan.hasNext());
 				} else {
 					handleText(option);
 					continue;
@@ -1063,17 +1462,21 @@ public class Indexer {
 			 * treat the tags differently depending on what they are
 			 */
 			
-			// Now let's break this option up around any > contained within
-			Scanner postTagScan = new Scanner(option).useDelimiter(">");
+			// Now let's break this option up around the > closing the tag, any > inside
+			// quoted attribute values are skipped over
+			int tagEnd = AttributeLexer.tagEnd(option, 0);
+			if(tagEnd < 0) {
+				tagEnd = option.length();
+			}
 			
-			if(postTagScan.hasNext()) {
+			if(tagEnd > 0) {
 				/* At this point we have one of three possibilities:
 				 * 1. someOpeningTag someAtrribute="someValue"
 				 * 2. someOpeningTag someAtrribute="someValue" /
 				 * 2. (continued) (Note: This tag both opens and closes within the brackets)
 				 * 3. /someClosingTag
 				 */
-				String possibility = postTagScan.next().trim(); // Trim unnecessary spaces
+				String possibility = option.substring(0, tagEnd).trim(); // Trim unnecessary spaces
 				
 				// Let's take care of possibility 3 first as it is the most unique
 				if(possibility.startsWith("/")) {
@@ -1093,9 +1496,9 @@ public class Indexer {
 				}
 			}
 			
-			// Let's not forget about the possible text that could be sitting in the scanner
-			if(postTagScan.hasNext()) {
-				handleText(postTagScan.next());
+			// Let's not forget about the possible text that comes after the tag
+			if(tagEnd + 1 < option.length()) {
+				handleText(option.substring(tagEnd + 1));
 			}
 		}
 	}
@@ -1222,25 +1625,10 @@ public class Indexer {
 			String leftToHandle = inputLine.substring(endOfOpenTag + 1, inputLine.length()).trim();
 			leftToHandle = cleanAndReplace(leftToHandle, "<&style", "<style");
 			
-			Scanner tagScan = new Scanner(styleTagInfo);
-
 			StyleTag style = new StyleTag();
-			if(tagScan.hasNext()) {
-				
+			if(styleTagInfo.length() > 0) {
 				List<Attribute> attrs = new ArrayList<Attribute>();
-				while(tagScan.hasNext()) {
-					String next = "";
-					boolean improperAttribute = true;
-					while(improperAttribute) {
-						if(!next.equals("")) {
-							next += " ";
-						}
-						next += tagScan.next();
-						improperAttribute = !(((next.indexOf("\"") < next.length()) && next.endsWith("\"")) || ((next.indexOf("'") < next.length()) && next.endsWith("'")));
-					}
-					attrs.add(parseAttribute(next));
-				}
-				
+				AttributeLexer.attributes(styleTagInfo, 0, attrs);
 				style.setAttributes(attrs);
 			}
 			
@@ -1274,9 +1662,7 @@ public class Indexer {
 		if(tagInfo.toLowerCase().startsWith("!doctype")) {
 			// The doctype is weird, let's save that out separately
 			DoctypeTag doc = new DoctypeTag(tagInfo);
-			List<Tag> docList = new ArrayList<Tag>();
-			docList.add(doc);
-			tags.add(docList);
+			addToTagsList(doc);
 			return;
 		}
 		Tag tag = oneLinerInProg ? new OneLinerTag() : null;
@@ -1298,11 +1684,11 @@ public class Indexer {
 		// someOpeningTag someAtrribute="someValue"
 		
 		// Let's break it up into a tag type and some attributes
-		Scanner tagScan = new Scanner(tagInfo);
+		int typeEnd = AttributeLexer.typeEnd(tagInfo);
+		String type = tagInfo.substring(0, typeEnd).trim().toLowerCase();
 		
-		if(tagScan.hasNext()) {
+		if(type.length() > 0) {
 			if(tag == null || oneLinerInProg) {
-				String type = tagScan.next().toLowerCase();
 				if(oneLinerInProg) {
 					tag.setType(type);
 				} else {
@@ -1311,19 +1697,7 @@ public class Indexer {
 			}
 			
 			List<Attribute> attrs = new ArrayList<Attribute>();
-			while(tagScan.hasNext()) {
-				String next = "";
-				boolean improperAttribute = true;
-				while(improperAttribute && tagScan.hasNext()) {
-					if(!next.equals("")) {
-						next += " ";
-					}
-					next += tagScan.next();
-					improperAttribute = !quoteCount(next);
-					//improperAttribute = !(((next.indexOf("\"") < next.length()) && next.endsWith("\"")) || ((next.indexOf("'") < next.length()) && next.endsWith("'")));
-				}
-				attrs.add(parseAttribute(next));
-			}
+			AttributeLexer.attributes(tagInfo, typeEnd, attrs);
 			
 			tag.setAttributes(attrs);
 			
@@ -1342,58 +1716,6 @@ public class Indexer {
 		}
 	}
 	
-	/**
-	 * Helps determine if a certain " or ' is the closing character for a term.
-	 * 
-	 * @param line The current line being parsed.
-	 * @return True if the tag is complete.
-	 */
-	private boolean quoteCount(String line) {
-		int single = 0; // The number of ' characters in the line.
-		int doub = 0; // The number of " characters in the line.
-		int helper = -1; // A helper variable.
-		int index = -1; // The index of the first ' or " (which ever comes first).
-		
-		// Get the first instance of ' or ".
-		helper = line.indexOf("=") + 1;
-		while (helper < line.length() && (line.charAt(helper) != '\'' && line.charAt(helper) != '"'))
-			helper++;
-		// If the characters don't exist, return false.
-		if (helper >= line.length())
-			return false;
-		index = helper; // Store the index for later use.
-		
-		// Determine how many " are in the line.
-		String myLine = new String(line);
-		while (myLine.length() > 0 && (helper = myLine.indexOf("\"")) >= 0) {
-			myLine = myLine.substring(helper + 1);
-			doub++;
-		}
-		
-		// Determine how many ' are in the line.
-		myLine = new String(line);
-		while (myLine.length() > 0 && (helper = myLine.indexOf("'")) >= 0) {
-			myLine = myLine.substring(helper + 1);
-			single++;
-		}
-		
-		// If the line starts with a ', has an even number of ', and
-		// ends with a ' return true.
-		if (line.charAt(index) == '\'') {
-			if (single % 2 != 0)
-				return false;
-			return line.endsWith("'");
-		}
-		// Else if the line starts with a ", has an even number of ", and
-		// ends with a " return true;
-		else if (line.charAt(index) == '"') {
-			if (doub % 2 != 0)
-				return false;
-			return line.endsWith("\"");
-		}
-		return false;
-	}
-
 	private void handleOneLiner(String tagInfo) {
 		oneLinerInProg = true;
 		handleOpeningTag(tagInfo.substring(0, tagInfo.length() - 1));
@@ -1409,21 +1731,16 @@ public class Indexer {
 	}
 
 	private void addToTagsList(Tag tag) {
-		List<Tag> list = null;
-		for(List<Tag> l : tags) {
-			if(l.get(0).getType().equals(tag.getType())) {
-				list = l;
-				break;
-			}
-		}
-		if(list != null) {
-			list.add(tag);
-		} else {
+		List<Tag> list = tags.get(tag.getType());
+		if(list == null) {
 			list = new ArrayList<Tag>();
-			list.add(tag);
-			tags.add(list);
+			tags.put(tag.getType(), list);
 		}
+		list.add(tag);
 		
+		if(attributeIndex != null) {
+			addToAttributeIndex(tag);
+		}
 	}
 
 	private void handleClosingTag(String tagInfo) {
@@ -1449,17 +1766,12 @@ public class Indexer {
 	// If no current tags exist in the tag stack, ignore this block, otherwise add the text
 	// in the necessary position.
 	private void handleText(String text) {
-		if(!tagStack.isEmpty()) {
-			if(text.contains("–")) {
-				text = text.replace("–", "-");
-			}
-			if(text.contains("—")) {
-				text = text.replace("—", "-");
-			}
-			if(text.contains("")) {
-				text = text.replace("", "");
+		Tag bottomTag = openParent();
+		if(bottomTag != null) {
+			text = TextNormalizer.normalize(text);
+			if(earlyPlan != null && earlyPlan.match("text", Collections.<Attribute>emptyList(), text) != null) {
+				return;
 			}
-			Tag bottomTag = tagStack.get(tagStack.size() - 1);
 			TextTag textTag = new TextTag(text);
 			bottomTag.addChild(textTag);
 			textTag.setParent(bottomTag);
@@ -1467,47 +1779,132 @@ public class Indexer {
 		}
 	}
 
-	private Attribute parseAttribute(String attrString) {
-		if(attrString.contains("?!@**#$")) {
-			attrString = attrString.replace("?!@**#$", ">");
+	private String removeExtraWhiteSpace(String inputStr) {
+		String patternStr = "\\s+";
+	    String replaceStr = " ";
+	    Pattern pattern = Pattern.compile(patternStr);
+	    Matcher matcher = pattern.matcher(inputStr);
+	    return matcher.replaceAll(replaceStr);
+	}
+
+	/**
+	 * Builds the tag tree from the events of the streaming tokenizer. Comments and scripts
+	 * are ignored just like they are in the line based path.
+	 */
+	private class TreeBuilder implements TokenHandler {
+
+		@Override
+		public void openTag(String type, List<Attribute> attributes, boolean selfClosing) {
+			boolean oneLiner = selfClosing || VOID_TYPES.contains(type);
+			if(dropFrom >= 0 || earlyPlan != null && skip(type, attributes, oneLiner)) {
+				if(!oneLiner) {
+					tagStack.add(new SkippedTag(type));
+					strStack.add(type);
+				}
+				return;
+			}
+
+			Tag tag;
+			if(oneLiner) {
+				tag = new OneLinerTag();
+				tag.setType(type);
+			} else {
+				tag = new Tag(type, null, null);
+			}
+			tag.setAttributes(attributes);
+
+			Tag bottomTag = openParent();
+			if(bottomTag != null) {
+				bottomTag.addChild(tag);
+				tag.setParent(bottomTag);
+			}
+
+			if(tag.getClass() == OneLinerTag.class) {
+				addToTagsList(tag);
+			} else {
+				tagStack.add(tag);
+				strStack.add(type);
+			}
 		}
 
-		if(attrString.contains("*&^%$#@!?")) {
-			attrString = attrString.replace("*&^%$#@!?", " ");
+		@Override
+		public void closeTag(String type) {
+			// Find the matching tag in the tagStack, anything opened after it and never
+			// closed is closed along with it
+			for(int i = tagStack.size() - 1; i >= 0; i--) {
+				if(tagStack.get(i).getType().equals(type)) {
+					while(tagStack.size() > i) {
+						popTag();
+					}
+					break;
+				}
+			}
 		}
-		
-		attrString = attrString.replace("=", "!#?@%$&^");
-		int firstIndex = attrString.indexOf("!#?@%$&^");
-		if (firstIndex >= 0)
-			attrString = attrString.substring(0, firstIndex) + "=" + attrString.substring(firstIndex + new String("!#?@%$&^").length());
-		
-		Scanner scanner = new Scanner(attrString).useDelimiter("=");
-		String name = null;
-		String value = null;
-		if(scanner.hasNext()) {
-			name = scanner.next();
+
+		/**
+		 * Checks the early plan for a tag that is being opened. A tag whose children go along
+		 * with it starts a dropped stretch of the document, unless it has no children.
+		 * @return - True if the tag is not to be built
+		 */
+		private boolean skip(String type, List<Attribute> attributes, boolean oneLiner) {
+			CleanupPlan.Rule rule = earlyPlan.match(type, attributes, null);
+			if(rule == null) {
+				return false;
+			}
+			if(!rule.keepChildren && !oneLiner) {
+				dropFrom = tagStack.size();
+			}
+			return true;
 		}
-		if(scanner.hasNext()) {
-			String next = scanner.next();
-			if(next.contains("!#?@%$&^")) {
-				next = next.replace("!#?@%$&^", "=");
+
+		@Override
+		public void text(char[] buf, int start, int length) {
+			if(dropFrom >= 0) {
+				return;
+			}
+			// Blocks of nothing but white space are of no use to anybody
+			for(int i = start; i < start + length; i++) {
+				if(buf[i] != ' ') {
+					handleText(new String(buf, start, length));
+					return;
+				}
 			}
-			value = next.substring(1, next.length() - 1);
 		}
-		if(name == null || value == null) {
-			return null;
+
+		@Override
+		public void comment(char[] buf, int start, int length) {
+		}
+
+		@Override
+		public void script(String type, List<Attribute> attributes, char[] buf, int start, int length) {
+		}
+
+		@Override
+		public void style(List<Attribute> attributes, char[] buf, int start, int length) {
+			// A style has no children to hand over, so any rule matching it removes it
+			if(dropFrom >= 0 || earlyPlan != null && earlyPlan.match("style", attributes, null) != null) {
+				return;
+			}
+			StyleTag style = new StyleTag();
+			style.setAttributes(attributes);
+			String body = new String(buf, start, length).trim();
+			if(!body.isEmpty()) {
+				style.appendBody(body);
+			}
+			Tag bottomTag = openParent();
+			if(bottomTag != null) {
+				bottomTag.addChild(style);
+				style.setParent(bottomTag);
+			}
+			addToTagsList(style);
+		}
+
+		@Override
+		public void doctype(String doctypeInfo) {
+			addToTagsList(new DoctypeTag(doctypeInfo));
 		}
-		return new Attribute(name, value);
-	}
-	
-	private String removeExtraWhiteSpace(String inputStr) {
-		String patternStr = "\\s+";
-	    String replaceStr = " ";
-	    Pattern pattern = Pattern.compile(patternStr);
-	    Matcher matcher = pattern.matcher(inputStr);
-	    return matcher.replaceAll(replaceStr);
 	}
-	
+
 //	public void tester(String toSpliceForScripts, String toSpliceForComments, String toSpliceForStyles) {
 //		scriptInProg = false;
 //		System.out.println(spliceScript(toSpliceForScripts));
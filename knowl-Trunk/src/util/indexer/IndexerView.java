@@ -0,0 +1,368 @@
+package util.indexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A pruned view of an indexed document. The removal methods mirror those of {@link Indexer},
+ * but instead of cutting tags out of the tag tree they only note which tags the view leaves
+ * out, so the document itself is never changed. Any number of views can share a document,
+ * each showing its own cleanup, and a view can be the starting point of further views: a
+ * cleanup common to several sources is done once and every source carries on from there.
+ *
+ * Views only read the document, so views on the same document can be used from different
+ * threads. A single view is not thread safe. The document must not be changed once it backs
+ * views, see {@link Indexer#view()}.
+ *
+ * Tags are looked up by type and attribute only; selectors work on the tag tree and so only
+ * on the document itself.
+ */
+public class IndexerView {
+
+	/**
+	 * The document being viewed
+	 */
+	private Indexer base;
+
+	/**
+	 * Tags left out of this view along with their children
+	 */
+	private Set<Tag> removed;
+
+	/**
+	 * Tags left out of this view whose children take their place
+	 */
+	private Set<Tag> unwrapped;
+
+	/**
+	 * Tags with a removed or unwrapped child. The children of any other tag are shown as they
+	 * are in the document.
+	 */
+	private Set<Tag> changed;
+
+	/**
+	 * Writes the view out as html. Created the first time it is needed.
+	 */
+	private HtmlSerializer serializer;
+
+	/**
+	 * Creates a view showing the whole document.
+	 * @param base - The indexed document
+	 */
+	IndexerView(Indexer base) {
+		this.base = base;
+		removed = new HashSet<Tag>();
+		unwrapped = new HashSet<Tag>();
+		changed = new HashSet<Tag>();
+	}
+
+	/**
+	 * Creates a view starting out with everything the given view leaves out.
+	 * @param parent - The view to carry on from
+	 */
+	private IndexerView(IndexerView parent) {
+		base = parent.base;
+		removed = new HashSet<Tag>(parent.removed);
+		unwrapped = new HashSet<Tag>(parent.unwrapped);
+		changed = new HashSet<Tag>(parent.changed);
+	}
+
+	/**
+	 * Creates a view carrying on from this one. Tags removed from the new view are still shown
+	 * by this one.
+	 * @return - A view of the same document, leaving out what this view leaves out
+	 */
+	public IndexerView view() {
+		return new IndexerView(this);
+	}
+
+	/**
+	 * @return - The document being viewed
+	 */
+	public Indexer getBase() {
+		return base;
+	}
+
+	/**
+	 * Finds the tags shown by this view matching the given tag description, see
+	 * {@link Indexer#getTag(String, String, String)}.
+	 * @param type - The type of the tag to be found.
+	 * @param attributeName - The attribute name of the tag to be found. (Ex. class, href, id)
+	 * @param attributeValue - The attribute value to be found.
+	 * @return - A list of tags matching the given information, in order of appearance.
+	 */
+	public List<Tag> getTag(String type, String attributeName, String attributeValue) {
+		return shown(base.getTag(type, attributeName, attributeValue));
+	}
+
+	/**
+	 * @param type - Tag type to search for.
+	 * @return - A list containing all the tags of the specified type shown by this view.
+	 */
+	public List<Tag> getTag(String type) {
+		return shown(base.getTag(type));
+	}
+
+	/**
+	 * Leaves all tags of the specified type and their children out of this view
+	 * @param type - Tag type to remove from this view
+	 */
+	public void removeType(String type) {
+		for(Tag tag : getTag(type)) {
+			remove(tag);
+		}
+		removeEmptyTags();
+	}
+
+	/**
+	 * Leaves all tags of the specified type out of this view, showing their children in their place
+	 * @param type - Tag type to remove from this view
+	 */
+	public void removeTypeOnly(String type) {
+		for(Tag tag : getTag(type)) {
+			unwrap(tag);
+		}
+		removeEmptyTags();
+	}
+
+	/**
+	 * Leaves all tags that match the given tag description out of this view, along with their children
+	 * @param type - The tag type to search for and remove
+	 * @param attrName - An attribute name to help find a tag match
+	 * @param attrValue - An attribute value corresponding to the attribute name to help find a tag match
+	 */
+	public void removeTagAndChildren(String type, String attrName, String attrValue) {
+		for(Tag tag : getTag(type, attrName, attrValue)) {
+			remove(tag);
+		}
+		removeEmptyTags();
+	}
+
+	/**
+	 * Leaves all tags that match the given tag description out of this view, showing their children
+	 * in their place
+	 * @param type - The tag type to search for and remove
+	 * @param attrName - An attribute name to help find a tag match
+	 * @param attrValue - An attribute value corresponding to the attribute name to help find a tag match
+	 */
+	public void removeTagOnly(String type, String attrName, String attrValue) {
+		for(Tag tag : getTag(type, attrName, attrValue)) {
+			unwrap(tag);
+		}
+		removeEmptyTags();
+	}
+
+	/**
+	 * Leaves any text tags whose text body matches the input value out of this view
+	 * @param value - The text body to search for
+	 */
+	public void removeTextTag(String value) {
+		for(Tag tag : getTag("text")) {
+			if(((TextTag)tag).getBody().equals(value)) {
+				remove(tag);
+			}
+		}
+		removeEmptyTags();
+	}
+
+	/**
+	 * Leaves out every tag that can hold children but has none left in this view, the same as
+	 * {@link Indexer#removeEmptyTags()}. Every removal method already does this.
+	 */
+	public void removeEmptyTags() {
+		cleanup(null);
+	}
+
+	/**
+	 * Applies every rule of the given cleanup plan to this view in a single walk of the tag tree,
+	 * the same as {@link Indexer#cleanup(CleanupPlan)} would to the document.
+	 * @param plan - The rules to apply, null to only leave out the tags left empty
+	 */
+	public void cleanup(CleanupPlan plan) {
+		for(Tag html : getTag("html")) {
+			cleanupChildren(html, plan);
+		}
+	}
+
+	/**
+	 * Applies the cleanup plan to the children of the given tag shown by this view and then to
+	 * their children.
+	 * @param parent - The tag whose children are to be cleaned
+	 * @param plan - The rules to apply, null for none
+	 * @return - True if the tag still shows any children
+	 */
+	private boolean cleanupChildren(Tag parent, CleanupPlan plan) {
+		boolean kept = false;
+		for(Tag child : parent.getChildren()) {
+			if(removed.contains(child)) {
+				continue;
+			}
+			if(unwrapped.contains(child)) {
+				// The children of this tag are shown as children of the parent
+				kept |= cleanupChildren(child, plan);
+				continue;
+			}
+			CleanupPlan.Rule rule = (plan == null) ? null : plan.match(child);
+			if(rule == null) {
+				if(cleanupChildren(child, plan) || !canBeEmpty(child)) {
+					kept = true;
+				} else {
+					// Nothing left inside of this tag, leave it out
+					remove(child);
+				}
+			} else if(rule.keepChildren) {
+				unwrap(child);
+				kept |= cleanupChildren(child, plan);
+			} else {
+				remove(child);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return - True if the given tag is left out of the document when it has no children. Text,
+	 * doctype and one liner tags never are, neither is a style tag with a style body.
+	 */
+	private boolean canBeEmpty(Tag tag) {
+		if(tag.getType().equals("text") || tag.getType().equals("doctype") || tag.getClass() == OneLinerTag.class) {
+			return false;
+		}
+		return tag.getClass() != StyleTag.class || ((StyleTag)tag).getBody().isEmpty();
+	}
+
+	private void remove(Tag tag) {
+		removed.add(tag);
+		if(tag.getParent() != null) {
+			changed.add(tag.getParent());
+		}
+	}
+
+	private void unwrap(Tag tag) {
+		// The html tag has nothing to hand its children to
+		if(tag.getParent() != null) {
+			unwrapped.add(tag);
+			changed.add(tag.getParent());
+		}
+	}
+
+	/**
+	 * @return - The tags of the given list shown by this view, in the same order
+	 */
+	private List<Tag> shown(List<Tag> tags) {
+		List<Tag> shown = new ArrayList<Tag>(tags.size());
+		for(Tag tag : tags) {
+			if(isShown(tag)) {
+				shown.add(tag);
+			}
+		}
+		return shown;
+	}
+
+	/**
+	 * @return - True if neither the given tag nor any of its ancestors is left out of this view
+	 */
+	private boolean isShown(Tag tag) {
+		if(unwrapped.contains(tag)) {
+			return false;
+		}
+		for(Tag t = tag; t != null; t = t.getParent()) {
+			if(removed.contains(t)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the children of the given tag shown by this view to a list, with the children of
+	 * unwrapped tags in their place.
+	 */
+	private void addShownChildren(Tag tag, List<Tag> out) {
+		for(Tag child : tag.getChildren()) {
+			if(unwrapped.contains(child)) {
+				addShownChildren(child, out);
+			} else if(!removed.contains(child)) {
+				out.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Writes this view to a string in html format, see {@link Indexer#toHtml()}.
+	 * @return - The html of this view
+	 */
+	public String toHtml() {
+		return toHtml(false);
+	}
+
+	/**
+	 * Writes this view to a string in html format.
+	 * @param compact - True to leave out the line separator written after every tag
+	 * @return - The html of this view
+	 */
+	public String toHtml(boolean compact) {
+		StringBuilder html = new StringBuilder();
+		HtmlSerializer serializer = getSerializer(compact);
+		for(Tag root : roots()) {
+			serializer.serialize(root, html);
+		}
+		return html.toString();
+	}
+
+	/**
+	 * Writes this view to a file in html format.
+	 * @param out - Buffered writer for writing to the output file.
+	 * @return - True if the view was written to the file successfully, false otherwise.
+	 */
+	public boolean linesToFile(BufferedWriter out) {
+		HtmlSerializer serializer = getSerializer(false);
+		try {
+			for(Tag root : roots()) {
+				serializer.serialize(root, out);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return - The doctype and then the html tag, if this view shows them
+	 */
+	private List<Tag> roots() {
+		List<Tag> roots = new ArrayList<Tag>(2);
+		List<Tag> docList = getTag("doctype");
+		if(!docList.isEmpty()) {
+			roots.add(docList.get(0));
+		}
+		List<Tag> htmlList = getTag("html");
+		if(!htmlList.isEmpty()) {
+			roots.add(htmlList.get(0));
+		}
+		return roots;
+	}
+
+	private HtmlSerializer getSerializer(boolean compact) {
+		if(serializer == null) {
+			serializer = new HtmlSerializer(compact) {
+				@Override
+				protected List<Tag> getChildren(Tag tag) {
+					if(!changed.contains(tag)) {
+						return tag.getChildren();
+					}
+					List<Tag> shown = new ArrayList<Tag>(tag.getChildren().size());
+					addShownChildren(tag, shown);
+					return shown;
+				}
+			};
+		}
+		serializer.setCompact(compact);
+		return serializer;
+	}
+}
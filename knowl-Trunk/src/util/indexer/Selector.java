@@ -0,0 +1,416 @@
+package util.indexer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled CSS style selector for finding tags in an indexed document. Selectors are
+ * compiled once and can then be used on any number of documents, so a source can keep
+ * its selectors in static fields.
+ *
+ * Supported syntax:
+ * <ul>
+ * <li>type selectors and *, where the type can also be text (Ex. div, td, text)</li>
+ * <li>#id, .class (a tag matches if its class list contains the class)</li>
+ * <li>[name] and [name=value], the value may be quoted</li>
+ * <li>:nth-child(n), :nth-last-child(n), :first-child and :last-child</li>
+ * <li>descendant (space) and child (&gt;) combinators</li>
+ * <li>groups of selectors separated by commas</li>
+ * </ul>
+ * Unlike in CSS, the position of a tag among its siblings counts text tags as well, so
+ * td.td1 &gt; text:nth-child(2) is the same tag as the Indexer's getChild(1) of the td.
+ *
+ * Examples: div#leftRail, div.sep_top.shd_hdr, td.td1 &gt; text:nth-child(2)
+ */
+public class Selector {
+
+	/**
+	 * How a step relates to the step before it
+	 */
+	private static final int DESCENDANT = 0;
+	private static final int CHILD = 1;
+
+	/**
+	 * One compound selector (Ex. div.sep_top#main) along with the combinator joining
+	 * it to the step before it.
+	 */
+	private static class Step {
+		int combinator = DESCENDANT;
+		String type;
+		String id;
+		List<String> classes = new ArrayList<String>(1);
+		List<String> attrNames = new ArrayList<String>(0);
+		List<String> attrValues = new ArrayList<String>(0);
+		/**
+		 * 1-based position among the siblings, 0 if any position will do
+		 */
+		int position;
+		boolean fromEnd;
+
+		boolean matches(Tag tag) {
+			if(type != null && !type.equals(tag.getType())) {
+				return false;
+			}
+			if(id != null && !id.equals(attribute(tag, "id"))) {
+				return false;
+			}
+			if(!classes.isEmpty()) {
+				String classList = attribute(tag, "class");
+				if(classList == null) {
+					return false;
+				}
+				for(String cls : classes) {
+					if(!containsToken(classList, cls)) {
+						return false;
+					}
+				}
+			}
+			for(int i = 0; i < attrNames.size(); i++) {
+				String value = attribute(tag, attrNames.get(i));
+				if(value == null || (attrValues.get(i) != null && !attrValues.get(i).equals(value))) {
+					return false;
+				}
+			}
+			return position == 0 || position == position(tag, fromEnd);
+		}
+	}
+
+	/**
+	 * The text the selector was compiled from
+	 */
+	private String source;
+
+	/**
+	 * The selectors of the group, each one as a list of steps from left to right
+	 */
+	private List<Step[]> alternatives;
+
+	private Selector(String source, List<Step[]> alternatives) {
+		this.source = source;
+		this.alternatives = alternatives;
+	}
+
+	/**
+	 * Compiles a selector.
+	 *
+	 * @param selector - The selector text (Ex. div.sep_top.shd_hdr)
+	 * @return - The compiled selector
+	 * @throws IllegalArgumentException - If the selector can't be parsed
+	 */
+	public static Selector compile(String selector) {
+		return new Parser(selector).parse();
+	}
+
+	/**
+	 * Finds the tags of the given document matching this selector. When every selector of
+	 * the group names a type, the candidates are taken straight from the type index of the
+	 * document, otherwise the document is walked once.
+	 *
+	 * @param indexer - The indexed document to search
+	 * @return - The matching tags, each one once. Empty if nothing matches or no document
+	 * has been indexed.
+	 */
+	public List<Tag> select(Indexer indexer) {
+		List<Tag> matches = new ArrayList<Tag>();
+		if(indexer.getTag("html") == null) {
+			return matches;
+		}
+		boolean typed = true;
+		for(Step[] steps : alternatives) {
+			typed &= steps[steps.length - 1].type != null;
+		}
+		if(typed) {
+			Set<Tag> seen = new HashSet<Tag>();
+			for(Step[] steps : alternatives) {
+				for(Tag tag : indexer.getTag(steps[steps.length - 1].type)) {
+					if(matches(tag, steps, steps.length - 1) && inDocument(tag) && seen.add(tag)) {
+						matches.add(tag);
+					}
+				}
+			}
+		} else {
+			List<Tag> stack = new ArrayList<Tag>(indexer.getTag("html"));
+			while(!stack.isEmpty()) {
+				Tag tag = stack.remove(stack.size() - 1);
+				if(matches(tag)) {
+					matches.add(tag);
+				}
+				// Push the children backwards so they come off the stack in document order
+				List<Tag> children = tag.getChildren();
+				for(int i = children.size() - 1; i >= 0; i--) {
+					stack.add(children.get(i));
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param tag - The tag to check
+	 * @return - True if the given tag matches this selector
+	 */
+	public boolean matches(Tag tag) {
+		for(Step[] steps : alternatives) {
+			if(matches(tag, steps, steps.length - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/**
+	 * Matches the steps from right to left, trying every ancestor for a descendant combinator
+	 */
+	private static boolean matches(Tag tag, Step[] steps, int step) {
+		if(!steps[step].matches(tag)) {
+			return false;
+		}
+		if(step == 0) {
+			return true;
+		}
+		if(steps[step].combinator == CHILD) {
+			return tag.getParent() != null && matches(tag.getParent(), steps, step - 1);
+		}
+		for(Tag ancestor = tag.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+			if(matches(ancestor, steps, step - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return - True if the given tag hasn't been cut out of the document, which is the case
+	 * when following its parents leads to the html tag
+	 */
+	private static boolean inDocument(Tag tag) {
+		while(tag.getParent() != null) {
+			tag = tag.getParent();
+		}
+		return "html".equals(tag.getType());
+	}
+
+	private static String attribute(Tag tag, String name) {
+		for(Attribute attr : tag.getAttributes()) {
+			if(attr != null && name.equals(attr.name)) {
+				return attr.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return - 1-based position of the tag among the children of its parent
+	 */
+	private static int position(Tag tag, boolean fromEnd) {
+		Tag parent = tag.getParent();
+		if(parent == null) {
+			return 1;
+		}
+		List<Tag> siblings = parent.getChildren();
+		for(int i = 0; i < siblings.size(); i++) {
+			if(siblings.get(i) == tag) {
+				return fromEnd ? siblings.size() - i : i + 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return - True if the white space separated list contains the given token
+	 */
+	private static boolean containsToken(String list, String token) {
+		int from = 0;
+		while((from = list.indexOf(token, from)) >= 0) {
+			int end = from + token.length();
+			if((from == 0 || Character.isWhitespace(list.charAt(from - 1)))
+					&& (end == list.length() || Character.isWhitespace(list.charAt(end)))) {
+				return true;
+			}
+			from = end;
+		}
+		return false;
+	}
+
+	/**
+	 * Turns selector text into steps
+	 */
+	private static class Parser {
+
+		private String text;
+		private int pos;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Selector parse() {
+			List<Step[]> alternatives = new ArrayList<Step[]>();
+			List<Step> steps = new ArrayList<Step>();
+			int combinator = DESCENDANT;
+			skipWhiteSpace();
+			while(true) {
+				Step step = compound();
+				step.combinator = combinator;
+				steps.add(step);
+
+				boolean space = skipWhiteSpace();
+				if(pos == text.length() || peek() == ',') {
+					alternatives.add(steps.toArray(new Step[steps.size()]));
+					steps = new ArrayList<Step>();
+					combinator = DESCENDANT;
+					if(pos == text.length()) {
+						break;
+					}
+					pos++;
+					skipWhiteSpace();
+				} else if(peek() == '>') {
+					pos++;
+					skipWhiteSpace();
+					combinator = CHILD;
+				} else if(space) {
+					combinator = DESCENDANT;
+				} else {
+					throw error("Unexpected '" + peek() + "'");
+				}
+			}
+			return new Selector(text, alternatives);
+		}
+
+		private Step compound() {
+			Step step = new Step();
+			int start = pos;
+			if(pos < text.length() && peek() == '*') {
+				pos++;
+			} else if(pos < text.length() && isNameChar(peek())) {
+				step.type = name().toLowerCase();
+			}
+			while(pos < text.length()) {
+				char c = peek();
+				if(c == '#') {
+					pos++;
+					step.id = name();
+				} else if(c == '.') {
+					pos++;
+					step.classes.add(name());
+				} else if(c == '[') {
+					pos++;
+					attribute(step);
+				} else if(c == ':') {
+					pos++;
+					pseudoClass(step);
+				} else {
+					break;
+				}
+			}
+			if(pos == start) {
+				throw error("Expected a selector");
+			}
+			return step;
+		}
+
+		private void attribute(Step step) {
+			skipWhiteSpace();
+			step.attrNames.add(name().toLowerCase());
+			skipWhiteSpace();
+			String value = null;
+			if(pos < text.length() && peek() == '=') {
+				pos++;
+				skipWhiteSpace();
+				if(pos < text.length() && (peek() == '"' || peek() == '\'')) {
+					char quote = text.charAt(pos++);
+					int end = text.indexOf(quote, pos);
+					if(end < 0) {
+						throw error("Unterminated string");
+					}
+					value = text.substring(pos, end);
+					pos = end + 1;
+				} else {
+					int end = text.indexOf(']', pos);
+					if(end < 0) {
+						throw error("Expected ']'");
+					}
+					value = text.substring(pos, end).trim();
+					pos = end;
+				}
+				skipWhiteSpace();
+			}
+			step.attrValues.add(value);
+			expect(']');
+		}
+
+		private void pseudoClass(Step step) {
+			String name = name().toLowerCase();
+			if(name.equals("first-child")) {
+				step.position = 1;
+			} else if(name.equals("last-child")) {
+				step.position = 1;
+				step.fromEnd = true;
+			} else if(name.equals("nth-child") || name.equals("nth-last-child")) {
+				expect('(');
+				skipWhiteSpace();
+				int start = pos;
+				while(pos < text.length() && Character.isDigit(peek())) {
+					pos++;
+				}
+				if(start == pos) {
+					throw error("Expected a position");
+				}
+				step.position = Integer.parseInt(text.substring(start, pos));
+				step.fromEnd = name.equals("nth-last-child");
+				if(step.position < 1) {
+					throw error("Positions start at 1");
+				}
+				skipWhiteSpace();
+				expect(')');
+			} else {
+				throw error("Unsupported pseudo-class :" + name);
+			}
+		}
+
+		private String name() {
+			int start = pos;
+			while(pos < text.length() && isNameChar(peek())) {
+				pos++;
+			}
+			if(start == pos) {
+				throw error("Expected a name");
+			}
+			return text.substring(start, pos);
+		}
+
+		private boolean isNameChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+		}
+
+		private boolean skipWhiteSpace() {
+			int start = pos;
+			while(pos < text.length() && Character.isWhitespace(peek())) {
+				pos++;
+			}
+			return pos > start;
+		}
+
+		private char peek() {
+			return text.charAt(pos);
+		}
+
+		private void expect(char c) {
+			if(pos == text.length() || peek() != c) {
+				throw error("Expected '" + c + "'");
+			}
+			pos++;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + pos + " in selector: " + text);
+		}
+	}
+}
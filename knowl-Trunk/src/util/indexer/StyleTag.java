@@ -1,7 +1,5 @@
 package util.indexer;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,25 +23,4 @@ private List<String> body;
 	public void appendBody(String line) {
 		body.add(line);
 	}
-	
-	public void linesToFile(BufferedWriter out) {
-		try {
-			String line = "";
-			line += "<" + getType();
-			for(Attribute attr : getAttributes()) {
-				line += " " + attr.toString();
-			}
-			line += ">";
-			out.write(line);
-			out.newLine();
-			for(String bodyLine : body) {
-				out.write(bodyLine);
-				out.newLine();
-			}
-			out.write("</" + getType() + ">");
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
 }
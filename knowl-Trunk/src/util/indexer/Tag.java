@@ -19,35 +19,16 @@ public class Tag {
 
 	}
 	
+	/**
+	 * Writes this tag and all of its children in html format, see {@link HtmlSerializer}.
+	 * 
+	 * @param out - Buffered writer for writing to the output file.
+	 */
 	public void linesToFile(BufferedWriter out) {
 		try {
-			String line = "<";
-			line += type;
-			if(!attributes.isEmpty()) {
-				for(Attribute attr : attributes) {
-					if(attr != null) {
-						line += " " + attr.toString();
-					}
-				}
-			}
-			line += ">";
-			
-			out.write(line);
-			out.newLine();
-			line = "";
-			
-			if(!children.isEmpty()) {
-				for(Tag child : children) {
-					if(child != null) {
-						child.linesToFile(out);
-					}
-				}
-			}
-			
-			out.write("</" + type + ">");
-			out.newLine();
+			new HtmlSerializer().serialize(this, out);
 		} catch (IOException e) {
-			
+			e.printStackTrace();
 		}
 	}
 	
@@ -74,9 +55,9 @@ public class Tag {
 					}
 				}
 				parent.setChildren(newParentChildren);
-				children = new ArrayList<Tag>();
-				parent = null;
 			}
+			children = new ArrayList<Tag>();
+			parent = null;
 		}
 	}
 	
@@ -84,7 +65,8 @@ public class Tag {
 		if(parent != null) {
 			parent.removeChild(this);
 		}
-		for(int i = 0; i < children.size(); i++){
+		// Backwards, as each child takes itself out of the list
+		for(int i = children.size() - 1; i >= 0; i--){
 			Tag child = children.get(i);
 			child.removeIncludeChildren();
 		}
@@ -0,0 +1,265 @@
+package util.indexer;
+
+/**
+ * Cleans up the text of a page in a single pass. Character references are decoded
+ * (Ex. &amp;eacute; and &amp;#233; both become the character itself) and typographic
+ * characters are mapped to plain ones: dashes become -, curly quotes become straight
+ * quotes, an ellipsis becomes ... and replacement characters are dropped. The same is
+ * done for dashes, quotes and ellipses whose UTF-8 bytes were read one byte per
+ * character as Cp1252 or ISO-8859-1 (Ex. U+00E2 U+20AC U+201C for an en dash), which
+ * is what pages read with the wrong charset are full of. A no-break space read that way
+ * (U+00C2 U+00A0) loses its stray U+00C2.
+ *
+ * References that stand for markup (&amp;amp; &amp;lt; &amp;gt;) are left alone, since
+ * text is written back out without escaping. Text with nothing to clean up is handed
+ * back as is, without copying it.
+ */
+final class TextNormalizer {
+
+	/**
+	 * The named references that are decoded, and the characters they stand for
+	 */
+	private static final String[] NAMES = {
+		"nbsp", "quot", "apos", "copy", "reg", "trade", "deg", "middot", "bull", "sect",
+		"laquo", "raquo", "lsquo", "rsquo", "sbquo", "ldquo", "rdquo", "ndash", "mdash", "hellip",
+		"cent", "pound", "euro", "yen", "times", "divide", "plusmn", "frac12", "iexcl", "iquest",
+		"aacute", "agrave", "acirc", "auml", "eacute", "egrave", "ecirc", "euml", "iacute", "oacute",
+		"ouml", "uacute", "uuml", "ntilde", "ccedil", "szlig" };
+	private static final char[] CHARS = {
+		'\u00a0', '"', '\'', '\u00a9', '\u00ae', '\u2122', '\u00b0', '\u00b7', '\u2022', '\u00a7',
+		'\u00ab', '\u00bb', '\u2018', '\u2019', '\u201a', '\u201c', '\u201d', '\u2013', '\u2014', '\u2026',
+		'\u00a2', '\u00a3', '\u20ac', '\u00a5', '\u00d7', '\u00f7', '\u00b1', '\u00bd', '\u00a1', '\u00bf',
+		'\u00e1', '\u00e0', '\u00e2', '\u00e4', '\u00e9', '\u00e8', '\u00ea', '\u00eb', '\u00ed', '\u00f3',
+		'\u00f6', '\u00fa', '\u00fc', '\u00f1', '\u00e7', '\u00df' };
+
+	/**
+	 * Longest reference looked at, Ex. &amp;#x10FFFF;
+	 */
+	private static final int MAX_REFERENCE = 10;
+
+	private TextNormalizer() {
+	}
+
+	/**
+	 * @return - True if the character never needs cleaning up
+	 */
+	static boolean isPlain(char c) {
+		return c < 128 && c != '&';
+	}
+
+	/**
+	 * Cleans up a block of text
+	 * @param text - The text to clean up
+	 * @return - The cleaned up text, the text itself if there was nothing to clean up
+	 */
+	static String normalize(String text) {
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			if(!isPlain(text.charAt(i)) && replace(text, i, length, null) != 0) {
+				// Only now that something changes is the text copied
+				StringBuilder out = new StringBuilder(length);
+				out.append(text, 0, i);
+				normalize(text, i, length, out);
+				return out.toString();
+			}
+		}
+		return text;
+	}
+
+	/**
+	 * Appends part of a block of text to a builder, cleaned up
+	 * @param text - Holds the text to clean up
+	 * @param start - Index of the first character of the text
+	 * @param end - Index after the last character of the text
+	 * @param out - The builder to append to
+	 */
+	static void normalize(CharSequence text, int start, int end, StringBuilder out) {
+		int i = start;
+		while(i < end) {
+			char c = text.charAt(i);
+			int consumed = isPlain(c) ? 0 : replace(text, i, end, out);
+			if(consumed == 0) {
+				out.append(c);
+				i++;
+			} else {
+				i += consumed;
+			}
+		}
+	}
+
+	/**
+	 * Looks for something to clean up at the given index, and appends what it is
+	 * replaced with.
+	 * @param out - Where the replacement goes, null to only find out if there is one
+	 * @return - The number of characters replaced, 0 if the character is left alone
+	 */
+	private static int replace(CharSequence text, int i, int end, StringBuilder out) {
+		char c = text.charAt(i);
+		if(c == '&') {
+			return replaceReference(text, i, end, out);
+		}
+		if(c == '\u00e2' && i + 2 < end && (text.charAt(i + 1) == '\u20ac' || text.charAt(i + 1) == '\u0080')) {
+			// The bytes E2 80 xx of a character between U+2000 and U+203F, read one byte
+			// per character
+			int third = windowsByte(text.charAt(i + 2));
+			if(third >= 0x80 && third < 0xc0) {
+				char decoded = (char) (0x2000 + (third & 0x3f));
+				if(canonical(decoded, null)) {
+					canonical(decoded, out);
+					return 3;
+				}
+			}
+		}
+		if(c == '\u00c2' && i + 1 < end && text.charAt(i + 1) == '\u00a0') {
+			// The bytes C2 A0 of a no-break space, read one byte per character
+			if(out != null) {
+				out.append('\u00a0');
+			}
+			return 2;
+		}
+		if(c == '\u00ef' && i + 2 < end && text.charAt(i + 1) == '\u00bf' && text.charAt(i + 2) == '\u00bd') {
+			// A replacement character read one byte per character
+			return 3;
+		}
+		return canonical(c, out) ? 1 : 0;
+	}
+
+	/**
+	 * Decodes the character reference starting at the given ampersand
+	 * @return - The length of the reference, 0 if it isn't one that is decoded
+	 */
+	private static int replaceReference(CharSequence text, int amp, int end, StringBuilder out) {
+		int semicolon = -1;
+		for(int i = amp + 1; i < end && i - amp <= MAX_REFERENCE; i++) {
+			if(text.charAt(i) == ';') {
+				semicolon = i;
+				break;
+			}
+		}
+		if(semicolon < amp + 2) {
+			return 0;
+		}
+
+		int decoded = -1;
+		if(text.charAt(amp + 1) == '#') {
+			boolean hex = text.charAt(amp + 2) == 'x' || text.charAt(amp + 2) == 'X';
+			int value = 0;
+			int digits = 0;
+			for(int i = amp + (hex ? 3 : 2); i < semicolon; i++) {
+				int digit = Character.digit(text.charAt(i), hex ? 16 : 10);
+				if(digit < 0) {
+					return 0;
+				}
+				value = value * (hex ? 16 : 10) + digit;
+				digits++;
+			}
+			if(digits == 0 || value > Character.MAX_CODE_POINT) {
+				return 0;
+			}
+			decoded = value;
+		} else {
+			int nameLength = semicolon - amp - 1;
+			for(int n = 0; n < NAMES.length; n++) {
+				if(NAMES[n].length() == nameLength && regionMatches(text, amp + 1, NAMES[n])) {
+					decoded = CHARS[n];
+					break;
+				}
+			}
+		}
+
+		// Markup characters and control characters stay as references
+		if(decoded < 0 || decoded == '<' || decoded == '>' || decoded == '&'
+				|| (decoded < 32 && decoded != '\t' && decoded != '\n' && decoded != '\r')) {
+			return 0;
+		}
+		if(out != null) {
+			if(decoded > 0xffff) {
+				out.appendCodePoint(decoded);
+			} else if(!canonical((char) decoded, out)) {
+				out.append((char) decoded);
+			}
+		}
+		return semicolon - amp + 1;
+	}
+
+	private static boolean regionMatches(CharSequence text, int start, String name) {
+		for(int i = 0; i < name.length(); i++) {
+			if(text.charAt(start + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Maps a typographic character to a plain one
+	 * @param out - Where the plain form goes, null to only find out if there is one
+	 * @return - True if the character has a plain form
+	 */
+	private static boolean canonical(char c, StringBuilder out) {
+		String plain;
+		switch(c) {
+		case '\u2010': case '\u2011': case '\u2012': case '\u2013': case '\u2014': case '\u2015': case '\u2212':
+			plain = "-";
+			break;
+		case '\u2018': case '\u2019': case '\u201a': case '\u2032':
+			plain = "'";
+			break;
+		case '\u201c': case '\u201d': case '\u201e': case '\u2033':
+			plain = "\"";
+			break;
+		case '\u2026':
+			plain = "...";
+			break;
+		case '\ufffd':
+			plain = "";
+			break;
+		default:
+			return false;
+		}
+		if(out != null) {
+			out.append(plain);
+		}
+		return true;
+	}
+
+	/**
+	 * @return - The byte a character stands for when bytes are read as Cp1252 (or as
+	 * ISO-8859-1, where they are the same), -1 if it doesn't stand for one
+	 */
+	private static int windowsByte(char c) {
+		if(c < 0x100) {
+			return c;
+		}
+		switch(c) {
+		case '\u20ac': return 0x80;
+		case '\u201a': return 0x82;
+		case '\u0192': return 0x83;
+		case '\u201e': return 0x84;
+		case '\u2026': return 0x85;
+		case '\u2020': return 0x86;
+		case '\u2021': return 0x87;
+		case '\u02c6': return 0x88;
+		case '\u2030': return 0x89;
+		case '\u0160': return 0x8a;
+		case '\u2039': return 0x8b;
+		case '\u0152': return 0x8c;
+		case '\u017d': return 0x8e;
+		case '\u2018': return 0x91;
+		case '\u2019': return 0x92;
+		case '\u201c': return 0x93;
+		case '\u201d': return 0x94;
+		case '\u2022': return 0x95;
+		case '\u2013': return 0x96;
+		case '\u2014': return 0x97;
+		case '\u02dc': return 0x98;
+		case '\u2122': return 0x99;
+		case '\u0161': return 0x9a;
+		case '\u203a': return 0x9b;
+		case '\u0153': return 0x9c;
+		case '\u017e': return 0x9e;
+		case '\u0178': return 0x9f;
+		default: return -1;
+		}
+	}
+}
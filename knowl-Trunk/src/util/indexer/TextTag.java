@@ -1,8 +1,5 @@
 package util.indexer;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-
 public class TextTag extends Tag {
 
 	private String body;
@@ -23,13 +20,4 @@ public class TextTag extends Tag {
 	public void append(String text) {
 		this.body += text;
 	}
-	
-	public void linesToFile(BufferedWriter out) {
-		try {
-			out.write(body);
-			out.newLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
 }
@@ -0,0 +1,61 @@
+package util.indexer;
+
+import java.util.List;
+
+/**
+ * Receives the events produced by a {@link Tokenizer} while it walks through an
+ * html document. Character content (text, comments, scripts and style bodies) is
+ * handed over as a region of the tokenizer's internal buffer, which is reused as
+ * soon as the call returns. Copy the region if you need to keep it around.
+ */
+public interface TokenHandler {
+
+	/**
+	 * Called for every opening tag, including tags that close themselves (<br />).
+	 *
+	 * @param type - The lower-cased tag type.
+	 * @param attributes - The attributes declared in the tag, in order of appearance.
+	 * @param selfClosing - True if the tag ended with "/>".
+	 */
+	public void openTag(String type, List<Attribute> attributes, boolean selfClosing);
+
+	/**
+	 * Called for every closing tag.
+	 *
+	 * @param type - The lower-cased tag type.
+	 */
+	public void closeTag(String type);
+
+	/**
+	 * Called for a block of text between two tags. Runs of white space have already
+	 * been collapsed into a single space.
+	 */
+	public void text(char[] buf, int start, int length);
+
+	/**
+	 * Called with the body of a comment, without the surrounding <!-- and -->.
+	 */
+	public void comment(char[] buf, int start, int length);
+
+	/**
+	 * Called with the body of a script or noscript block.
+	 *
+	 * @param type - Either "script" or "noscript".
+	 * @param attributes - The attributes declared in the opening tag.
+	 */
+	public void script(String type, List<Attribute> attributes, char[] buf, int start, int length);
+
+	/**
+	 * Called with the body of a style block.
+	 *
+	 * @param attributes - The attributes declared in the opening tag.
+	 */
+	public void style(List<Attribute> attributes, char[] buf, int start, int length);
+
+	/**
+	 * Called for the doctype declaration.
+	 *
+	 * @param doctypeInfo - Everything between the < and > of the declaration (Ex. !DOCTYPE html).
+	 */
+	public void doctype(String doctypeInfo);
+}
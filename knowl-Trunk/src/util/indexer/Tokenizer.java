@@ -0,0 +1,499 @@
+package util.indexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A character level html tokenizer. The document is read into a char[] buffer and walked
+ * through exactly once by a small state machine, which reports opening tags, closing tags,
+ * text, comments, scripts, styles and the doctype to a {@link TokenHandler}.
+ *
+ * Unlike the line based splicing done by the old indexing path, no intermediate strings are
+ * built for lines, comments or scripts. Characters are copied once into a reusable content
+ * buffer and only turned into strings by the handler if it decides to keep them.
+ *
+ * The tokenizer keeps all of its state between calls to {@link #feed(char[], int, int)}, so a
+ * document can be handed over in arbitrary chunks as it arrives.
+ */
+public class Tokenizer {
+
+	/*
+	 * States of the tokenizer.
+	 */
+	private static final int TEXT = 0;
+	private static final int TAG_OPEN = 1;
+	private static final int TAG_NAME = 2;
+	private static final int END_TAG_OPEN = 3;
+	private static final int END_TAG_NAME = 4;
+	private static final int END_TAG_SKIP = 5;
+	private static final int BEFORE_ATTR_NAME = 6;
+	private static final int ATTR_NAME = 7;
+	private static final int AFTER_ATTR_NAME = 8;
+	private static final int BEFORE_ATTR_VALUE = 9;
+	private static final int ATTR_VALUE_DOUBLE = 10;
+	private static final int ATTR_VALUE_SINGLE = 11;
+	private static final int ATTR_VALUE_UNQUOTED = 12;
+	private static final int SELF_CLOSING = 13;
+	private static final int MARKUP_DECLARATION = 14;
+	private static final int COMMENT = 15;
+	private static final int DECLARATION = 16;
+	private static final int BOGUS = 17;
+	private static final int RAW_TEXT = 18;
+	private static final int RAW_TEXT_END = 19;
+
+	/**
+	 * Number of characters read from the input reader at a time.
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * The handler receiving all events from this tokenizer.
+	 */
+	private final TokenHandler handler;
+
+	/**
+	 * The current state of the tokenizer.
+	 */
+	private int state;
+
+	/**
+	 * Reusable buffer for text, comments, scripts and style bodies.
+	 */
+	private char[] content;
+
+	/**
+	 * Number of characters currently used in the content buffer.
+	 */
+	private int contentLength;
+
+	/**
+	 * Reusable buffers for tag names, attribute names and attribute values.
+	 */
+	private final StringBuilder name;
+	private final StringBuilder attrName;
+	private final StringBuilder attrValue;
+
+	/**
+	 * Attributes of the tag currently being read.
+	 */
+	private List<Attribute> attributes;
+
+	/**
+	 * Flag specifying whether the tag currently being read ends with "/>".
+	 */
+	private boolean selfClosing;
+
+	/**
+	 * Number of consecutive dashes read while inside of a comment.
+	 */
+	private int dashes;
+
+	/**
+	 * Type of the script or style block currently in progress, along with the closing
+	 * sequence being searched for and how much of it has been matched so far.
+	 */
+	private String rawType;
+	private char[] rawCloser;
+	private int rawMatched;
+
+	/**
+	 * Creates a tokenizer reporting to the given handler.
+	 *
+	 * @param handler - The handler to receive the events of this tokenizer.
+	 */
+	public Tokenizer(TokenHandler handler) {
+		this.handler = handler;
+		content = new char[256];
+		name = new StringBuilder();
+		attrName = new StringBuilder();
+		attrValue = new StringBuilder();
+		reset();
+	}
+
+	/**
+	 * Tokenizes the entire document being read from the given reader. The reader is read
+	 * until it is exhausted, but is not closed.
+	 *
+	 * @param in - Reader that is reading from the html document.
+	 * @throws IOException - If the reader fails.
+	 */
+	public void tokenize(Reader in) throws IOException {
+		char[] buf = new char[READ_BUFFER_SIZE];
+		int read;
+		while((read = in.read(buf, 0, buf.length)) != -1) {
+			feed(buf, 0, read);
+		}
+		finish();
+	}
+
+	/**
+	 * Tokenizes the next chunk of the document. Anything left unfinished at the end of the
+	 * chunk (half a tag, an open comment...) is picked up by the next call.
+	 *
+	 * @param buf - Buffer holding the chunk.
+	 * @param start - Index of the first character of the chunk.
+	 * @param length - Number of characters in the chunk.
+	 */
+	public void feed(char[] buf, int start, int length) {
+		int end = start + length;
+		for(int i = start; i < end; i++) {
+			char c = buf[i];
+			switch(state) {
+			case TEXT:
+				if(c == '<') {
+					state = TAG_OPEN;
+				} else if(isWhiteSpace(c)) {
+					// Collapse any run of white space into a single space
+					if(contentLength == 0 || content[contentLength - 1] != ' ') {
+						append(' ');
+					}
+				} else {
+					append(c);
+				}
+				break;
+
+			case TAG_OPEN:
+				if(isLetter(c)) {
+					flushText();
+					startTag();
+					name.append(Character.toLowerCase(c));
+					state = TAG_NAME;
+				} else if(c == '/') {
+					state = END_TAG_OPEN;
+				} else if(c == '!') {
+					flushText();
+					name.setLength(0);
+					state = MARKUP_DECLARATION;
+				} else if(c == '?') {
+					flushText();
+					state = BOGUS;
+				} else {
+					// Not a tag after all, the < was part of the text
+					append('<');
+					state = TEXT;
+					i--;
+				}
+				break;
+
+			case TAG_NAME:
+				if(isWhiteSpace(c)) {
+					state = BEFORE_ATTR_NAME;
+				} else if(c == '/') {
+					state = SELF_CLOSING;
+				} else if(c == '>') {
+					emitOpenTag();
+				} else {
+					name.append(Character.toLowerCase(c));
+				}
+				break;
+
+			case BEFORE_ATTR_NAME:
+				if(c == '/') {
+					state = SELF_CLOSING;
+				} else if(c == '>') {
+					emitOpenTag();
+				} else if(!isWhiteSpace(c)) {
+					startAttribute(c);
+				}
+				break;
+
+			case ATTR_NAME:
+				if(isWhiteSpace(c)) {
+					state = AFTER_ATTR_NAME;
+				} else if(c == '=') {
+					state = BEFORE_ATTR_VALUE;
+				} else if(c == '/') {
+					addAttribute();
+					state = SELF_CLOSING;
+				} else if(c == '>') {
+					addAttribute();
+					emitOpenTag();
+				} else {
+					attrName.append(Character.toLowerCase(c));
+				}
+				break;
+
+			case AFTER_ATTR_NAME:
+				if(c == '=') {
+					state = BEFORE_ATTR_VALUE;
+				} else if(c == '/') {
+					addAttribute();
+					state = SELF_CLOSING;
+				} else if(c == '>') {
+					addAttribute();
+					emitOpenTag();
+				} else if(!isWhiteSpace(c)) {
+					// The previous attribute had no value, this is the start of the next one
+					addAttribute();
+					startAttribute(c);
+				}
+				break;
+
+			case BEFORE_ATTR_VALUE:
+				if(c == '"') {
+					state = ATTR_VALUE_DOUBLE;
+				} else if(c == '\'') {
+					state = ATTR_VALUE_SINGLE;
+				} else if(c == '>') {
+					addAttribute();
+					emitOpenTag();
+				} else if(!isWhiteSpace(c)) {
+					attrValue.append(c);
+					state = ATTR_VALUE_UNQUOTED;
+				}
+				break;
+
+			case ATTR_VALUE_DOUBLE:
+				if(c == '"') {
+					addAttribute();
+					state = BEFORE_ATTR_NAME;
+				} else {
+					attrValue.append(c);
+				}
+				break;
+
+			case ATTR_VALUE_SINGLE:
+				if(c == '\'') {
+					addAttribute();
+					state = BEFORE_ATTR_NAME;
+				} else {
+					attrValue.append(c);
+				}
+				break;
+
+			case ATTR_VALUE_UNQUOTED:
+				if(isWhiteSpace(c)) {
+					addAttribute();
+					state = BEFORE_ATTR_NAME;
+				} else if(c == '>') {
+					addAttribute();
+					emitOpenTag();
+				} else {
+					attrValue.append(c);
+				}
+				break;
+
+			case SELF_CLOSING:
+				if(c == '>') {
+					selfClosing = true;
+					emitOpenTag();
+				} else if(!isWhiteSpace(c)) {
+					// A stray slash in the middle of a tag, keep reading attributes
+					state = BEFORE_ATTR_NAME;
+					i--;
+				}
+				break;
+
+			case END_TAG_OPEN:
+				if(isLetter(c)) {
+					flushText();
+					name.setLength(0);
+					name.append(Character.toLowerCase(c));
+					state = END_TAG_NAME;
+				} else if(c == '>') {
+					// "</>" is simply ignored
+					state = TEXT;
+				} else {
+					flushText();
+					state = BOGUS;
+				}
+				break;
+
+			case END_TAG_NAME:
+				if(c == '>') {
+					handler.closeTag(name.toString());
+					state = TEXT;
+				} else if(isWhiteSpace(c) || c == '/') {
+					state = END_TAG_SKIP;
+				} else {
+					name.append(Character.toLowerCase(c));
+				}
+				break;
+
+			case END_TAG_SKIP:
+				if(c == '>') {
+					handler.closeTag(name.toString());
+					state = TEXT;
+				}
+				break;
+
+			case MARKUP_DECLARATION:
+				if(c == '-' && (name.length() == 0 || name.charAt(0) == '-')) {
+					name.append(c);
+					if(name.length() == 2) {
+						contentLength = 0;
+						dashes = 0;
+						state = COMMENT;
+					}
+				} else {
+					state = DECLARATION;
+					i--;
+				}
+				break;
+
+			case COMMENT:
+				if(c == '>' && dashes >= 2) {
+					// Leave the closing dashes out of the comment body
+					handler.comment(content, 0, contentLength - 2);
+					contentLength = 0;
+					state = TEXT;
+				} else {
+					dashes = (c == '-') ? dashes + 1 : 0;
+					append(c);
+				}
+				break;
+
+			case DECLARATION:
+				if(c == '>') {
+					emitDeclaration();
+					state = TEXT;
+				} else {
+					name.append(c);
+				}
+				break;
+
+			case BOGUS:
+				if(c == '>') {
+					state = TEXT;
+				}
+				break;
+
+			case RAW_TEXT:
+				if(rawMatched == rawCloser.length) {
+					if(isLetter(c) || Character.isDigit(c)) {
+						// Something like </scripts, which does not close the block
+						rawMatched = 0;
+						append(c);
+					} else {
+						emitRaw(contentLength - rawCloser.length);
+						state = RAW_TEXT_END;
+						i--;
+					}
+					break;
+				}
+				char lower = Character.toLowerCase(c);
+				if(lower == rawCloser[rawMatched]) {
+					rawMatched++;
+				} else {
+					rawMatched = (lower == rawCloser[0]) ? 1 : 0;
+				}
+				append(c);
+				break;
+
+			case RAW_TEXT_END:
+				if(c == '>') {
+					state = TEXT;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Signals the end of the document. Any pending text is handed to the handler and the
+	 * tokenizer is reset so it can be used for another document.
+	 */
+	public void finish() {
+		if(state == TAG_OPEN) {
+			append('<');
+			state = TEXT;
+		}
+		if(state == TEXT) {
+			flushText();
+		}
+		reset();
+	}
+
+	private void reset() {
+		state = TEXT;
+		contentLength = 0;
+		name.setLength(0);
+		attrName.setLength(0);
+		attrValue.setLength(0);
+		attributes = null;
+		selfClosing = false;
+		dashes = 0;
+		rawType = null;
+		rawCloser = null;
+		rawMatched = 0;
+	}
+
+	private void startTag() {
+		name.setLength(0);
+		attributes = new ArrayList<Attribute>();
+		selfClosing = false;
+	}
+
+	private void startAttribute(char c) {
+		attrName.setLength(0);
+		attrValue.setLength(0);
+		attrName.append(Character.toLowerCase(c));
+		state = ATTR_NAME;
+	}
+
+	private void addAttribute() {
+		attributes.add(new Attribute(attrName.toString(), attrValue.toString()));
+		attrName.setLength(0);
+		attrValue.setLength(0);
+	}
+
+	private void emitOpenTag() {
+		String type = name.toString();
+		contentLength = 0;
+		if(!selfClosing && (type.equals("script") || type.equals("noscript") || type.equals("style"))) {
+			// Everything up to the matching closing tag is the body of this block
+			rawType = type;
+			rawCloser = ("</" + type).toCharArray();
+			rawMatched = 0;
+			state = RAW_TEXT;
+		} else {
+			handler.openTag(type, attributes, selfClosing);
+			state = TEXT;
+		}
+	}
+
+	private void emitRaw(int length) {
+		if(rawType.equals("style")) {
+			handler.style(attributes, content, 0, length);
+		} else {
+			handler.script(rawType, attributes, content, 0, length);
+		}
+		contentLength = 0;
+		rawType = null;
+		rawCloser = null;
+		rawMatched = 0;
+	}
+
+	private void emitDeclaration() {
+		if(name.length() >= 7 && name.substring(0, 7).equalsIgnoreCase("doctype")) {
+			handler.doctype("!" + name.toString().trim());
+		}
+		// Anything else (<![CDATA[...]]> and the like) is ignored
+	}
+
+	private void flushText() {
+		if(contentLength > 0) {
+			handler.text(content, 0, contentLength);
+			contentLength = 0;
+		}
+	}
+
+	private void append(char c) {
+		if(contentLength == content.length) {
+			char[] bigger = new char[content.length * 2];
+			System.arraycopy(content, 0, bigger, 0, contentLength);
+			content = bigger;
+		}
+		content[contentLength++] = c;
+	}
+
+	private static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+}
@@ -6,6 +6,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JCheckBox;
 import javax.swing.JEditorPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 
 /**
@@ -20,6 +21,8 @@ public class knowlTab {
 	String name;
 	ImageIcon icon;
 	JCheckBox box;
+	JProgressBar progress;
+	Navigator navigator;
 	Dimension tabMinDim = new Dimension(600,400);
 	/**
 	 * 
@@ -35,7 +38,14 @@ public class knowlTab {
 		jep.setPreferredSize(new Dimension(560, 400));
 		jsp = new JScrollPane(jep);
 		jsp.setPreferredSize(new Dimension(580, 400));
+		progress = new JProgressBar();
+		progress.setIndeterminate(true);
+		progress.setStringPainted(true);
+		progress.setPreferredSize(new Dimension(580, 20));
+		progress.setVisible(false);
+		tab.add(progress);
 		tab.add(jsp);
+		navigator = new Navigator(this);
 		setVisible(false);
 		}
 	
@@ -79,6 +89,29 @@ public class knowlTab {
 		this.jep = jep;
 	}
 
+	/**
+	 * 
+	 * @return - returns the navigator loading clicked links into this tab
+	 */
+	public Navigator getNavigator() {
+		return navigator;
+	}
+
+	/**
+	 * Shows the progress bar with the given text, while a page loads
+	 * @param text - what is being done
+	 */
+	public void showProgress(String text) {
+		progress.setString(text);
+		progress.setVisible(true);
+		tab.revalidate();
+	}
+
+	public void hideProgress() {
+		progress.setVisible(false);
+		tab.revalidate();
+	}
+
 	//will be used to check for correct path and that file exists and the return an image icon
 	private ImageIcon genIcon(String iconPath){
 		//add code to check for correct file path
@@ -3,8 +3,13 @@ package util;
 public class testlaunch {
 
 	public static void main(String args[]){
-		
+		// Startup is timed like a query, so it shows up in the -Dknowl.stats dump
+		QueryTimeline startup = QueryTimeline.begin("knowl", "startup");
+
 		gui gui = new gui();
 		gui.launch();
+
+		startup.markStage("startup");
+		startup.end();
 	}
 }